@@ -183,6 +183,32 @@ public class Agent extends AgentCore implements AgentInterface {
 		caller.call(url, method, params, callback);
 	}
 
+	/**
+	 * Send async as part of a JSON-RPC batch, expecting a response through the
+	 * given callback. Requests to the same url are collected for at most the
+	 * configured batch delay (see AgentConfig.setBatchDelay()) or until the
+	 * batch size is reached, and are then sent together.
+	 * 
+	 * @param <T>
+	 *            the generic type of the result, controlled by the TypeUtil
+	 *            injector.
+	 * @param url
+	 *            the address of the other agent
+	 * @param method
+	 *            the remote RPC method
+	 * @param params
+	 *            the remote RPC method's params
+	 * @param callback
+	 *            A callback with the expected result type.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected <T> void callBatched(final URI url, final String method,
+			final ObjectNode params, final AsyncCallback<T> callback)
+			throws IOException {
+		caller.callBatched(url, method, params, callback);
+	}
+
 	/**
 	 * Send an asynchronous request to multiple agents. This method calls the
 	 * given callback with a map of results, after the final agent
@@ -287,4 +287,51 @@ public class AgentConfig extends Config {
 	public void setCanHibernate(boolean canHibernate) {
 		this.put("canHibernate", canHibernate);
 	}
+
+	/**
+	 * Sets the maximum number of requests in an outbound batch, see
+	 * Caller.callBatched().
+	 *
+	 * @param batchSize
+	 *            the new batch size
+	 */
+	public void setBatchSize(final int batchSize) {
+		this.put("batchSize", batchSize);
+	}
+
+	/**
+	 * Gets the maximum number of requests in an outbound batch.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		if (this.has("batchSize")) {
+			return this.get("batchSize").asInt();
+		}
+		return 20;
+	}
+
+	/**
+	 * Sets the maximum delay of a request in an outbound batch. (in
+	 * milliseconds)
+	 *
+	 * @param batchDelay
+	 *            the new batch delay
+	 */
+	public void setBatchDelay(final int batchDelay) {
+		this.put("batchDelay", batchDelay);
+	}
+
+	/**
+	 * Gets the maximum delay of a request in an outbound batch. (in
+	 * milliseconds)
+	 *
+	 * @return the batch delay
+	 */
+	public int getBatchDelay() {
+		if (this.has("batchDelay")) {
+			return this.get("batchDelay").asInt();
+		}
+		return 10;
+	}
 }
@@ -31,10 +31,12 @@ import com.almende.eve.protocol.auth.Authorizor;
 import com.almende.eve.protocol.jsonrpc.JSONRpcProtocol;
 import com.almende.eve.protocol.jsonrpc.JSONRpcProtocolBuilder;
 import com.almende.eve.protocol.jsonrpc.JSONRpcProtocolConfig;
+import com.almende.eve.protocol.jsonrpc.RequestBatcher;
 import com.almende.eve.protocol.jsonrpc.RpcBasedProtocol;
 import com.almende.eve.protocol.jsonrpc.annotation.Access;
 import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
 import com.almende.eve.protocol.jsonrpc.formats.Caller;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
 import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
 import com.almende.eve.scheduling.Scheduler;
@@ -169,7 +171,7 @@ public class AgentCore implements Receiver, Configurable, Authorizor {
 	@Override
 	public boolean isSelf(URI senderUrl) {
 		// TODO: check for scheduler URL?
-		return (caller.getSenderUrls().contains(senderUrl));
+		return transport != null && transport.isOwnAddress(senderUrl);
 	}
 
 	/**
@@ -199,6 +201,9 @@ public class AgentCore implements Receiver, Configurable, Authorizor {
 	@Access(AccessType.UNAVAILABLE)
 	protected void destroy(Boolean instanceOnly) {
 		onDestroy();
+		if (caller instanceof DefaultCaller) {
+			((DefaultCaller) caller).flush();
+		}
 		if (scheduler != null) {
 			scheduler.delete();
 			scheduler = null;
@@ -651,6 +656,21 @@ public class AgentCore implements Receiver, Configurable, Authorizor {
 	}
 
 	private class DefaultCaller implements Caller {
+		private RequestBatcher	batcher	= null;
+
+		private synchronized RequestBatcher getBatcher() {
+			if (batcher == null) {
+				batcher = new RequestBatcher(this, config.getBatchSize(),
+						config.getBatchDelay());
+			}
+			return batcher;
+		}
+
+		private synchronized void flush() {
+			if (batcher != null) {
+				batcher.flush();
+			}
+		}
 
 		@Override
 		public void call(final URI url, final Object message)
@@ -680,6 +700,23 @@ public class AgentCore implements Receiver, Configurable, Authorizor {
 			call(url, message, null);
 		}
 
+		@Override
+		public void call(final URI url, final JSONBatch batch, final String tag)
+				throws IOException {
+			final Meta wrapper = protocolStack.outbound(batch, url, tag);
+			if (wrapper != null) {
+				transport.send(wrapper.getPeer(), wrapper.getMsg(),
+						wrapper.getTag(), null);
+			}
+		}
+
+		@Override
+		public <T> void callBatched(final URI url, final String method,
+				final ObjectNode params, final AsyncCallback<T> callback)
+				throws IOException {
+			getBatcher().add(url, new JSONRequest(method, params, callback));
+		}
+
 		@Override
 		public <T> void call(final URI url, final String method,
 				final ObjectNode params, final AsyncCallback<T> callback)
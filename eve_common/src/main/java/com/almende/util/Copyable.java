@@ -0,0 +1,23 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util;
+
+/**
+ * The Interface Copyable, for message objects that are handed to another
+ * agent without serialization. The receiver gets a deep copy, so it can't
+ * change the object of the sender, and the other way around.
+ *
+ * @param <T>
+ *            the type of the copy
+ */
+public interface Copyable<T> {
+
+	/**
+	 * Create a deep copy of this object.
+	 *
+	 * @return the copy
+	 */
+	T deepCopy();
+}
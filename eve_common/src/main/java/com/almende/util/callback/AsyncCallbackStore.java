@@ -4,31 +4,28 @@
  */
 package com.almende.util.callback;
 
-import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.ReentrantLock;
+
+import com.almende.util.threads.TimingWheel.Timeout;
 
 /**
  * Store to hold a map with callbacks in progress.
- * The Store handles timeouts on the callbacks.
+ * The Store handles timeouts on the callbacks, through the process wide
+ * TimeoutService.
  * 
  * @param <T>
  *            the generic type
  */
 public class AsyncCallbackStore<T> {
-	private final Map<Object, CallbackHandler>	store		= new ConcurrentHashMap<Object, CallbackHandler>(
-																	5);
-	private final TimeoutHandler				head		= new TimeoutHandler(
-																	null);
-	private final Thread						scanner;
-	private boolean								started		= false;
-	private TimeoutHandler						tail		= head;
-	private int									growsize	= 10;
-	private final static int					MAXGROWSIZE	= 20000;
+	private final ConcurrentMap<Object, CallbackHandler>	store	= new ConcurrentHashMap<Object, CallbackHandler>(
+																		5);
+	private final String								id;
 
 	/** timeout in milliseconds */
-	private long								timeout		= 30000;
+	private long										timeout	= 30000;
 
 	/**
 	 * Instantiates a new async callback store.
@@ -37,108 +34,17 @@ public class AsyncCallbackStore<T> {
 	 *            the id
 	 */
 	public AsyncCallbackStore(String id) {
-		scanner = new Thread(new Runnable() {
-			public void run() {
-				while (true) {
-					TimeoutHandler handler = tail;
-					while (handler != null) {
-						handler.checkTimeout();
-						handler = handler.prev;
-					}
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {}
-				}
-
-			}
-		}, "AsyncCBScanner:" + id);
-
-	}
-
-	private void startScanner() {
-		if (!started) {
-			synchronized (scanner) {
-				if (!started) {
-					scanner.start();
-					started = true;
-				}
-			}
-		}
-	}
-
-	private void grow() {
-		synchronized (head) {
-			if (growsize <= MAXGROWSIZE / 2) {
-				growsize *= 2;
-			}
-			for (int i = 0; i < growsize; i++) {
-				tail = new TimeoutHandler(tail);
-			}
-		}
-	}
-
-	private void put(final CallbackHandler handler) {
-		TimeoutHandler spot = head;
-		while (!spot.put(handler)) {
-			if (spot == tail) {
-				grow();
-			}
-			spot = spot.next;
-		}
+		this.id = id;
+		TimeoutService.register(this);
 	}
 
-	class TimeoutHandler {
-		private TimeoutHandler	next	= null;
-		private TimeoutHandler	prev	= null;
-		private CallbackHandler	handler;
-		private ReentrantLock	lock	= new ReentrantLock();
-
-		public TimeoutHandler(final TimeoutHandler prev) {
-			if (prev != null) {
-				this.prev = prev;
-				prev.next = this;
-			}
-		}
-
-		public boolean put(final CallbackHandler handler) {
-			if (this.handler == null) {
-				if (lock.tryLock()) {
-					if (this.handler == null) {
-						this.handler = handler;
-						handler.parent = this;
-						lock.unlock();
-						return true;
-					}
-					lock.unlock();
-				}
-			}
-			return false;
-		}
-
-		public void checkTimeout() {
-			if (this.handler != null) {
-				lock.lock();
-				if (this.handler != null && this.handler.callback != null
-						&& this.handler.timeout <= System.currentTimeMillis()) {
-					this.handler.callback.onFailure(new TimeoutException(
-							"Timeout occurred for callback with id '"
-									+ this.handler.id + "': "
-									+ this.handler.description));
-					this.handler = null;
-				}
-				lock.unlock();
-			}
-		}
-
-		public void forget() {
-			lock.lock();
-			this.handler = null;
-			lock.unlock();
-		}
-
-		public CallbackHandler get() {
-			return this.handler;
-		}
+	/**
+	 * Gets the id of this store.
+	 *
+	 * @return the id
+	 */
+	public String getId() {
+		return id;
 	}
 
 	/**
@@ -159,18 +65,15 @@ public class AsyncCallbackStore<T> {
 	 */
 	public void put(final Object id, final String description,
 			final AsyncCallback<T> callback) {
-		startScanner();
-		if (store.containsKey(id)) {
-			throw new IllegalStateException("Callback with id '" + id
-					+ "' already in queue");
-		}
 		final CallbackHandler handler = new CallbackHandler();
 		handler.callback = callback;
 		handler.id = id;
 		handler.description = description;
-		handler.timeout = System.currentTimeMillis() + timeout;
-		put(handler);
-		store.put(id, handler);
+		if (store.putIfAbsent(id, handler) != null) {
+			throw new IllegalStateException("Callback with id '" + id
+					+ "' already in queue");
+		}
+		handler.timeout = TimeoutService.schedule(handler, timeout);
 	}
 
 	/**
@@ -185,28 +88,69 @@ public class AsyncCallbackStore<T> {
 	public AsyncCallback<T> get(final Object id) {
 		final CallbackHandler handler = store.remove(id);
 		if (handler != null) {
-			handler.parent.forget();
+			handler.cancel();
 			return handler.callback;
 		}
 		return null;
 	}
 
 	/**
-	 * Remove all callbacks from the queue.
+	 * Remove all callbacks from the queue. The removed callbacks are failed
+	 * with a CancellationException.
 	 */
 	public synchronized void clear() {
-		store.clear();
+		for (final Object key : store.keySet()) {
+			final CallbackHandler handler = store.remove(key);
+			if (handler != null) {
+				handler.cancel();
+				handler.callback.onFailure(new CancellationException(
+						"Callback with id '" + key + "' removed from store '"
+								+ id + "'"));
+			}
+		}
+	}
+
+	/**
+	 * Clear this store and deregister it from the TimeoutService.
+	 */
+	public void close() {
+		clear();
+		TimeoutService.deregister(this);
+	}
+
+	/**
+	 * Gets the number of pending callbacks in this store.
+	 *
+	 * @return the pending count
+	 */
+	public int getPendingCount() {
+		return store.size();
 	}
 
 	/**
 	 * Helper class to store a callback and its timeout task.
 	 */
-	private class CallbackHandler {
+	private class CallbackHandler implements Runnable {
 		private Object				id;
 		private String				description;
 		private AsyncCallback<T>	callback;
-		private long				timeout;
-		private TimeoutHandler		parent;
+		private volatile Timeout	timeout;
+
+		private void cancel() {
+			final Timeout to = timeout;
+			if (to != null) {
+				to.cancel();
+			}
+		}
+
+		@Override
+		public void run() {
+			if (store.remove(id, this)) {
+				callback.onFailure(new TimeoutException(
+						"Timeout occurred for callback with id '" + id + "': "
+								+ description));
+			}
+		}
 	}
 
 	/**
@@ -4,10 +4,12 @@
  */
 package com.almende.util.callback;
 
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.almende.util.TypeUtil;
+import com.almende.util.threads.ThreadPool;
 
 /**
  * The Class SyncCallback.
@@ -17,13 +19,34 @@ import com.almende.util.TypeUtil;
  */
 public class SyncCallback<T> extends AsyncCallback<T> {
 
-	private ReentrantLock	lock		= new ReentrantLock();
-	private Condition		condition	= lock.newCondition();
+	private ReentrantLock		lock		= new ReentrantLock();
+	private Condition			condition	= lock.newCondition();
 
-	private T				response	= null;
-	private Exception		exception	= null;
-	private boolean			done		= false;
-	private boolean			waiting		= false;
+	private T					response	= null;
+	private Exception			exception	= null;
+	private volatile boolean	done		= false;
+	private boolean				waiting		= false;
+	private final Blocker		blocker		= new Blocker();
+
+	private class Blocker implements ManagedBlocker {
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			lock.lock();
+			try {
+				while (!done) {
+					condition.await();
+				}
+			} finally {
+				lock.unlock();
+			}
+			return true;
+		}
+	}
 
 	/**
 	 * Instantiates a new sync callback.
@@ -92,20 +115,20 @@ public class SyncCallback<T> extends AsyncCallback<T> {
 	/**
 	 * Get will wait for the request to finish and then return the
 	 * response. If an exception is returned, the exception will be
-	 * thrown.
+	 * thrown. The wait is announced to the ThreadPool, so a blocked worker
+	 * thread gets compensated immediately.
 	 * 
 	 * @return response
 	 * @throws Exception
 	 *             the exception
 	 */
 	public T get() throws Exception {
-		lock.lock();
 		waiting = true;
-		while (!done) {
-			condition.await();
+		try {
+			ThreadPool.managedBlock(blocker);
+		} finally {
+			waiting = false;
 		}
-		lock.unlock();
-		waiting = false;
 		if (exception != null) {
 			throw exception;
 		}
@@ -0,0 +1,102 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.callback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.almende.util.threads.TimingWheel;
+import com.almende.util.threads.TimingWheel.Timeout;
+
+/**
+ * The Class TimeoutService, process wide timeout handling for all
+ * AsyncCallbackStores. All timeouts are handled by the single ticker thread
+ * of the shared TimingWheel. Stores register themselves on creation and are
+ * deregistered through {@link AsyncCallbackStore#close()}; the registry is
+ * only used for the pending counts. Stores are only weakly referenced by this
+ * service.
+ */
+public final class TimeoutService {
+	private static final Map<AsyncCallbackStore<?>, Boolean>	STORES	= Collections
+																				.synchronizedMap(new WeakHashMap<AsyncCallbackStore<?>, Boolean>());
+
+	private TimeoutService() {}
+
+	/**
+	 * Register a store.
+	 *
+	 * @param store
+	 *            the store
+	 */
+	public static void register(final AsyncCallbackStore<?> store) {
+		STORES.put(store, Boolean.TRUE);
+	}
+
+	/**
+	 * Deregister a store, it is no longer included in the pending counts.
+	 * This doesn't affect the timeouts of its callbacks, which stay on the
+	 * shared TimingWheel; {@link AsyncCallbackStore#close()} cancels and fails
+	 * them before deregistering.
+	 *
+	 * @param store
+	 *            the store
+	 */
+	public static void deregister(final AsyncCallbackStore<?> store) {
+		STORES.remove(store);
+	}
+
+	/**
+	 * Schedule a timeout task.
+	 *
+	 * @param task
+	 *            the task
+	 * @param delay
+	 *            the delay, in milliseconds
+	 * @return the timeout
+	 */
+	public static Timeout schedule(final Runnable task, final long delay) {
+		return TimingWheel.getShared().schedule(task, delay);
+	}
+
+	/**
+	 * Gets the registered stores.
+	 *
+	 * @return the stores
+	 */
+	public static List<AsyncCallbackStore<?>> getStores() {
+		synchronized (STORES) {
+			return new ArrayList<AsyncCallbackStore<?>>(STORES.keySet());
+		}
+	}
+
+	/**
+	 * Gets the number of pending callbacks per registered store, by store id.
+	 * Stores with the same id are summed.
+	 *
+	 * @return the pending counts
+	 */
+	public static Map<String, Integer> getPendingCounts() {
+		final Map<String, Integer> result = new HashMap<String, Integer>();
+		for (final AsyncCallbackStore<?> store : getStores()) {
+			final Integer count = result.get(store.getId());
+			result.put(store.getId(),
+					store.getPendingCount() + (count == null ? 0 : count));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the total number of pending timeouts.
+	 *
+	 * @return the pending count
+	 */
+	public static int getPendingCount() {
+		return TimingWheel.getShared().getPending();
+	}
+}
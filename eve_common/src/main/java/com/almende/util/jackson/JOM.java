@@ -7,16 +7,21 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.LinkedHashMap;
 
 import com.almende.util.URIUtil;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.util.BufferRecycler;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -40,7 +45,9 @@ import com.fasterxml.jackson.module.jsonSchema.factories.SchemaFactoryWrapper;
  * The Class JOM.
  */
 public final class JOM {
-	private static final ObjectMapper	MAPPER	= createInstance();
+	private static final ObjectMapper					MAPPER		= createInstance();
+	private static final ThreadLocal<ByteArrayBuilder>	BYTES		= new ThreadLocal<ByteArrayBuilder>();
+	private static final ThreadLocal<BufferRecycler>		RECYCLER	= new ThreadLocal<BufferRecycler>();
 
 	/**
 	 * Instantiates a new jom.
@@ -161,6 +168,63 @@ public final class JOM {
 		return getInstance().getTypeFactory();
 	}
 
+	/**
+	 * Write the value as UTF-8 encoded JSON, directly through a generator
+	 * into a per thread, reused output buffer.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the byte buffer, positioned at the start of the JSON text
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static ByteBuffer writeToBuffer(final JsonWritable value)
+			throws IOException {
+		ByteArrayBuilder builder = BYTES.get();
+		// Nested calls from within writeTo() get their own builder:
+		BYTES.set(null);
+		if (builder == null) {
+			builder = new ByteArrayBuilder();
+		}
+		try {
+			final JsonGenerator generator = getInstance().getFactory()
+					.createGenerator(builder, JsonEncoding.UTF8);
+			value.writeTo(generator);
+			generator.close();
+			return ByteBuffer.wrap(builder.toByteArray());
+		} finally {
+			builder.reset();
+			BYTES.set(builder);
+		}
+	}
+
+	/**
+	 * Write the value as JSON string, directly through a generator into a
+	 * writer that takes its buffers from a per thread buffer recycler.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the JSON string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static String writeToString(final JsonWritable value)
+			throws IOException {
+		BufferRecycler recycler = RECYCLER.get();
+		if (recycler == null) {
+			recycler = new BufferRecycler();
+			RECYCLER.set(recycler);
+		}
+		final SegmentedStringWriter writer = new SegmentedStringWriter(
+				recycler);
+		final JsonGenerator generator = getInstance().getFactory()
+				.createGenerator(writer);
+		value.writeTo(generator);
+		generator.close();
+		// Returns the buffers to the recycler:
+		return writer.getAndClear();
+	}
+
 	/**
 	 * Gets the type schema.
 	 *
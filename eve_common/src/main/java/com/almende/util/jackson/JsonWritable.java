@@ -0,0 +1,28 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.jackson;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * The Interface JsonWritable, for objects that can write their own JSON
+ * representation directly to a generator, without an intermediate tree. See
+ * {@link JOM#writeToBuffer(JsonWritable)} and
+ * {@link JOM#writeToString(JsonWritable)}.
+ */
+public interface JsonWritable {
+
+	/**
+	 * Write the JSON representation of this object to the generator.
+	 *
+	 * @param generator
+	 *            the generator
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void writeTo(final JsonGenerator generator) throws IOException;
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.threads;
+
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The Class AbstractRunQueue, common base of the executors that can be
+ * selected as the ThreadPool's main pool.
+ *
+ * Code that is about to block a worker thread (e.g. SyncCallback.get()) can
+ * announce this through {@link #managedBlock(ManagedBlocker)}. The blocking
+ * worker is then immediately replaced by a compensation thread, taken from a
+ * pool of parked spare threads if possible. The number of concurrently
+ * compensated blocks is bounded by the max compensation.
+ */
+public abstract class AbstractRunQueue extends AbstractExecutorService {
+	private static final Logger	LOG					= Logger.getLogger(AbstractRunQueue.class
+															.getName());
+	/** The keepalive of parked spare threads, in nanoseconds. */
+	protected static final long	SPAREKEEPALIVE		= TimeUnit.SECONDS
+															.toNanos(60);
+	private final AtomicInteger	blockedCnt			= new AtomicInteger(0);
+	private volatile int		maxCompensation		= 1000;
+	private volatile boolean	warnedCompensation	= false;
+
+	/**
+	 * Sets the max tasks that may be queued, above this limit worker threads
+	 * will handle their newly submitted tasks themselves.
+	 *
+	 * @param max
+	 *            the new max tasks
+	 */
+	public abstract void setMaxTasks(final int max);
+
+	/**
+	 * Sets the max number of concurrently blocked workers that will be
+	 * compensated by a new or spare thread. This is also the maximum number
+	 * of parked spare threads.
+	 *
+	 * @param max
+	 *            the new max compensation
+	 */
+	public void setMaxCompensation(final int max) {
+		maxCompensation = max;
+	}
+
+	/**
+	 * Gets the max compensation.
+	 *
+	 * @return the max compensation
+	 */
+	public int getMaxCompensation() {
+		return maxCompensation;
+	}
+
+	/**
+	 * Block the current thread through the given blocker. If the current
+	 * thread is a worker of this queue, it is replaced by a compensation
+	 * thread before blocking.
+	 *
+	 * @param blocker
+	 *            the blocker
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	public void managedBlock(final ManagedBlocker blocker)
+			throws InterruptedException {
+		if (blocker.isReleasable()) {
+			return;
+		}
+		final boolean compensated = beginBlocking();
+		try {
+			ForkJoinPool.managedBlock(blocker);
+		} finally {
+			endBlocking(compensated);
+		}
+	}
+
+	/**
+	 * Announce that the current thread is about to block. Implementations
+	 * should take the current thread out of the set of running workers and
+	 * activate a compensation thread, after a successful
+	 * {@link #reserveCompensation()}.
+	 *
+	 * @return true, if the blocking thread has been compensated
+	 */
+	protected abstract boolean beginBlocking();
+
+	/**
+	 * Announce that the current thread is no longer blocked. A compensated
+	 * thread stays out of the set of running workers until it finished its
+	 * current task, after which it may be parked as spare thread.
+	 *
+	 * @param compensated
+	 *            whether the block was compensated
+	 */
+	protected void endBlocking(final boolean compensated) {
+		if (compensated) {
+			blockedCnt.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Try to reserve a compensation slot.
+	 *
+	 * @return true, if successful
+	 */
+	protected boolean reserveCompensation() {
+		int count = blockedCnt.get();
+		while (count < maxCompensation) {
+			if (blockedCnt.compareAndSet(count, count + 1)) {
+				return true;
+			}
+			count = blockedCnt.get();
+		}
+		if (!warnedCompensation) {
+			warnedCompensation = true;
+			LOG.warning("Max compensation reached (" + maxCompensation
+					+ " blocked workers), not compensating further blocks.");
+		}
+		return false;
+	}
+
+	/**
+	 * Release a compensation slot, reserved through
+	 * {@link #reserveCompensation()}, which turned out not to be needed.
+	 */
+	protected void releaseCompensation() {
+		blockedCnt.decrementAndGet();
+	}
+
+	/**
+	 * Gets the number of currently compensated blocked workers.
+	 *
+	 * @return the blocked count
+	 */
+	public int getBlockedCount() {
+		return blockedCnt.get();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.threads;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class DelayedBatcher, collects items per key into batches. A batch is
+ * sent when either it is full, or the delay has passed since its first item.
+ * The delayed send is scheduled on the ThreadPool's scheduled pool.
+ *
+ * @param <K>
+ *            the type of the key, e.g. the receiver of the batch
+ * @param <E>
+ *            the type of the items
+ * @param <B>
+ *            the type of the batch
+ */
+public abstract class DelayedBatcher<K, E, B> {
+	private final int			maxSize;
+	private final long			maxDelay;
+	private final Map<K, B>		pending	= new HashMap<K, B>();
+
+	/**
+	 * Instantiates a new delayed batcher.
+	 *
+	 * @param maxSize
+	 *            the maximum number of items per batch
+	 * @param maxDelay
+	 *            the maximum delay of an item, in milliseconds
+	 */
+	protected DelayedBatcher(final int maxSize, final long maxDelay) {
+		this.maxSize = maxSize;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Create a new, empty batch for the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the batch
+	 */
+	protected abstract B createBatch(K key);
+
+	/**
+	 * Append an item to the batch, called while holding the batcher's lock.
+	 *
+	 * @param batch
+	 *            the batch
+	 * @param item
+	 *            the item
+	 * @return the number of items in the batch
+	 */
+	protected abstract int append(B batch, E item);
+
+	/**
+	 * Send a batch, after its delay has passed or when flushing. Errors must
+	 * be handled by the implementation.
+	 *
+	 * @param key
+	 *            the key
+	 * @param batch
+	 *            the batch
+	 */
+	protected abstract void send(K key, B batch);
+
+	/**
+	 * Add an item to the batch of the given key. If this fills the batch, the
+	 * batch is removed and returned, and has to be sent by the caller.
+	 *
+	 * @param key
+	 *            the key
+	 * @param item
+	 *            the item
+	 * @return the full batch, or null
+	 */
+	protected final B enqueue(final K key, final E item) {
+		synchronized (pending) {
+			B batch = pending.get(key);
+			if (batch == null) {
+				batch = createBatch(key);
+				pending.put(key, batch);
+				schedule(key, batch);
+			}
+			if (append(batch, item) >= maxSize) {
+				pending.remove(key);
+				return batch;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Send all pending batches.
+	 */
+	public void flush() {
+		final Map<K, B> batches;
+		synchronized (pending) {
+			batches = new HashMap<K, B>(pending);
+			pending.clear();
+		}
+		for (final Map.Entry<K, B> entry : batches.entrySet()) {
+			send(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void schedule(final K key, final B batch) {
+		ThreadPool.getScheduledPool().schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (pending) {
+					if (pending.get(key) != batch) {
+						// Already sent, because it was full or flushed.
+						return;
+					}
+					pending.remove(key);
+				}
+				send(key, batch);
+			}
+		}, maxDelay, TimeUnit.MILLISECONDS);
+	}
+}
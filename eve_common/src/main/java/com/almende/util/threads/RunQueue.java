@@ -7,7 +7,6 @@ package com.almende.util.threads;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
@@ -21,13 +20,14 @@ import java.util.logging.Logger;
  * "Timed_waiting" and "Waiting" threads from the threadcount.
  * -Approximately nofCPU threads in Running state.
  */
-public class RunQueue extends AbstractExecutorService {
+public class RunQueue extends AbstractRunQueue {
 	private static final Logger		LOG					= Logger.getLogger(RunQueue.class
 																.getName());
 
 	private final Queue<Worker>		workers				= new ConcurrentLinkedQueue<Worker>();
 	private final Queue<Worker>		free				= new ConcurrentLinkedQueue<Worker>();
 	private final Queue<Worker>		waiting				= new ConcurrentLinkedQueue<Worker>();
+	private final Queue<Worker>		spares				= new ConcurrentLinkedQueue<Worker>();
 	private final Queue<Runnable>	tasks				= new ConcurrentLinkedQueue<Runnable>();
 	private final Scanner			scanner				= new Scanner(
 																"RunQueue_Scanner");
@@ -69,13 +69,47 @@ public class RunQueue extends AbstractExecutorService {
 		private int					taskCnt		= 0;
 		private Runnable			task		= null;
 		private boolean				isShutdown	= false;
-		private boolean				isWaiting	= false;
+		private volatile boolean	isWaiting	= false;
+		private boolean				isBlocking	= false;
 
 		public Worker() {
 			this.setName("RunQueue_Worker");
 			this.start();
 		}
 
+		private RunQueue getQueue() {
+			return RunQueue.this;
+		}
+
+		/**
+		 * Park this spare worker until it gets reactivated, must be called by
+		 * the worker itself, with its lock held.
+		 */
+		private boolean awaitReactivation() {
+			long nanos = SPAREKEEPALIVE;
+			while (isWaiting && !isShutdown) {
+				if (nanos <= 0) {
+					if (spares.remove(this)) {
+						return false;
+					}
+					// Concurrently reactivated, wait for it.
+					nanos = SPAREKEEPALIVE;
+				}
+				try {
+					nanos = condition.awaitNanos(nanos);
+				} catch (InterruptedException e) {}
+			}
+			return !isShutdown;
+		}
+
+		private void reactivate() {
+			lock.lock();
+			isWaiting = false;
+			this.setName("RunQueue_Worker");
+			condition.signalAll();
+			lock.unlock();
+		}
+
 		public boolean runTask(final Runnable task) {
 			if (this.task != null || isShutdown || isWaiting) {
 				// early out
@@ -125,6 +159,14 @@ public class RunQueue extends AbstractExecutorService {
 					if (task == null) {
 						free.add(this);
 					}
+				} else if (retire(this) && awaitReactivation()) {
+					// A task may have been handed over after reactivation.
+					if (task == null) {
+						task = getTask();
+						if (task == null) {
+							free.add(this);
+						}
+					}
 				} else {
 					isShutdown = true;
 				}
@@ -163,6 +205,7 @@ public class RunQueue extends AbstractExecutorService {
 	 * @param max
 	 *            the new max tasks
 	 */
+	@Override
 	public void setMaxTasks(final int max) {
 		maxtasks = max;
 		if (maxtasks > 0) {
@@ -194,6 +237,10 @@ public class RunQueue extends AbstractExecutorService {
 			worker.isShutdown = true;
 			worker.interrupt();
 		}
+		for (Worker worker : spares) {
+			worker.isShutdown = true;
+			worker.interrupt();
+		}
 		return new ArrayList<Runnable>(tasks);
 	}
 
@@ -204,7 +251,8 @@ public class RunQueue extends AbstractExecutorService {
 
 	@Override
 	public boolean isTerminated() {
-		return isShutdown && (workers.isEmpty() && waiting.isEmpty());
+		return isShutdown
+				&& (workers.isEmpty() && waiting.isEmpty() && spares.isEmpty());
 	}
 
 	@Override
@@ -298,15 +346,77 @@ public class RunQueue extends AbstractExecutorService {
 		return null;
 	}
 
-	private void threadWaiting(final Worker thread) {
+	private boolean threadWaiting(final Worker thread) {
+		if (!workers.remove(thread)) {
+			// Already replaced.
+			return false;
+		}
 		thread.isWaiting = true;
 		thread.setName("RunQueue_Worker_waiting");
 		waiting.add(thread);
-		workers.remove(thread);
 
-		final Worker worker = new Worker();
-		workers.add(worker);
-		free.add(worker);
+		final Worker spare = spares.poll();
+		if (spare != null) {
+			workers.add(spare);
+			spare.reactivate();
+		} else {
+			final Worker worker = new Worker();
+			workers.add(worker);
+			final Runnable task = getTask();
+			if (task == null || !worker.runTask(task)) {
+				if (task != null) {
+					putTask(task);
+				}
+				free.add(worker);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Called by a waiting worker that finished its task, park it as spare
+	 * thread if there is room for it.
+	 */
+	private boolean retire(final Worker thread) {
+		if (isShutdown || spares.size() >= getMaxCompensation()) {
+			return false;
+		}
+		waiting.remove(thread);
+		thread.isBlocking = false;
+		thread.setName("RunQueue_Worker_spare");
+		spares.add(thread);
+		return true;
+	}
+
+	@Override
+	protected boolean beginBlocking() {
+		final Thread current = Thread.currentThread();
+		if (!(current instanceof Worker)) {
+			return false;
+		}
+		final Worker thread = (Worker) current;
+		if (thread.getQueue() != this || thread.isWaiting) {
+			return false;
+		}
+		if (isShutdown || !reserveCompensation()) {
+			// Prevent the scanner from compensating beyond the limit.
+			thread.isBlocking = true;
+			return false;
+		}
+		if (!threadWaiting(thread)) {
+			releaseCompensation();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void endBlocking(final boolean compensated) {
+		super.endBlocking(compensated);
+		final Thread current = Thread.currentThread();
+		if (current instanceof Worker) {
+			((Worker) current).isBlocking = false;
+		}
 	}
 
 	private void threadTearDown(final Worker thread) {
@@ -317,6 +427,7 @@ public class RunQueue extends AbstractExecutorService {
 		waiting.remove(thread);
 		workers.remove(thread);
 		free.remove(thread);
+		spares.remove(thread);
 	}
 
 	private void scan() {
@@ -335,6 +446,10 @@ public class RunQueue extends AbstractExecutorService {
 				case WAITING:
 					// explicit no break
 				case BLOCKED:
+					if (thread.isBlocking) {
+						// Announced block, beyond the max compensation.
+						break;
+					}
 					if (thread.taskCnt > 0) {
 						count++;
 						threadWaiting(thread);
@@ -391,7 +506,8 @@ public class RunQueue extends AbstractExecutorService {
 
 	public String toString() {
 		return this.getClass().getName() + ": ru:" + workers.size() + " wa:"
-				+ waiting.size() + " t:" + tasks.size() + " nofCores:"
+				+ waiting.size() + " sp:" + spares.size() + " t:"
+				+ tasks.size() + " nofCores:"
 				+ nofCores + " int:" + interval + " ms.";
 	}
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.threads;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Class SerialExecutor, processes queued items in order, by at most one
+ * task on the ThreadPool at a time. Adding an item never blocks; the task is
+ * only scheduled if none is running, and drains the queue until it is empty.
+ *
+ * @param <T>
+ *            the type of the queued items
+ */
+public abstract class SerialExecutor<T> {
+	private static final Logger	LOG		= Logger.getLogger(SerialExecutor.class
+												.getName());
+	private final Queue<T>		queue	= new ConcurrentLinkedQueue<T>();
+	private final AtomicBoolean	running	= new AtomicBoolean(false);
+	private final Runnable		drainer	= new Runnable() {
+											@Override
+											public void run() {
+												drain();
+											}
+										};
+
+	/**
+	 * Process a single item, called from one thread at a time, in the order
+	 * the items were added.
+	 *
+	 * @param item
+	 *            the item
+	 */
+	protected abstract void process(T item);
+
+	/**
+	 * Called after the queue has been drained, by the same thread that
+	 * processed the items, e.g. to flush batched output.
+	 */
+	protected void drained() {}
+
+	/**
+	 * Queue an item, and schedule its processing if no task is running.
+	 *
+	 * @param item
+	 *            the item
+	 */
+	public void add(final T item) {
+		queue.add(item);
+		if (running.compareAndSet(false, true)) {
+			ThreadPool.getPool().execute(drainer);
+		}
+	}
+
+	/**
+	 * Remove the next item from the queue, without processing it, e.g. to
+	 * fail the remaining items after a close.
+	 *
+	 * @return the item, or null if the queue is empty
+	 */
+	public T poll() {
+		return queue.poll();
+	}
+
+	/**
+	 * Checks if the queue is empty.
+	 *
+	 * @return true, if is empty
+	 */
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	private void drain() {
+		while (true) {
+			T item = queue.poll();
+			while (item != null) {
+				try {
+					process(item);
+				} catch (final RuntimeException e) {
+					LOG.log(Level.WARNING, "Failed to process item", e);
+				}
+				item = queue.poll();
+			}
+			try {
+				drained();
+			} catch (final RuntimeException e) {
+				LOG.log(Level.WARNING, "Failed to finish draining", e);
+			}
+			running.set(false);
+			// Items added after the last poll, but before the flag was
+			// released, need a task:
+			if (queue.isEmpty() || !running.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+}
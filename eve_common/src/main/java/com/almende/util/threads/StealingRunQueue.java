@@ -0,0 +1,551 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.threads;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Class StealingRunQueue. Work-stealing alternative to the RunQueue, with
+ * the following behavior:
+ * -Unlimited queue
+ * -Each worker has its own deque, tasks submitted from a worker thread are
+ * pushed (LIFO) onto that deque, other tasks go to a shared submission queue.
+ * -Idle workers steal (FIFO) from the other workers' deques.
+ * -Parked workers are woken up directly on submission, no scanner is needed
+ * for dispatching.
+ * -Like the RunQueue, workers that block inside a task are replaced by a new
+ * worker, keeping approximately nofCPU threads in Running state.
+ */
+public class StealingRunQueue extends AbstractRunQueue {
+	private static final Logger			LOG					= Logger.getLogger(StealingRunQueue.class
+																	.getName());
+	private static final int			MAXTASKSPERWORKER	= 1000;
+
+	private final ReentrantLock			mainLock			= new ReentrantLock();
+	private final Condition				termination			= mainLock
+																	.newCondition();
+	private volatile Worker[]			workers				= new Worker[0];
+	private final Queue<Worker>			waiting				= new ConcurrentLinkedQueue<Worker>();
+	private final Queue<Worker>			spares				= new ConcurrentLinkedQueue<Worker>();
+	private final Queue<Worker>			idle				= new ConcurrentLinkedQueue<Worker>();
+	private final Queue<Runnable>		submissions			= new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger			taskCnt				= new AtomicInteger(0);
+	private final Scanner				scanner				= new Scanner(
+																	"StealingRunQueue_Scanner");
+
+	private final int					nofCores;
+	private volatile int				maxtasks			= -1;
+	private volatile boolean			isShutdown			= false;
+	private int							interval			= 100;
+	private final int					maxinterval			= 500;
+
+	private class Scanner extends Thread {
+
+		public Scanner(final String name) {
+			super(name);
+		}
+
+		@Override
+		public void run() {
+			for (;;) {
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {}
+				if (isShutdown) {
+					return;
+				}
+				scan();
+			}
+		}
+	}
+
+	private class Worker extends Thread {
+		private final Deque<Runnable>	deque		= new ConcurrentLinkedDeque<Runnable>();
+		private final AtomicBoolean		parked		= new AtomicBoolean(false);
+		private volatile int			taskCnt		= 0;
+		private volatile boolean		isWaiting	= false;
+		private volatile boolean		isBlocking	= false;
+
+		public Worker() {
+			this.setName("StealingRunQueue_Worker");
+		}
+
+		private void runTask(final Runnable task) {
+			taskCnt++;
+			try {
+				task.run();
+			} catch (final RuntimeException e) {
+				LOG.log(Level.WARNING, "Task threw exception", e);
+			} finally {
+				taskCnt--;
+			}
+		}
+
+		private void park() {
+			parked.set(true);
+			idle.add(this);
+			// Recheck after announcing, to prevent lost wakeups.
+			if (hasWork() || isShutdown) {
+				if (parked.compareAndSet(true, false)) {
+					idle.remove(this);
+				}
+				return;
+			}
+			while (parked.get() && !isShutdown) {
+				LockSupport.park(this);
+			}
+		}
+
+		private StealingRunQueue getQueue() {
+			return StealingRunQueue.this;
+		}
+
+		/**
+		 * Park this spare worker until it gets reactivated.
+		 */
+		private boolean awaitReactivation() {
+			long deadline = System.nanoTime() + SPAREKEEPALIVE;
+			while (isWaiting && !isShutdown) {
+				final long nanos = deadline - System.nanoTime();
+				if (nanos <= 0) {
+					mainLock.lock();
+					try {
+						if (isWaiting && spares.remove(this)) {
+							return false;
+						}
+					} finally {
+						mainLock.unlock();
+					}
+					deadline = System.nanoTime() + SPAREKEEPALIVE;
+				} else {
+					LockSupport.parkNanos(this, nanos);
+				}
+			}
+			return !isShutdown;
+		}
+
+		@Override
+		public void run() {
+			try {
+				do {
+					while (!isWaiting) {
+						final Runnable task = findTask(this);
+						if (task != null) {
+							runTask(task);
+						} else if (isShutdown) {
+							break;
+						} else {
+							park();
+						}
+					}
+				} while (!isShutdown && retire(this) && awaitReactivation());
+			} finally {
+				threadTearDown(this);
+			}
+		}
+	}
+
+	/**
+	 * Instantiates a new stealing run queue.
+	 */
+	public StealingRunQueue() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		if (cores < 4) {
+			// Keep a minimum number of assumed cores, to prevent thread
+			// starvation.
+			cores = 4;
+		}
+		nofCores = cores;
+		mainLock.lock();
+		try {
+			for (int i = 0; i < nofCores; i++) {
+				addWorker();
+			}
+		} finally {
+			mainLock.unlock();
+		}
+		scanner.start();
+	}
+
+	@Override
+	public void setMaxTasks(final int max) {
+		maxtasks = max;
+		int count = 0;
+		if (max > 0) {
+			count = submissions.size();
+			for (final Worker worker : workers) {
+				count += worker.deque.size();
+			}
+		}
+		taskCnt.set(count);
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (command == null) {
+			throw new NullPointerException(
+					"Command to execute may never be null.");
+		}
+		if (isShutdown) {
+			LOG.warning("Execute called after shutdown, dropping command");
+			return;
+		}
+		final Thread thread = Thread.currentThread();
+		if (thread instanceof Worker
+				&& ((Worker) thread).getQueue() == this) {
+			final Worker worker = (Worker) thread;
+			if (worker.isWaiting) {
+				putTask(command);
+			} else if (maxtasks > 0 && taskCnt.get() > maxtasks
+					&& worker.taskCnt <= MAXTASKSPERWORKER) {
+				// Do this task yourself!
+				worker.runTask(command);
+				return;
+			} else {
+				if (maxtasks > 0) {
+					taskCnt.incrementAndGet();
+				}
+				worker.deque.addFirst(command);
+			}
+		} else {
+			putTask(command);
+		}
+		signalWork();
+	}
+
+	private void putTask(final Runnable command) {
+		if (maxtasks > 0) {
+			taskCnt.incrementAndGet();
+		}
+		submissions.add(command);
+	}
+
+	private Runnable findTask(final Worker worker) {
+		final Runnable task = pollTask(worker);
+		if (task != null && maxtasks > 0) {
+			taskCnt.decrementAndGet();
+		}
+		return task;
+	}
+
+	private Runnable pollTask(final Worker worker) {
+		Runnable task = worker.deque.pollFirst();
+		if (task != null) {
+			return task;
+		}
+		task = submissions.poll();
+		if (task != null) {
+			return task;
+		}
+		final Worker[] victims = workers;
+		final int len = victims.length;
+		if (len > 0) {
+			final int start = ThreadLocalRandom.current().nextInt(len);
+			for (int i = 0; i < len; i++) {
+				final Worker victim = victims[(start + i) % len];
+				if (victim != worker) {
+					task = victim.deque.pollLast();
+					if (task != null) {
+						return task;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean hasWork() {
+		if (!submissions.isEmpty()) {
+			return true;
+		}
+		for (final Worker worker : workers) {
+			if (!worker.deque.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void signalWork() {
+		Worker worker = idle.poll();
+		while (worker != null) {
+			if (worker.parked.compareAndSet(true, false)) {
+				LockSupport.unpark(worker);
+				return;
+			}
+			worker = idle.poll();
+		}
+	}
+
+	/**
+	 * Must be called with mainLock held.
+	 */
+	private Worker addWorker() {
+		final Worker worker = new Worker();
+		insertWorker(worker);
+		worker.start();
+		return worker;
+	}
+
+	/**
+	 * Must be called with mainLock held.
+	 */
+	private void insertWorker(final Worker worker) {
+		final Worker[] old = workers;
+		final Worker[] res = new Worker[old.length + 1];
+		System.arraycopy(old, 0, res, 0, old.length);
+		res[old.length] = worker;
+		workers = res;
+	}
+
+	/**
+	 * Activate a parked spare worker, or a new worker if no spare is
+	 * available. Must be called with mainLock held.
+	 */
+	private void activateWorker() {
+		final Worker spare = spares.poll();
+		if (spare != null) {
+			spare.isWaiting = false;
+			spare.setName("StealingRunQueue_Worker");
+			insertWorker(spare);
+			LockSupport.unpark(spare);
+		} else {
+			addWorker();
+		}
+	}
+
+	/**
+	 * Must be called with mainLock held.
+	 */
+	private boolean removeWorker(final Worker worker) {
+		final Worker[] old = workers;
+		for (int i = 0; i < old.length; i++) {
+			if (old[i] == worker) {
+				final Worker[] res = new Worker[old.length - 1];
+				System.arraycopy(old, 0, res, 0, i);
+				System.arraycopy(old, i + 1, res, i, old.length - i - 1);
+				workers = res;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void drain(final Worker worker) {
+		Runnable task = worker.deque.pollLast();
+		while (task != null) {
+			submissions.add(task);
+			signalWork();
+			task = worker.deque.pollLast();
+		}
+	}
+
+	private boolean threadWaiting(final Worker worker) {
+		mainLock.lock();
+		try {
+			if (worker.isWaiting || !removeWorker(worker)) {
+				return false;
+			}
+			worker.isWaiting = true;
+			worker.setName("StealingRunQueue_Worker_waiting");
+			waiting.add(worker);
+			if (!isShutdown) {
+				activateWorker();
+			}
+		} finally {
+			mainLock.unlock();
+		}
+		drain(worker);
+		return true;
+	}
+
+	/**
+	 * Called by a waiting worker that finished its task, park it as spare
+	 * thread if there is room for it.
+	 */
+	private boolean retire(final Worker worker) {
+		mainLock.lock();
+		try {
+			if (isShutdown || spares.size() >= getMaxCompensation()) {
+				return false;
+			}
+			waiting.remove(worker);
+			worker.isBlocking = false;
+			worker.setName("StealingRunQueue_Worker_spare");
+			spares.add(worker);
+			return true;
+		} finally {
+			mainLock.unlock();
+		}
+	}
+
+	@Override
+	protected boolean beginBlocking() {
+		final Thread current = Thread.currentThread();
+		if (!(current instanceof Worker)) {
+			return false;
+		}
+		final Worker worker = (Worker) current;
+		if (worker.getQueue() != this || worker.isWaiting) {
+			return false;
+		}
+		if (isShutdown || !reserveCompensation()) {
+			// Prevent the scanner from compensating beyond the limit.
+			worker.isBlocking = true;
+			return false;
+		}
+		if (!threadWaiting(worker)) {
+			releaseCompensation();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	protected void endBlocking(final boolean compensated) {
+		super.endBlocking(compensated);
+		final Thread current = Thread.currentThread();
+		if (current instanceof Worker) {
+			((Worker) current).isBlocking = false;
+		}
+	}
+
+	private void threadTearDown(final Worker worker) {
+		mainLock.lock();
+		try {
+			removeWorker(worker);
+			waiting.remove(worker);
+			spares.remove(worker);
+			idle.remove(worker);
+			if (!isShutdown && !worker.isWaiting && workers.length < nofCores) {
+				// Worker died unexpectedly, replace it.
+				addWorker();
+			}
+			termination.signalAll();
+		} finally {
+			mainLock.unlock();
+		}
+		drain(worker);
+	}
+
+	private void scan() {
+		int count = 0;
+		for (final Worker worker : workers) {
+			if (worker.taskCnt == 0 || worker.isBlocking) {
+				continue;
+			}
+			switch (worker.getState()) {
+				case TIMED_WAITING:
+					// explicit no break
+				case WAITING:
+					// explicit no break
+				case BLOCKED:
+					count++;
+					threadWaiting(worker);
+					break;
+				default:
+					break;
+			}
+		}
+		if (count == 0) {
+			interval = Math.min(interval * 2, maxinterval);
+		} else {
+			while (count-- > 0) {
+				interval = interval > 1 ? interval / 2 : 1;
+			}
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		isShutdown = true;
+		scanner.interrupt();
+		for (final Worker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+		for (final Worker worker : spares) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		isShutdown = true;
+		scanner.interrupt();
+		final List<Runnable> result = new ArrayList<Runnable>();
+		Runnable task = submissions.poll();
+		while (task != null) {
+			result.add(task);
+			task = submissions.poll();
+		}
+		for (final Worker worker : workers) {
+			task = worker.deque.pollLast();
+			while (task != null) {
+				result.add(task);
+				task = worker.deque.pollLast();
+			}
+			worker.interrupt();
+			LockSupport.unpark(worker);
+		}
+		for (final Worker worker : waiting) {
+			worker.interrupt();
+		}
+		for (final Worker worker : spares) {
+			LockSupport.unpark(worker);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return isShutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return isShutdown && workers.length == 0 && waiting.isEmpty()
+				&& spares.isEmpty();
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		mainLock.lock();
+		try {
+			while (!isTerminated()) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = termination.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			mainLock.unlock();
+		}
+	}
+
+	public String toString() {
+		return this.getClass().getName() + ": ru:" + workers.length + " wa:"
+				+ waiting.size() + " sp:" + spares.size() + " id:"
+				+ idle.size() + " t:"
+				+ submissions.size() + " nofCores:" + nofCores + " int:"
+				+ interval + " ms.";
+	}
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
 import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
@@ -22,7 +23,9 @@ public class ThreadPool {
 	private static ThreadFactory				factory			= Executors
 																		.defaultThreadFactory();
 	private static ScheduledThreadPoolExecutor	scheduledPool	= null;
-	private static RunQueue						queue			= null;
+	private static AbstractRunQueue				queue			= null;
+	private static boolean						workStealing	= false;
+	private static int							maxCompensation	= 1000;
 
 	static {
 		initPools();
@@ -55,7 +58,12 @@ public class ThreadPool {
 			}
 		}, 1000, 1000, TimeUnit.MILLISECONDS);
 
-		queue = new RunQueue();
+		if (workStealing) {
+			queue = new StealingRunQueue();
+		} else {
+			queue = new RunQueue();
+		}
+		queue.setMaxCompensation(maxCompensation);
 		for (Runnable task : openTasks) {
 			if (task instanceof RunnableScheduledFuture) {
 				final RunnableScheduledFuture<?> futureTask = (RunnableScheduledFuture<?>) task;
@@ -91,6 +99,55 @@ public class ThreadPool {
 		queue.setMaxTasks(maxtasks);
 	}
 
+	/**
+	 * Sets the max number of blocked workers that will be compensated by an
+	 * extra thread, when blocking is announced through managedBlock(). This
+	 * also limits the number of parked spare threads that are kept for reuse.
+	 *
+	 * @param maxCompensation
+	 *            the new max compensation
+	 */
+	public static void setMaxCompensation(final int maxCompensation) {
+		ThreadPool.maxCompensation = maxCompensation;
+		queue.setMaxCompensation(maxCompensation);
+	}
+
+	/**
+	 * Block the current thread through the given blocker. If this is a worker
+	 * thread of the pool, a compensation thread is activated up front, instead
+	 * of waiting for the pool to notice the blocked worker.
+	 *
+	 * @param blocker
+	 *            the blocker
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	public static void managedBlock(final ManagedBlocker blocker)
+			throws InterruptedException {
+		queue.managedBlock(blocker);
+	}
+
+	/**
+	 * Select the work-stealing executor (StealingRunQueue) instead of the
+	 * default RunQueue. Open tasks are moved to the new executor.
+	 *
+	 * @param workStealing
+	 *            use the work-stealing executor
+	 */
+	public static void setWorkStealing(final boolean workStealing) {
+		ThreadPool.workStealing = workStealing;
+		initPools();
+	}
+
+	/**
+	 * Checks if the work-stealing executor is selected.
+	 *
+	 * @return true, if the work-stealing executor is used
+	 */
+	public static boolean isWorkStealing() {
+		return workStealing;
+	}
+
 	/**
 	 * Gets the pool.
 	 * 
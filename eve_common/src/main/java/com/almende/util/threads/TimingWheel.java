@@ -0,0 +1,401 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.threads;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Class TimingWheel, a hashed timing wheel for large numbers of
+ * (mostly cancelled) timeouts, like the callback timeouts of outbound RPCs.
+ * Scheduling and cancelling are O(1), a single ticker thread moves new
+ * timeouts into their wheel bucket and expires one bucket per tick. Expired
+ * tasks are executed on the ThreadPool, not on the ticker thread.
+ * The accuracy of the timeouts is bounded by the tick duration.
+ */
+public class TimingWheel {
+	private static final Logger			LOG					= Logger.getLogger(TimingWheel.class
+																	.getName());
+	private static final int			MAXTRANSFERPERTICK	= 100000;
+	private static long					defaultTickDuration	= 100;
+	private static int					defaultWheelSize	= 512;
+	private static volatile TimingWheel	shared				= null;
+
+	private final Bucket[]				wheel;
+	private final int					mask;
+	private final long					tickDuration;
+	private final Queue<Timeout>		newTimeouts			= new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout>		cancelledTimeouts	= new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger			pending				= new AtomicInteger(0);
+	private final Ticker				ticker;
+	private volatile boolean			started				= false;
+	private volatile boolean			stopWhenEmpty		= false;
+	private volatile boolean			stopped				= false;
+	private long						startTime;
+	private long						tick				= 0;
+
+	/**
+	 * Instantiates a new timing wheel.
+	 *
+	 * @param name
+	 *            the name of the ticker thread
+	 * @param tickDuration
+	 *            the tick duration, in milliseconds
+	 * @param wheelSize
+	 *            the number of buckets (rounded up to a power of two)
+	 */
+	public TimingWheel(final String name, final long tickDuration,
+			final int wheelSize) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be > 0");
+		}
+		int size = 1;
+		while (size < wheelSize) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		this.ticker = new Ticker(name);
+	}
+
+	/**
+	 * Gets the process wide timing wheel. Don't keep a reference to the
+	 * result, as the shared wheel is replaced by setTickResolution().
+	 *
+	 * @return the timing wheel
+	 */
+	public static TimingWheel getShared() {
+		TimingWheel result = shared;
+		if (result == null) {
+			synchronized (TimingWheel.class) {
+				result = shared;
+				if (result == null) {
+					result = new TimingWheel("TimingWheel",
+							defaultTickDuration, defaultWheelSize);
+					shared = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the tick resolution of the process wide timing wheel. Timeouts
+	 * scheduled on the previous wheel will still be handled by that wheel,
+	 * which stops after the last of them has expired or has been cancelled.
+	 * Timeouts scheduled on the previous wheel after it stopped are handed to
+	 * the new shared wheel.
+	 *
+	 * @param tickDuration
+	 *            the tick duration, in milliseconds
+	 * @param wheelSize
+	 *            the number of buckets, a full rotation of the wheel takes
+	 *            tickDuration*wheelSize milliseconds.
+	 */
+	public static synchronized void setTickResolution(final long tickDuration,
+			final int wheelSize) {
+		defaultTickDuration = tickDuration;
+		defaultWheelSize = wheelSize;
+		final TimingWheel old = shared;
+		if (old != null) {
+			// Clear first, so a stopped wheel never hands tasks to itself.
+			shared = null;
+			old.stopWhenEmpty();
+		}
+	}
+
+	/**
+	 * Gets the tick duration.
+	 *
+	 * @return the tick duration, in milliseconds
+	 */
+	public long getTickDuration() {
+		return TimeUnit.NANOSECONDS.toMillis(tickDuration);
+	}
+
+	/**
+	 * Gets the number of pending timeouts.
+	 *
+	 * @return the pending count
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Schedule the task to be run after the given delay.
+	 *
+	 * @param task
+	 *            the task
+	 * @param delay
+	 *            the delay, in milliseconds
+	 * @return the timeout, which can be cancelled
+	 */
+	public Timeout schedule(final Runnable task, final long delay) {
+		if (task == null) {
+			throw new NullPointerException("Task may never be null.");
+		}
+		if (stopped) {
+			return getShared().schedule(task, delay);
+		}
+		start();
+		final long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(delay) - startTime;
+		final Timeout timeout = new Timeout(this, task, deadline);
+		pending.incrementAndGet();
+		newTimeouts.add(timeout);
+		if (stopped && timeout.reclaim()) {
+			// The ticker stopped before it saw this timeout.
+			return getShared().schedule(task, delay);
+		}
+		return timeout;
+	}
+
+	private void start() {
+		if (!started) {
+			synchronized (ticker) {
+				if (!started) {
+					startTime = System.nanoTime();
+					ticker.start();
+					started = true;
+				}
+			}
+		}
+	}
+
+	private void stopWhenEmpty() {
+		stopWhenEmpty = true;
+	}
+
+	private void transferTimeouts() {
+		for (int i = 0; i < MAXTRANSFERPERTICK; i++) {
+			final Timeout timeout = newTimeouts.poll();
+			if (timeout == null) {
+				return;
+			}
+			if (timeout.state != Timeout.INIT) {
+				// Cancelled before it was placed in the wheel.
+				continue;
+			}
+			final long calculated = timeout.deadline / tickDuration;
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+			// Don't schedule into the past.
+			final long ticks = Math.max(calculated, tick);
+			wheel[(int) (ticks & mask)].add(timeout);
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout = cancelledTimeouts.poll();
+		while (timeout != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+			timeout = cancelledTimeouts.poll();
+		}
+	}
+
+	private void expire(final Bucket bucket, final long deadline) {
+		Timeout timeout = bucket.head;
+		while (timeout != null) {
+			final Timeout next = timeout.next;
+			if (timeout.remainingRounds <= 0) {
+				bucket.remove(timeout);
+				if (timeout.deadline <= deadline) {
+					timeout.expire();
+				} else {
+					// Shouldn't happen, reschedule through the new queue.
+					newTimeouts.add(timeout);
+				}
+			} else if (timeout.state == Timeout.CANCELLED) {
+				bucket.remove(timeout);
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	private long waitForNextTick() {
+		final long deadline = tickDuration * (tick + 1);
+		for (;;) {
+			final long current = System.nanoTime() - startTime;
+			final long sleepTime = (deadline - current + 999999) / 1000000;
+			if (sleepTime <= 0) {
+				return current;
+			}
+			try {
+				Thread.sleep(sleepTime);
+			} catch (final InterruptedException e) {}
+		}
+	}
+
+	private class Ticker extends Thread {
+		public Ticker(final String name) {
+			super(name);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			for (;;) {
+				if (stopWhenEmpty && pending.get() == 0) {
+					// Checked again after stopping, schedule() checks stopped
+					// after adding, so either side sees the other's timeout.
+					stopped = true;
+					if (pending.get() == 0) {
+						return;
+					}
+				}
+				final long deadline = waitForNextTick();
+				try {
+					removeCancelled();
+					transferTimeouts();
+					expire(wheel[(int) (tick & mask)], deadline);
+				} catch (final RuntimeException e) {
+					LOG.log(Level.WARNING, "TimingWheel tick failed", e);
+				}
+				tick++;
+			}
+		}
+	}
+
+	private static class Bucket {
+		private Timeout	head	= null;
+		private Timeout	tail	= null;
+
+		private void add(final Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		private void remove(final Timeout timeout) {
+			final Timeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				if (timeout == tail) {
+					tail = null;
+					head = null;
+				} else {
+					head = next;
+				}
+			} else if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	/**
+	 * A scheduled timeout, which can be cancelled.
+	 */
+	public static final class Timeout {
+		private static final int								INIT		= 0;
+		private static final int								CANCELLED	= 1;
+		private static final int								EXPIRED		= 2;
+		private static final AtomicIntegerFieldUpdater<Timeout>	STATE		= AtomicIntegerFieldUpdater
+																				.newUpdater(
+																						Timeout.class,
+																						"state");
+
+		private final TimingWheel								parent;
+		private final long										deadline;
+		private volatile int									state		= INIT;
+		private Runnable										task;
+		private long											remainingRounds;
+		private Timeout											next;
+		private Timeout											prev;
+		private Bucket											bucket;
+
+		private Timeout(final TimingWheel parent, final Runnable task,
+				final long deadline) {
+			this.parent = parent;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel this timeout, the task will not be run.
+		 *
+		 * @return true, if successful, false if the timeout has already
+		 *         expired or been cancelled.
+		 */
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+				return false;
+			}
+			// Release the task (and its references) early.
+			task = null;
+			parent.pending.decrementAndGet();
+			parent.cancelledTimeouts.add(this);
+			return true;
+		}
+
+		/**
+		 * Checks if this timeout is cancelled.
+		 *
+		 * @return true, if is cancelled
+		 */
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		/**
+		 * Checks if this timeout has expired.
+		 *
+		 * @return true, if is expired
+		 */
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		/**
+		 * Take this timeout back from a stopped wheel.
+		 *
+		 * @return true, if successful, false if the timeout has already
+		 *         expired.
+		 */
+		private boolean reclaim() {
+			if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+				return false;
+			}
+			task = null;
+			parent.pending.decrementAndGet();
+			return true;
+		}
+
+		private void expire() {
+			if (!STATE.compareAndSet(this, INIT, EXPIRED)) {
+				return;
+			}
+			parent.pending.decrementAndGet();
+			final Runnable job = task;
+			task = null;
+			ThreadPool.getPool().execute(job);
+		}
+	}
+}
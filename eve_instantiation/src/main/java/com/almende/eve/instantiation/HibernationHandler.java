@@ -5,8 +5,10 @@
 package com.almende.eve.instantiation;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
 
 import com.almende.eve.capabilities.handler.Handler;
+import com.almende.util.threads.ThreadPool;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
@@ -16,10 +18,28 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
  *            the generic type
  */
 public class HibernationHandler<T> implements Handler<T> {
-	private WeakReference<T>		referent	= null;
-	private final Object			wakeLock	= new Object();
-	private String					wakeKey		= null;
-	private InstantiationService	service		= null;
+	private volatile WeakReference<T>	referent	= null;
+	private final Object				wakeLock	= new Object();
+	private final Blocker				blocker		= new Blocker();
+	private String						wakeKey		= null;
+	private InstantiationService		service		= null;
+
+	private class Blocker implements ManagedBlocker {
+		@Override
+		public boolean isReleasable() {
+			return referent.get() != null;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			synchronized (wakeLock) {
+				while (referent.get() == null) {
+					wakeLock.wait();
+				}
+			}
+			return true;
+		}
+	}
 
 	/**
 	 * Instantiates a new wake handler.
@@ -54,11 +74,10 @@ public class HibernationHandler<T> implements Handler<T> {
 			service.init(getWakeKey());
 		}
 		while (referent.get() == null) {
-			synchronized (wakeLock) {
-				try {
-					wakeLock.wait();
-				} catch (final InterruptedException e) {}
-			}
+			try {
+				// Announce the wait, so a blocked worker gets compensated.
+				ThreadPool.managedBlock(blocker);
+			} catch (final InterruptedException e) {}
 		}
 		return referent.get();
 	}
@@ -0,0 +1,370 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.almende.eve.protocol.auth.Authorizor;
+import com.almende.eve.protocol.jsonrpc.NamespaceUtil.CallTuple;
+import com.almende.eve.protocol.jsonrpc.annotation.Access;
+import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
+import com.almende.eve.protocol.jsonrpc.annotation.Name;
+import com.almende.eve.protocol.jsonrpc.annotation.RequestId;
+import com.almende.eve.protocol.jsonrpc.annotation.Sender;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.util.AnnotationUtil;
+import com.almende.util.AnnotationUtil.AnnotatedMethod;
+import com.almende.util.AnnotationUtil.AnnotatedParam;
+import com.almende.util.AnnotationUtil.CachedAnnotation;
+import com.almende.util.Defines;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * The Class DispatchTable, the compiled JSON-RPC methods of a destination
+ * class. Each method path (including its namespace) is resolved once, through
+ * NamespaceUtil, into an Invoker which holds the namespace getter chain, the
+ * static part of the access decision and the parameter binders. After that, a
+ * request costs a single map lookup plus the invocation itself.
+ */
+final class DispatchTable {
+	private static final ClassValue<DispatchTable>	TABLES		= new ClassValue<DispatchTable>() {
+																	@Override
+																	protected DispatchTable computeValue(
+																			final Class<?> type) {
+																		return new DispatchTable(
+																				type);
+																	}
+																};
+	private final Class<?>							clazz;
+	private final ConcurrentMap<String, Invoker>	invokers	= new ConcurrentHashMap<String, Invoker>();
+
+	private DispatchTable(final Class<?> clazz) {
+		this.clazz = clazz;
+	}
+
+	/**
+	 * Gets the dispatch table of the given class.
+	 *
+	 * @param clazz
+	 *            the clazz
+	 * @return the dispatch table
+	 */
+	public static DispatchTable get(final Class<?> clazz) {
+		return TABLES.get(clazz);
+	}
+
+	/**
+	 * Gets the invoker for the given method path, compiling it on first use.
+	 * Unknown paths are not cached.
+	 *
+	 * @param destination
+	 *            the destination, an instance of the class of this table
+	 * @param path
+	 *            the method path
+	 * @return the invoker, or null if the method can't be found
+	 * @throws IllegalAccessException
+	 *             the illegal access exception
+	 * @throws InvocationTargetException
+	 *             the invocation target exception
+	 * @throws NoSuchMethodException
+	 *             the no such method exception
+	 */
+	public Invoker getInvoker(final Object destination, final String path)
+			throws IllegalAccessException, InvocationTargetException,
+			NoSuchMethodException {
+		Invoker result = invokers.get(path);
+		if (result == null) {
+			final CallTuple tuple = NamespaceUtil.get(destination, path);
+			if (tuple.getDestination() == null || tuple.getMethod() == null) {
+				return null;
+			}
+			result = new Invoker(tuple.getGetters(), tuple.getDestination()
+					.getClass(), tuple.getMethodName(), tuple.getMethod());
+			final Invoker old = invokers.putIfAbsent(path, result);
+			if (old != null) {
+				result = old;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "DispatchTable(" + clazz.getName() + "):" + invokers.keySet();
+	}
+
+	/**
+	 * The Class Invoker, a compiled JSON-RPC method.
+	 */
+	static final class Invoker {
+		private static final Object[]	NOARGS	= new Object[0];
+		private final AnnotatedMethod[]	getters;
+		private final Class<?>			targetClass;
+		private final String			methodName;
+		private final AnnotatedMethod	method;
+		private final Method			actualMethod;
+		private final MethodHandle		methodHandle;
+		private final boolean			isVoid;
+		private final AccessType		access;
+		private final String			tag;
+		private final ParamBinder[]		binders;
+		private final Map<String, Integer>	named	= new HashMap<String, Integer>();
+		private final boolean			paramsObject;
+
+		private Invoker(final AnnotatedMethod[] getters,
+				final Class<?> targetClass, final String methodName,
+				final AnnotatedMethod method) {
+			this.getters = getters;
+			this.targetClass = targetClass;
+			this.methodName = methodName;
+			this.method = method;
+			this.actualMethod = method.getActualMethod();
+			this.methodHandle = method.getMethodHandle();
+			this.isVoid = method.isVoid();
+
+			final List<AnnotatedParam> params = method.getParams();
+			this.paramsObject = params.size() == 1
+					&& params.get(0).getType().equals(ObjectNode.class)
+					&& params.get(0).getAnnotations().isEmpty();
+			this.binders = new ParamBinder[params.size()];
+			for (int i = 0; i < binders.length; i++) {
+				binders[i] = new ParamBinder(i, params.get(i));
+				if (binders[i].isNamed()) {
+					named.put(binders[i].getName(), i);
+				}
+			}
+
+			CachedAnnotation methodAccess = null;
+			if (actualMethod.getDeclaringClass().isAssignableFrom(targetClass)
+					&& Modifier.isPublic(actualMethod.getModifiers())
+					&& hasNamedParams(params)) {
+				methodAccess = method.getAnnotation(Access.class);
+				if (methodAccess == null) {
+					methodAccess = AnnotationUtil.get(targetClass)
+							.getAnnotation(Access.class);
+				}
+			}
+			if (methodAccess == null) {
+				// Default: UNAVAILABLE!
+				this.access = AccessType.UNAVAILABLE;
+				this.tag = null;
+			} else {
+				this.access = (AccessType) methodAccess.value();
+				this.tag = ((Access) methodAccess.getAnnotation()).tag();
+			}
+		}
+
+		/**
+		 * Gets the annotated method.
+		 *
+		 * @return the method
+		 */
+		public AnnotatedMethod getMethod() {
+			return method;
+		}
+
+		/**
+		 * Follow the namespace getters from the given destination.
+		 *
+		 * @param destination
+		 *            the destination
+		 * @return the real destination of the call, may be null
+		 * @throws IllegalAccessException
+		 *             the illegal access exception
+		 * @throws InvocationTargetException
+		 *             the invocation target exception
+		 */
+		public Object getDestination(final Object destination)
+				throws IllegalAccessException, InvocationTargetException {
+			Object result = destination;
+			for (int i = 0; i < getters.length && result != null; i++) {
+				result = getters[i].getActualMethod().invoke(result,
+						(Object[]) null);
+			}
+			return result;
+		}
+
+		/**
+		 * Gets the invoker for the given real destination. Namespace getters
+		 * may return objects of another class than during compilation, in
+		 * which case the method is looked up in the table of that class.
+		 *
+		 * @param realDest
+		 *            the real destination, as returned by getDestination()
+		 * @return the invoker, or null if not found
+		 * @throws IllegalAccessException
+		 *             the illegal access exception
+		 * @throws InvocationTargetException
+		 *             the invocation target exception
+		 * @throws NoSuchMethodException
+		 *             the no such method exception
+		 */
+		public Invoker forTarget(final Object realDest)
+				throws IllegalAccessException, InvocationTargetException,
+				NoSuchMethodException {
+			if (realDest == null) {
+				return null;
+			}
+			if (realDest.getClass() == targetClass) {
+				return this;
+			}
+			return DispatchTable.get(realDest.getClass()).getInvoker(realDest,
+					methodName);
+		}
+
+		/**
+		 * Check whether this method is available for JSON-RPC calls from the
+		 * given sender. This is the case when it is public, has named
+		 * parameters, and has a public or private @Access annotation.
+		 *
+		 * @param senderUrl
+		 *            the sender url
+		 * @param auth
+		 *            the auth
+		 * @return true, if is available
+		 */
+		public boolean isAvailable(final URI senderUrl, final Authorizor auth) {
+			switch (access) {
+				case PUBLIC:
+					return true;
+				case PRIVATE:
+					return auth != null ? auth.onAccess(senderUrl, tag) : false;
+				case SELF:
+					return auth != null ? auth.isSelf(senderUrl) : false;
+				case UNAVAILABLE:
+				default:
+					return false;
+			}
+		}
+
+		/**
+		 * Invoke the method on the real destination.
+		 *
+		 * @param realDest
+		 *            the real destination
+		 * @param request
+		 *            the request
+		 * @param senderUrl
+		 *            the sender url
+		 * @return the result
+		 * @throws Throwable
+		 *             the throwable
+		 */
+		public Object invoke(final Object realDest, final JSONRequest request,
+				final URI senderUrl) throws Throwable {
+			if (Defines.HASMETHODHANDLES) {
+				final Object[] args = bind(realDest, request, senderUrl);
+				if (isVoid) {
+					methodHandle.invokeExact(args);
+					return null;
+				} else {
+					return methodHandle.invokeExact(args);
+				}
+			} else {
+				return actualMethod.invoke(realDest,
+						bind(null, request, senderUrl));
+			}
+		}
+
+		/**
+		 * Cast the request params to the parameters of the method. Buffered
+		 * params, from the streaming parser, are bound directly from their
+		 * tokens, without building a JsonNode tree.
+		 *
+		 * @param realDest
+		 *            the real destination, prepended to the result if not null
+		 * @param request
+		 *            the request
+		 * @param senderUrl
+		 *            the sender url
+		 * @return the object[]
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		private Object[] bind(final Object realDest, final JSONRequest request,
+				final URI senderUrl) throws IOException {
+			final int offset = realDest != null ? 1 : 0;
+			if (binders.length + offset == 0) {
+				return NOARGS;
+			}
+			// Bind directly into the argument array of the invocation.
+			final Object[] objects = new Object[binders.length + offset];
+			if (realDest != null) {
+				objects[0] = realDest;
+			}
+			if (paramsObject) {
+				// the method expects one parameter of type JSONObject
+				// feed the params object itself to it.
+				objects[offset] = request.getParams();
+				return objects;
+			}
+			final TokenBuffer buffer = request.getParamsBuffer();
+			if (buffer == null) {
+				final ObjectNode params = request.getParams();
+				for (int i = 0; i < binders.length; i++) {
+					objects[i + offset] = binders[i].bind(params, senderUrl,
+							request.getId());
+				}
+				return objects;
+			}
+			final boolean[] bound = new boolean[binders.length];
+			for (int i = 0; i < binders.length; i++) {
+				if (!binders[i].isNamed()) {
+					objects[i + offset] = binders[i].bind(null, senderUrl,
+							request.getId());
+				}
+			}
+			final JsonParser parser = buffer.asParser();
+			try {
+				if (parser.nextToken() == JsonToken.START_OBJECT) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						final Integer index = named.get(parser
+								.getCurrentName());
+						parser.nextToken();
+						if (index == null) {
+							parser.skipChildren();
+						} else {
+							objects[index + offset] = binders[index]
+									.read(parser);
+							bound[index] = true;
+						}
+					}
+				}
+			} finally {
+				parser.close();
+			}
+			for (int i = 0; i < binders.length; i++) {
+				if (binders[i].isNamed() && !bound[i]) {
+					objects[i + offset] = binders[i].missing();
+				}
+			}
+			return objects;
+		}
+
+		private static boolean hasNamedParams(final List<AnnotatedParam> params) {
+			for (final AnnotatedParam param : params) {
+				if (param.getAnnotation(Name.class) == null
+						&& param.getAnnotation(Sender.class) == null
+						&& param.getAnnotation(RequestId.class) == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -5,33 +5,27 @@
 package com.almende.eve.protocol.jsonrpc;
 
 import java.io.IOException;
-import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.net.URI;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.almende.eve.protocol.auth.Authorizor;
-import com.almende.eve.protocol.jsonrpc.NamespaceUtil.CallTuple;
-import com.almende.eve.protocol.jsonrpc.annotation.Access;
-import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
+import com.almende.eve.protocol.jsonrpc.DispatchTable.Invoker;
 import com.almende.eve.protocol.jsonrpc.annotation.Name;
 import com.almende.eve.protocol.jsonrpc.annotation.Optional;
 import com.almende.eve.protocol.jsonrpc.annotation.RequestId;
 import com.almende.eve.protocol.jsonrpc.annotation.Sender;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRPCException;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
 import com.almende.eve.protocol.jsonrpc.formats.JSONResponse;
-import com.almende.util.AnnotationUtil;
 import com.almende.util.AnnotationUtil.AnnotatedMethod;
 import com.almende.util.AnnotationUtil.AnnotatedParam;
 import com.almende.util.AnnotationUtil.CachedAnnotation;
 import com.almende.util.Defines;
-import com.almende.util.TypeUtil;
 import com.almende.util.URIUtil;
 import com.almende.util.jackson.JOM;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -58,7 +52,6 @@ public final class JSONRpc {
 	 */
 	private JSONRpc() {}
 
-	// TODO: implement JSONRPC 2.0 Batch
 	/**
 	 * Invoke a method on an object.
 	 * 
@@ -78,7 +71,8 @@ public final class JSONRpc {
 	}
 
 	/**
-	 * Invoke a method on an object.
+	 * Invoke a method on an object. The request may also be a JSON-RPC 2.0
+	 * batch, whose requests are invoked in order.
 	 *
 	 * @param destination
 	 *            the destination
@@ -88,16 +82,26 @@ public final class JSONRpc {
 	 *            the sender url
 	 * @param auth
 	 *            the auth
-	 * @return the string
+	 * @return the string, null if the batch contained only notifications
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	public static String invoke(final Object destination, final String request,
 			final URI senderUrl, final Authorizor auth) throws IOException {
+		final JSONBatch batch = JSONBatch.jsonConvert(request);
+		if (batch != null) {
+			return invoke(destination, batch, senderUrl, auth);
+		}
 		JSONRequest jsonRequest = null;
 		JSONResponse jsonResponse = null;
 		try {
-			jsonRequest = new JSONRequest(request);
+			final JSONMessage message = JSONMessage.parse(request);
+			if (!(message instanceof JSONRequest)) {
+				throw new JSONRPCException(
+						JSONRPCException.CODE.INVALID_REQUEST,
+						"Member 'method' missing in request");
+			}
+			jsonRequest = (JSONRequest) message;
 			jsonResponse = invoke(destination, jsonRequest, senderUrl, auth);
 		} catch (final JSONRPCException err) {
 			jsonResponse = new JSONResponse(err);
@@ -106,6 +110,30 @@ public final class JSONRpc {
 		return jsonResponse.toString();
 	}
 
+	private static String invoke(final Object destination,
+			final JSONBatch batch, final URI senderUrl, final Authorizor auth) {
+		if (batch.isEmpty()) {
+			return new JSONResponse(new JSONRPCException(
+					JSONRPCException.CODE.INVALID_REQUEST, "Empty batch"))
+					.toString();
+		}
+		final JSONBatch result = new JSONBatch();
+		for (final JSONMessage message : batch) {
+			if (message instanceof JSONRequest) {
+				final JSONResponse response = invoke(destination,
+						(JSONRequest) message, senderUrl, auth);
+				if (response != null) {
+					result.add(response);
+				}
+			} else {
+				result.add(new JSONResponse(new JSONRPCException(
+						JSONRPCException.CODE.INVALID_REQUEST,
+						"Invalid entry in batch")));
+			}
+		}
+		return result.isEmpty() ? null : result.toString();
+	}
+
 	/**
 	 * Invoke a method on an object.
 	 * 
@@ -144,37 +172,21 @@ public final class JSONRpc {
 			resp = new JSONResponse(id, null);
 		}
 		try {
-			final CallTuple tuple = NamespaceUtil.get(destination,
-					request.getMethod());
-
-			final Object realDest = tuple.getDestination();
-			final AnnotatedMethod annotatedMethod = tuple.getMethod();
-			if (!isAvailable(annotatedMethod, realDest, senderUrl, auth)) {
+			Invoker invoker = DispatchTable.get(destination.getClass())
+					.getInvoker(destination, request.getMethod());
+			Object realDest = null;
+			if (invoker != null) {
+				realDest = invoker.getDestination(destination);
+				invoker = invoker.forTarget(realDest);
+			}
+			if (invoker == null || !invoker.isAvailable(senderUrl, auth)) {
 				throw new JSONRPCException(
 						JSONRPCException.CODE.METHOD_NOT_FOUND,
 						"Method '"
 								+ request.getMethod()
 								+ "' not found. The method does not exist or you are not authorized.");
 			}
-			final MethodHandle methodHandle = annotatedMethod.getMethodHandle();
-			final Method method = annotatedMethod.getActualMethod();
-
-			Object result = null;
-
-			if (Defines.HASMETHODHANDLES) {
-				final Object[] params = castParams(realDest,
-						request.getParams(), annotatedMethod.getParams(),
-						senderUrl, request.getId());
-				if (annotatedMethod.isVoid()) {
-					methodHandle.invokeExact(params);
-				} else {
-					result = methodHandle.invokeExact(params);
-				}
-			} else {
-				final Object[] params = castParams(request.getParams(),
-						annotatedMethod.getParams(), senderUrl, request.getId());
-				result = method.invoke(realDest, params);
-			}
+			Object result = invoker.invoke(realDest, request, senderUrl);
 			if (resp != null) {
 				if (result == null) {
 					result = JOM.createNullNode();
@@ -239,20 +251,22 @@ public final class JSONRpc {
 		if (c == null) {
 			return methods;
 		}
+		final DispatchTable table = DispatchTable.get(c.getClass());
 		for (final String path : NamespaceUtil.getAllMethodPaths(c)) {
 			try {
-				final CallTuple method = NamespaceUtil.get(c, path);
-				if (isAvailable(method.getMethod(), method.getDestination(),
-						URIUtil.create("local:null"), auth)) {
+				final Invoker invoker = table.getInvoker(c, path);
+				if (invoker != null
+						&& invoker.isAvailable(URIUtil.create("local:null"),
+								auth)) {
+					final AnnotatedMethod method = invoker.getMethod();
 					final ObjectNode result = JOM.createObjectNode();
 					result.put("type", "method");
-					result.put("description", typeToString(method.getMethod()
-							.getGenericReturnType()));
-					result.set("returns", typeToJsonSchema(method.getMethod()
-							.getGenericReturnType()));
+					result.put("description",
+							typeToString(method.getGenericReturnType()));
+					result.set("returns",
+							typeToJsonSchema(method.getGenericReturnType()));
 					final ArrayNode params = JOM.createArrayNode();
-					for (final AnnotatedParam param : method.getMethod()
-							.getParams()) {
+					for (final AnnotatedParam param : method.getParams()) {
 						if (param.getAnnotation(Sender.class) == null
 								&& param.getAnnotation(RequestId.class) == null) {
 							final ObjectNode paramData = JOM.createObjectNode();
@@ -328,201 +342,6 @@ public final class JSONRpc {
 		return cause.toString();
 	}
 
-	/**
-	 * @param params
-	 * @param annotatedParams
-	 * @param requestParams
-	 * @return the Object[]
-	 */
-	private static Object[] castParams(final ObjectNode params,
-			final List<AnnotatedParam> annotatedParams, final URI senderUrl,
-			final JsonNode requestId) {
-		return castParams(null, params, annotatedParams, senderUrl, requestId);
-	}
-
-	/**
-	 * Cast a JSONArray or JSONObject params to the desired paramTypes.
-	 * 
-	 * @param params
-	 *            the params
-	 * @param annotatedParams
-	 *            the annotated params
-	 * @param requestParams
-	 *            the request params
-	 * @return the object[]
-	 */
-	private static Object[] castParams(final Object realDest,
-			final ObjectNode params,
-			final List<AnnotatedParam> annotatedParams, final URI senderUrl,
-			final JsonNode requestId) {
-
-		switch (annotatedParams.size()) {
-			case 0:
-				if (realDest != null) {
-					return new Object[] { realDest };
-				} else {
-					return new Object[0];
-				}
-				/* -- Unreachable, explicit no break -- */
-			case 1:
-				final AnnotatedParam parm = annotatedParams.get(0);
-				if (parm.getType().equals(ObjectNode.class)
-						&& parm.getAnnotations().isEmpty()) {
-					// the method expects one parameter of type JSONObject
-					// feed the params object itself to it.
-					if (realDest != null) {
-						return new Object[] { realDest, params };
-					} else {
-						return new Object[] { params };
-					}
-				}
-				/* -- Explicit no break -- */
-			default:
-				final ObjectNode paramsObject = (ObjectNode) params;
-				int offset = 0;
-				if (realDest != null) {
-					offset = 1;
-				}
-				final Object[] objects = new Object[annotatedParams.size()
-						+ offset];
-				if (realDest != null) {
-					objects[0] = realDest;
-				}
-				for (int i = 0; i < annotatedParams.size(); i++) {
-					final AnnotatedParam p = annotatedParams.get(i);
-					final String name = getName(p);
-					if (name == null) {
-						CachedAnnotation a = p.getAnnotation(Sender.class);
-						if (a != null) {
-							// this is a systems parameter
-							if (p.getType().equals(String.class)) {
-								LOG.warning("Deprecated parameter usage: @Sender should now by an URI i.s.o. String");
-								objects[i + offset] = senderUrl.toString();
-							} else {
-								objects[i + offset] = senderUrl;
-							}
-						} else {
-							a = p.getAnnotation(RequestId.class);
-							if (a != null) {
-								objects[i + offset] = requestId;
-							} else {
-								// this is a problem
-								throw new ClassCastException(
-										"Name of parameter " + i
-												+ " not defined");
-							}
-						}
-					} else {
-						// this is a named parameter
-						if (paramsObject.has(name)) {
-							objects[i + offset] = TypeUtil.inject(
-									paramsObject.get(name), p.getGenericType());
-						} else {
-							if (isRequired(p)) {
-								throw new ClassCastException(
-										"Required parameter '" + name
-												+ "' missing.");
-							} else if (p.getType().isPrimitive()) {
-								// TODO: should this test be moved to
-								// isAvailable()?
-								throw new ClassCastException("Parameter '"
-										+ name
-										+ "' cannot be both optional and "
-										+ "a primitive type ("
-										+ p.getType().getSimpleName() + ")");
-							} else {
-								objects[i + offset] = null;
-							}
-						}
-					}
-				}
-				return objects;
-		}
-	}
-
-	/**
-	 * Check whether a method is available for JSON-RPC calls. This is the case
-	 * when it is public, has named parameters, and has a public or private @Access
-	 * annotation
-	 * 
-	 * @param method
-	 *            the method
-	 * @param destination
-	 *            the destination
-	 * @param requestParams
-	 *            the request params
-	 * @param auth
-	 *            the auth
-	 * @return available
-	 */
-	private static boolean isAvailable(final AnnotatedMethod method,
-			final Object destination, final URI senderUrl, final Authorizor auth) {
-
-		if (method == null) {
-			return false;
-		}
-		if (destination != null
-				&& !method.getActualMethod().getDeclaringClass()
-						.isAssignableFrom(destination.getClass())) {
-			return false;
-		}
-		final int mod = method.getActualMethod().getModifiers();
-		if (!(Modifier.isPublic(mod) && hasNamedParams(method))) {
-			return false;
-		}
-
-		CachedAnnotation methodAccess = method.getAnnotation(Access.class);
-		if (methodAccess == null) {
-			methodAccess = AnnotationUtil.get(
-					destination != null ? destination.getClass() : method
-							.getActualMethod().getDeclaringClass())
-					.getAnnotation(Access.class);
-		}
-		if (methodAccess == null) {
-			// Default: UNAVAILABLE!
-			return false;
-		}
-		final AccessType value = (AccessType) methodAccess.value();
-		switch (value) {
-			case PUBLIC:
-				return true;
-			case UNAVAILABLE:
-				return false;
-			case PRIVATE:
-				return auth != null ? auth.onAccess(senderUrl,
-						((Access) methodAccess.getAnnotation()).tag()) : false;
-			case SELF:
-				return auth != null ? auth.isSelf(senderUrl) : false;
-			default:
-				return false;
-		}
-	}
-
-	/**
-	 * Test whether a method has named parameters.
-	 * 
-	 * @param method
-	 *            the method
-	 * @param requestParams
-	 *            the request params
-	 * @return hasNamedParams
-	 */
-	private static boolean hasNamedParams(final AnnotatedMethod method) {
-		for (final AnnotatedParam param : method.getParams()) {
-			CachedAnnotation a = param.getAnnotation(Name.class);
-			if (a == null) {
-				a = param.getAnnotation(Sender.class);
-				if (a == null) {
-					a = param.getAnnotation(RequestId.class);
-					if (a == null) {
-						return false;
-					}
-				}
-			}
-		}
-		return true;
-	}
-
 	/**
 	 * Test if a parameter is required Reads the parameter annotation @Required.
 	 * Returns True if the annotation is not provided.
@@ -6,6 +6,7 @@ package com.almende.eve.protocol.jsonrpc;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,6 +16,7 @@ import com.almende.eve.protocol.Meta;
 import com.almende.eve.protocol.auth.Authorizor;
 import com.almende.eve.protocol.auth.DefaultAuthorizor;
 import com.almende.eve.protocol.jsonrpc.formats.Caller;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
 import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRPCException;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
@@ -22,6 +24,7 @@ import com.almende.eve.protocol.jsonrpc.formats.JSONResponse;
 import com.almende.util.TypeUtil;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.callback.AsyncCallbackStore;
+import com.almende.util.threads.ThreadPool;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -67,6 +70,10 @@ public class JSONRpcProtocol implements RpcBasedProtocol {
 
 	@Override
 	public boolean inbound(final Meta input) {
+		final JSONBatch batch = JSONBatch.jsonConvert(input.getMsg());
+		if (batch != null) {
+			return inbound(batch, input);
+		}
 		final JSONResponse response = invoke(input.getMsg(), input.getPeer());
 		if (response != null) {
 			if (caller == null) {
@@ -93,10 +100,96 @@ public class JSONRpcProtocol implements RpcBasedProtocol {
 		return true;
 	}
 
+	/**
+	 * Handle an inbound JSON-RPC batch. The messages of the batch are invoked
+	 * in parallel on the threadpool, the responses are collected and sent
+	 * back as a single batch, when the last message has been handled.
+	 *
+	 * @param batch
+	 *            the batch
+	 * @param input
+	 *            the input
+	 * @return true, if successful
+	 */
+	private boolean inbound(final JSONBatch batch, final Meta input) {
+		if (caller == null) {
+			LOG.warning("JSONRpcProtocol received batch, but no caller given.");
+			return false;
+		}
+		if (batch.isEmpty()) {
+			final JSONResponse response = new JSONResponse(
+					new JSONRPCException(JSONRPCException.CODE.INVALID_REQUEST,
+							"Empty batch"));
+			try {
+				caller.get().call(input.getPeer(), response, input.getTag());
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Couldn't send response", e);
+			}
+			return true;
+		}
+		final int size = batch.size();
+		final JSONResponse[] responses = new JSONResponse[size];
+		final AtomicInteger remaining = new AtomicInteger(size);
+		for (int i = 0; i < size; i++) {
+			final int index = i;
+			final Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					final JSONMessage message = batch.get(index);
+					if (message == null) {
+						responses[index] = new JSONResponse(
+								new JSONRPCException(
+										JSONRPCException.CODE.INVALID_REQUEST,
+										"Invalid entry in batch"));
+					} else {
+						responses[index] = invoke(message, input.getPeer());
+					}
+					if (remaining.decrementAndGet() == 0) {
+						respond(responses, input);
+					}
+				}
+			};
+			if (i < size - 1) {
+				ThreadPool.getPool().execute(task);
+			} else {
+				// Handle the last message on this thread.
+				task.run();
+			}
+		}
+		return true;
+	}
+
+	private void respond(final JSONResponse[] responses, final Meta input) {
+		final JSONBatch result = new JSONBatch();
+		for (final JSONResponse response : responses) {
+			if (response != null) {
+				result.add(response);
+			}
+		}
+		try {
+			if (!result.isEmpty()) {
+				caller.get().call(input.getPeer(), result, input.getTag());
+			} else if (input.getTag() != null) {
+				// Always send a response if tag is set.
+				caller.get().call(input.getPeer(), new JSONResponse(),
+						input.getTag());
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Couldn't send batch response", e);
+		}
+	}
+
 	public boolean outbound(final Meta output) {
 		if (output.getMsg() instanceof JSONRequest) {
 			final JSONRequest request = (JSONRequest) output.getMsg();
 			addCallback(request, request.getCallback());
+		} else if (output.getMsg() instanceof JSONBatch) {
+			for (final JSONMessage message : (JSONBatch) output.getMsg()) {
+				if (message instanceof JSONRequest) {
+					final JSONRequest request = (JSONRequest) message;
+					addCallback(request, request.getCallback());
+				}
+			}
 		}
 		return output.nextOut();
 	}
@@ -244,9 +337,18 @@ public class JSONRpcProtocol implements RpcBasedProtocol {
 		return myParams;
 	}
 
+	/**
+	 * Gets the number of outbound requests still awaiting a response.
+	 * 
+	 * @return the pending callback count
+	 */
+	public int getPendingCallbacks() {
+		return callbacks.getPendingCount();
+	}
+
 	@Override
 	public void delete() {
-		callbacks.clear();
+		callbacks.close();
 		JSONRpcProtocolBuilder.delete(myParams.getId());
 	}
 
@@ -7,14 +7,14 @@ package com.almende.eve.protocol.jsonrpc;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.almende.eve.protocol.jsonrpc.annotation.Name;
 import com.almende.eve.protocol.jsonrpc.annotation.Namespace;
@@ -22,18 +22,24 @@ import com.almende.util.AnnotationUtil;
 import com.almende.util.AnnotationUtil.AnnotatedClass;
 import com.almende.util.AnnotationUtil.AnnotatedMethod;
 import com.almende.util.AnnotationUtil.CachedAnnotation;
-import com.almende.util.jackson.JOM;
-import com.fasterxml.jackson.core.JsonProcessingException;
 
 /**
  * The Class NamespaceUtil.
+ * The namespace paths of each destination class are collected on first use,
+ * and again when a requested path is missing, and cached in a ClassValue.
+ * This cache is safe for concurrent use and doesn't prevent (re)loaded agent
+ * classes from being unloaded.
  */
 final class NamespaceUtil {
-	private static final Logger							LOG		= Logger.getLogger(NamespaceUtil.class
-																		.getName());
-	private static final Map<String, AnnotatedMethod[]>	CACHE	= new HashMap<String, AnnotatedMethod[]>();
-	private static final Pattern						PATTERN	= Pattern
-																		.compile("\\.[^.]+$");
+	private static final Logger						LOG		= Logger.getLogger(NamespaceUtil.class
+																	.getName());
+	private static final ClassValue<Namespaces>		CACHE	= new ClassValue<Namespaces>() {
+																@Override
+																protected Namespaces computeValue(
+																		final Class<?> type) {
+																	return new Namespaces();
+																}
+															};
 
 	/**
 	 * Instantiates a new namespace util.
@@ -49,13 +55,16 @@ final class NamespaceUtil {
 	 *            the steps
 	 * @param methods
 	 *            the methods
+	 * @param cache
+	 *            the cache to populate
 	 * @throws IllegalAccessException
 	 *             the illegal access exception
 	 * @throws InvocationTargetException
 	 *             the invocation target exception
 	 */
 	private static void populateCache(final Object destination,
-			final String steps, final AnnotatedMethod[] methods)
+			final String steps, final AnnotatedMethod[] methods,
+			final Map<String, AnnotatedMethod[]> cache)
 			throws IllegalAccessException, InvocationTargetException {
 		final AnnotatedClass clazz = AnnotationUtil.get(destination.getClass());
 		for (final AnnotatedMethod method : clazz
@@ -75,14 +84,15 @@ final class NamespaceUtil {
 					continue;
 				}
 			}
-			final String path = steps + "." + namespace;
+			final String path = steps.isEmpty() ? namespace : steps + "."
+					+ namespace;
 			methods[methods.length - 1] = method;
-			CACHE.put(path, Arrays.copyOf(methods, methods.length));
+			cache.put(path, Arrays.copyOf(methods, methods.length));
 
 			// recurse:
 			if (newDest != null) {
 				populateCache(newDest, path,
-						Arrays.copyOf(methods, methods.length + 1));
+						Arrays.copyOf(methods, methods.length + 1), cache);
 			}
 		}
 	}
@@ -113,7 +123,14 @@ final class NamespaceUtil {
 	public static List<String> getAllMethodPaths(final Object destination) {
 		final ArrayList<String> result = new ArrayList<String>();
 		addMethodsPaths(result, destination, "");
-		for (Entry<String, AnnotatedMethod[]> namespace : CACHE.entrySet()) {
+		final Map<String, AnnotatedMethod[]> cache;
+		try {
+			cache = CACHE.get(destination.getClass()).get(destination, null);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Namespace getter ran into trouble", e);
+			return result;
+		}
+		for (Entry<String, AnnotatedMethod[]> namespace : cache.entrySet()) {
 			if (namespace.getKey().isEmpty()) {
 				continue;
 			}
@@ -131,7 +148,6 @@ final class NamespaceUtil {
 			}
 			if (newDestination != null) {
 				addMethodsPaths(result, newDestination, namespace.getKey()
-						.replace(destination.getClass().getName() + ".", "")
 						+ ".");
 			}
 		}
@@ -159,36 +175,32 @@ final class NamespaceUtil {
 		final CallTuple result = new CallTuple();
 		String reducedPath = "";
 		String reducedMethod = path;
-		if (path.indexOf('.') >= 0) {
-			reducedPath = destination.getClass().getName() + "." + path;
-			final Matcher matcher = PATTERN.matcher(reducedPath);
-			reducedPath = matcher.replaceFirst("");
-			reducedMethod = matcher.group().substring(1);
-		}
-		if (!CACHE.containsKey(reducedPath)) {
-			final AnnotatedMethod[] methods = new AnnotatedMethod[1];
-			final String newSteps = destination.getClass().getName();
-			CACHE.put("", new AnnotatedMethod[0]);
-			populateCache(destination, newSteps, methods);
+		final int dot = path.lastIndexOf('.');
+		if (dot >= 0) {
+			reducedPath = path.substring(0, dot);
+			reducedMethod = path.substring(dot + 1);
 		}
-		if (!CACHE.containsKey(reducedPath)) {
-			try {
-				throw new IllegalStateException("Non resolveable path given:'"
-						+ path + "' became:'" + reducedPath + "' \n checked:"
-						+ JOM.getInstance().writeValueAsString(CACHE));
-			} catch (final JsonProcessingException e) {
-				throw new IllegalStateException("Non resolveable path given:'"
-						+ path + "' \n checked:" + CACHE);
-			}
+		final Map<String, AnnotatedMethod[]> cache = CACHE.get(
+				destination.getClass()).get(destination, reducedPath);
+		final AnnotatedMethod[] methodPath = cache.get(reducedPath);
+		if (methodPath == null) {
+			throw new IllegalStateException("Non resolveable path given:'"
+					+ path + "' became:'" + reducedPath + "' \n checked:"
+					+ cache.keySet());
 		}
-		final AnnotatedMethod[] methodPath = CACHE.get(reducedPath);
+		final List<AnnotatedMethod> getters = new ArrayList<AnnotatedMethod>(
+				methodPath.length);
 		Object newDestination = destination;
 		for (final AnnotatedMethod method : methodPath) {
 			if (method != null) {
+				getters.add(method);
 				newDestination = method.getActualMethod().invoke(
 						newDestination, (Object[]) null);
 			}
 		}
+		result.setGetters(getters
+				.toArray(new AnnotatedMethod[getters.size()]));
+		result.setMethodName(reducedMethod);
 		if (newDestination == null) {
 			// Oops, namespace getter returned null pointer!
 			return result;
@@ -231,16 +243,73 @@ final class NamespaceUtil {
 		return result;
 	}
 
+	/**
+	 * The namespace paths of a single destination class.
+	 */
+	private static final class Namespaces {
+		private final AtomicReference<Map<String, AnnotatedMethod[]>>	paths	= new AtomicReference<Map<String, AnnotatedMethod[]>>();
+
+		/**
+		 * Gets the namespace paths, mapped to their getter chains. Populated
+		 * on first use through the given destination. If the requested path
+		 * is missing, e.g. because a namespace getter returned null before,
+		 * the paths are collected again and merged into a new map, published
+		 * through compare-and-set.
+		 *
+		 * @param destination
+		 *            the destination
+		 * @param path
+		 *            the requested path, or null for any
+		 * @return the paths
+		 * @throws IllegalAccessException
+		 *             the illegal access exception
+		 * @throws InvocationTargetException
+		 *             the invocation target exception
+		 */
+		private Map<String, AnnotatedMethod[]> get(final Object destination,
+				final String path) throws IllegalAccessException,
+				InvocationTargetException {
+			Map<String, AnnotatedMethod[]> current = paths.get();
+			if (current != null && (path == null || current.containsKey(path))) {
+				return current;
+			}
+			final Map<String, AnnotatedMethod[]> cache = new HashMap<String, AnnotatedMethod[]>();
+			cache.put("", new AnnotatedMethod[0]);
+			populateCache(destination, "", new AnnotatedMethod[1], cache);
+			while (true) {
+				final Map<String, AnnotatedMethod[]> merged;
+				if (current == null) {
+					merged = cache;
+				} else {
+					merged = new HashMap<String, AnnotatedMethod[]>(current);
+					merged.putAll(cache);
+				}
+				final Map<String, AnnotatedMethod[]> result = Collections
+						.unmodifiableMap(merged);
+				if (paths.compareAndSet(current, result)) {
+					return result;
+				}
+				current = paths.get();
+			}
+		}
+	}
+
 	/**
 	 * The Class CallTuple.
 	 */
 	public static class CallTuple {
 
 		/** The destination. */
-		private Object			destination;
+		private Object				destination;
 
 		/** The method name. */
-		private AnnotatedMethod	method;
+		private AnnotatedMethod		method;
+
+		/** The namespace getters leading to the destination. */
+		private AnnotatedMethod[]	getters		= new AnnotatedMethod[0];
+
+		/** The method name, without namespace path. */
+		private String				methodName	= null;
 
 		/**
 		 * Gets the destination.
@@ -279,5 +348,44 @@ final class NamespaceUtil {
 		public void setMethod(final AnnotatedMethod method) {
 			this.method = method;
 		}
+
+		/**
+		 * Gets the namespace getters, which lead from the original destination
+		 * to the destination of this tuple.
+		 * 
+		 * @return the getters
+		 */
+		public AnnotatedMethod[] getGetters() {
+			return getters;
+		}
+
+		/**
+		 * Sets the namespace getters.
+		 * 
+		 * @param getters
+		 *            the new getters
+		 */
+		public void setGetters(final AnnotatedMethod[] getters) {
+			this.getters = getters;
+		}
+
+		/**
+		 * Gets the method name, without namespace path.
+		 * 
+		 * @return the method name
+		 */
+		public String getMethodName() {
+			return methodName;
+		}
+
+		/**
+		 * Sets the method name.
+		 * 
+		 * @param methodName
+		 *            the new method name
+		 */
+		public void setMethodName(final String methodName) {
+			this.methodName = methodName;
+		}
 	}
 }
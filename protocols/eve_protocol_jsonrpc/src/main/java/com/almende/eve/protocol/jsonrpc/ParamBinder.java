@@ -0,0 +1,315 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.logging.Logger;
+
+import com.almende.eve.protocol.jsonrpc.annotation.RequestId;
+import com.almende.eve.protocol.jsonrpc.annotation.Sender;
+import com.almende.util.AnnotationUtil.AnnotatedParam;
+import com.almende.util.URIUtil;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonParser.NumberType;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class ParamBinder, converts the request params to a single method
+ * parameter. Binders are compiled once per method, the name, the access to
+ * the system parameters and the Jackson reader of the parameter type are
+ * resolved up front. Common types (primitives, String, URI and JsonNode) are
+ * taken directly from the JSON node, without going through Jackson data
+ * binding. Values can be bound from a tree (ObjectNode params) or directly
+ * from a streaming parser (buffered params).
+ */
+final class ParamBinder {
+	private static final Logger	LOG			= Logger.getLogger(ParamBinder.class
+													.getName());
+	private static final int	NAMED		= 0;
+	private static final int	SENDER		= 1;
+	private static final int	SENDERSTR	= 2;
+	private static final int	REQUESTID	= 3;
+	private static final int	UNDEFINED	= 4;
+
+	private static final int	GENERIC		= 0;
+	private static final int	TREE		= 1;
+	private static final int	TEXT		= 2;
+	private static final int	INT			= 3;
+	private static final int	LONG		= 4;
+	private static final int	DOUBLE		= 5;
+	private static final int	BOOLEAN		= 6;
+	private static final int	URITYPE		= 7;
+
+	private final int			index;
+	private final int			kind;
+	private final int			conversion;
+	private final String		name;
+	private final Class<?>		rawType;
+	private final JavaType		javaType;
+	private final ObjectReader	reader;
+	private final boolean		required;
+
+	/**
+	 * Instantiates a new param binder.
+	 *
+	 * @param index
+	 *            the index of the parameter
+	 * @param param
+	 *            the param
+	 */
+	ParamBinder(final int index, final AnnotatedParam param) {
+		this.index = index;
+		this.name = JSONRpc.getName(param);
+		this.rawType = param.getType();
+		this.required = JSONRpc.isRequired(param);
+		if (name != null) {
+			kind = NAMED;
+			javaType = JOM.getTypeFactory().constructType(
+					param.getGenericType());
+			reader = JOM.getInstance().reader(javaType);
+			conversion = getConversion(rawType);
+		} else {
+			if (param.getAnnotation(Sender.class) != null) {
+				kind = rawType.equals(String.class) ? SENDERSTR : SENDER;
+			} else if (param.getAnnotation(RequestId.class) != null) {
+				kind = REQUESTID;
+			} else {
+				kind = UNDEFINED;
+			}
+			javaType = null;
+			reader = null;
+			conversion = GENERIC;
+		}
+	}
+
+	/**
+	 * Checks if this is a named parameter, taken from the request params.
+	 *
+	 * @return true, if is named
+	 */
+	boolean isNamed() {
+		return kind == NAMED;
+	}
+
+	/**
+	 * Gets the name.
+	 *
+	 * @return the name
+	 */
+	String getName() {
+		return name;
+	}
+
+	private static int getConversion(final Class<?> type) {
+		if (JsonNode.class.isAssignableFrom(type)) {
+			return TREE;
+		} else if (type == String.class) {
+			return TEXT;
+		} else if (type == int.class || type == Integer.class) {
+			return INT;
+		} else if (type == long.class || type == Long.class) {
+			return LONG;
+		} else if (type == double.class || type == Double.class) {
+			return DOUBLE;
+		} else if (type == boolean.class || type == Boolean.class) {
+			return BOOLEAN;
+		} else if (type == URI.class) {
+			return URITYPE;
+		}
+		return GENERIC;
+	}
+
+	/**
+	 * Bind the request params to this parameter.
+	 *
+	 * @param params
+	 *            the params
+	 * @param senderUrl
+	 *            the sender url
+	 * @param requestId
+	 *            the request id
+	 * @return the parameter value
+	 */
+	Object bind(final ObjectNode params, final URI senderUrl,
+			final JsonNode requestId) {
+		switch (kind) {
+			case NAMED:
+				final JsonNode value = params.get(name);
+				if (value != null) {
+					return convert(value);
+				}
+				return missing();
+			case SENDER:
+				return senderUrl;
+			case SENDERSTR:
+				LOG.warning("Deprecated parameter usage: @Sender should now by an URI i.s.o. String");
+				return senderUrl.toString();
+			case REQUESTID:
+				return requestId;
+			default:
+				// this is a problem
+				throw new ClassCastException("Name of parameter " + index
+						+ " not defined");
+		}
+	}
+
+	/**
+	 * The value of a named parameter that is missing from the request.
+	 *
+	 * @return null, for optional parameters
+	 */
+	Object missing() {
+		if (required) {
+			throw new ClassCastException("Required parameter '" + name
+					+ "' missing.");
+		} else if (rawType.isPrimitive()) {
+			throw new ClassCastException("Parameter '" + name
+					+ "' cannot be both optional and a primitive type ("
+					+ rawType.getSimpleName() + ")");
+		}
+		return null;
+	}
+
+	/**
+	 * Read the value of this named parameter from the parser, which is
+	 * positioned at the first token of the value. After reading, the parser
+	 * is positioned at the last token of the value.
+	 *
+	 * @param parser
+	 *            the parser
+	 * @return the object
+	 */
+	Object read(final JsonParser parser) {
+		try {
+			final JsonToken token = parser.getCurrentToken();
+			if (token == JsonToken.VALUE_NULL) {
+				return rawType == JsonNode.class ? NullNode.getInstance()
+						: null;
+			}
+			switch (conversion) {
+				case TEXT:
+					if (token == JsonToken.VALUE_STRING) {
+						return parser.getText();
+					}
+					break;
+				case INT:
+					if (token == JsonToken.VALUE_NUMBER_INT
+							&& parser.getNumberType() == NumberType.INT) {
+						return parser.getIntValue();
+					}
+					break;
+				case LONG:
+					if (token == JsonToken.VALUE_NUMBER_INT
+							&& parser.getNumberType() != NumberType.BIG_INTEGER) {
+						return parser.getLongValue();
+					}
+					break;
+				case DOUBLE:
+					if (token == JsonToken.VALUE_NUMBER_INT
+							|| token == JsonToken.VALUE_NUMBER_FLOAT) {
+						return parser.getDoubleValue();
+					}
+					break;
+				case BOOLEAN:
+					if (token == JsonToken.VALUE_TRUE
+							|| token == JsonToken.VALUE_FALSE) {
+						return parser.getBooleanValue();
+					}
+					break;
+				case URITYPE:
+					if (token == JsonToken.VALUE_STRING) {
+						try {
+							return URIUtil.parse(parser.getText());
+						} catch (final URISyntaxException e) {
+							// Let Jackson report the problem.
+						}
+					}
+					break;
+				default:
+					break;
+			}
+			return reader.readValue(parser);
+		} catch (final IOException e) {
+			final ClassCastException cce = new ClassCastException(
+					"Failed to convert parameter '" + name + "' -----> "
+							+ javaType);
+			cce.initCause(e);
+			throw cce;
+		}
+	}
+
+	/**
+	 * Convert a JSON value to the type of this parameter, equivalent to
+	 * TypeUtil.inject(value, type).
+	 *
+	 * @param value
+	 *            the value
+	 * @return the object
+	 */
+	private Object convert(final JsonNode value) {
+		if (conversion == TREE) {
+			if (rawType == JsonNode.class || rawType.isInstance(value)) {
+				return value;
+			}
+		}
+		if (value.isNull()) {
+			return null;
+		}
+		switch (conversion) {
+			case TEXT:
+				if (value.isTextual()) {
+					return value.textValue();
+				}
+				break;
+			case INT:
+				if (value.isIntegralNumber() && value.canConvertToInt()) {
+					return value.intValue();
+				}
+				break;
+			case LONG:
+				if (value.isIntegralNumber() && value.canConvertToLong()) {
+					return value.longValue();
+				}
+				break;
+			case DOUBLE:
+				if (value.isNumber()) {
+					return value.doubleValue();
+				}
+				break;
+			case BOOLEAN:
+				if (value.isBoolean()) {
+					return value.booleanValue();
+				}
+				break;
+			case URITYPE:
+				if (value.isTextual()) {
+					try {
+						return URIUtil.parse(value.textValue());
+					} catch (final URISyntaxException e) {
+						// Let Jackson report the problem.
+					}
+				}
+				break;
+			default:
+				break;
+		}
+		try {
+			return reader.readValue(value);
+		} catch (final Exception e) {
+			final ClassCastException cce = new ClassCastException(
+					"Failed to convert value:" + value + " -----> " + javaType);
+			cce.initCause(e);
+			throw cce;
+		}
+	}
+}
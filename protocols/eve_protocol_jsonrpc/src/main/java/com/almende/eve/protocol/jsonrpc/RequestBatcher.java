@@ -0,0 +1,91 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.eve.protocol.jsonrpc.formats.Caller;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.util.threads.DelayedBatcher;
+
+/**
+ * The Class RequestBatcher, collects outbound requests per receiver and sends
+ * them as a single JSON-RPC batch, when either the batch is full or the batch
+ * delay has passed since the first request of the batch.
+ */
+public class RequestBatcher extends
+		DelayedBatcher<URI, JSONRequest, JSONBatch> {
+	private static final Logger	LOG	= Logger.getLogger(RequestBatcher.class
+											.getName());
+	private final Caller		caller;
+
+	/**
+	 * Instantiates a new request batcher.
+	 *
+	 * @param caller
+	 *            the caller, used for sending the batches
+	 * @param maxSize
+	 *            the maximum number of requests per batch
+	 * @param maxDelay
+	 *            the maximum delay of a request, in milliseconds
+	 */
+	public RequestBatcher(final Caller caller, final int maxSize,
+			final long maxDelay) {
+		super(maxSize, maxDelay);
+		this.caller = caller;
+	}
+
+	/**
+	 * Add a request to the batch of the given receiver.
+	 *
+	 * @param url
+	 *            the url of the receiver
+	 * @param request
+	 *            the request
+	 * @throws IOException
+	 *             Signals that the batch, filled by this request, couldn't be
+	 *             sent.
+	 */
+	public void add(final URI url, final JSONRequest request)
+			throws IOException {
+		final JSONBatch full = enqueue(url, request);
+		if (full != null) {
+			call(url, full);
+		}
+	}
+
+	@Override
+	protected JSONBatch createBatch(final URI url) {
+		return new JSONBatch();
+	}
+
+	@Override
+	protected int append(final JSONBatch batch, final JSONRequest request) {
+		batch.add(request);
+		return batch.size();
+	}
+
+	@Override
+	protected void send(final URI url, final JSONBatch batch) {
+		try {
+			call(url, batch);
+		} catch (final IOException e) {
+			// The callbacks of the requests will time out.
+			LOG.log(Level.WARNING, "Couldn't send batch to:" + url, e);
+		}
+	}
+
+	private void call(final URI url, final JSONBatch batch) throws IOException {
+		if (batch.size() == 1) {
+			caller.call(url, batch.get(0), null);
+		} else {
+			caller.call(url, batch, null);
+		}
+	}
+}
@@ -147,6 +147,44 @@ public interface Caller {
 	<T> void call(final URI url, final JSONMessage request, final String tag)
 			throws IOException;
 
+	/**
+	 * Send JSON-RPC batch, could contain requests, notifications or responses.
+	 * 
+	 * @param url
+	 *            the address of the other agent
+	 * @param batch
+	 *            the JSONBatch to be send to the other agent
+	 * @param tag
+	 *            the tag for mapping this call to an earlier inbound call
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void call(final URI url, final JSONBatch batch, final String tag)
+			throws IOException;
+
+	/**
+	 * Send asynchronous request as part of a batch. Requests to the same url
+	 * are collected until the batch is full or the batch delay has passed,
+	 * and are then sent together as a single JSON-RPC batch. The callback is
+	 * called for the response of this specific request.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param url
+	 *            the address of the other agent
+	 * @param method
+	 *            the remote RPC method
+	 * @param params
+	 *            the remote RPC method's params
+	 * @param callback
+	 *            the callback, may be null for a notification
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	<T> void callBatched(final URI url, final String method,
+			final ObjectNode params, final AsyncCallback<T> callback)
+			throws IOException;
+
 	/**
 	 * Send synchronous request, waiting for a response.
 	 *
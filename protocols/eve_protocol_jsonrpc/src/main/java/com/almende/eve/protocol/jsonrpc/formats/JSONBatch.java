@@ -0,0 +1,220 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc.formats;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.util.Copyable;
+import com.almende.util.jackson.JOM;
+import com.almende.util.jackson.JsonWritable;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The Class JSONBatch, a JSON-RPC 2.0 batch: an array of requests, or an
+ * array of responses. Entries of an inbound batch that aren't valid JSON-RPC
+ * messages are kept as null, so they can be answered with an
+ * "Invalid Request" error.
+ */
+public final class JSONBatch implements Serializable, JsonWritable,
+		Copyable<JSONBatch>, Iterable<JSONMessage> {
+	private static final Logger		LOG					= Logger.getLogger(JSONBatch.class
+																.getName());
+	private static final long		serialVersionUID	= 4460297464522811207L;
+	private final List<JSONMessage>	messages;
+
+	/**
+	 * Instantiates a new, empty JSON batch.
+	 */
+	public JSONBatch() {
+		messages = new ArrayList<JSONMessage>();
+	}
+
+	/**
+	 * Instantiates a new JSON batch.
+	 *
+	 * @param messages
+	 *            the messages
+	 */
+	public JSONBatch(final List<? extends JSONMessage> messages) {
+		this.messages = new ArrayList<JSONMessage>(messages);
+	}
+
+	/**
+	 * Adds the message.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public void add(final JSONMessage message) {
+		messages.add(message);
+	}
+
+	/**
+	 * Gets the message at the given index.
+	 *
+	 * @param index
+	 *            the index
+	 * @return the JSON message, or null for an invalid entry
+	 */
+	public JSONMessage get(final int index) {
+		return messages.get(index);
+	}
+
+	/**
+	 * Gets the number of messages in this batch.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return messages.size();
+	}
+
+	/**
+	 * Checks if this batch is empty.
+	 *
+	 * @return true, if is empty
+	 */
+	public boolean isEmpty() {
+		return messages.isEmpty();
+	}
+
+	/**
+	 * Create a deep copy of this batch, for handing it to a local receiver.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public JSONBatch deepCopy() {
+		final JSONBatch copy = new JSONBatch();
+		for (final JSONMessage message : messages) {
+			copy.add(message != null ? message.deepCopy() : null);
+		}
+		return copy;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<JSONMessage> iterator() {
+		return messages.iterator();
+	}
+
+	/**
+	 * Parse a JSON-RPC batch in a single streaming pass, see
+	 * {@link JSONMessage#parse(String)}.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the JSON batch, or null if the message is not a JSON array
+	 * @throws IOException
+	 *             Signals that the message isn't valid JSON.
+	 */
+	public static JSONBatch parse(final String message) throws IOException {
+		final JsonParser parser = JOM.getInstance().getFactory()
+				.createParser(message);
+		try {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				return null;
+			}
+			final JSONBatch result = new JSONBatch();
+			JsonToken token = parser.nextToken();
+			while (token != null && token != JsonToken.END_ARRAY) {
+				JSONMessage entry = null;
+				if (token == JsonToken.START_OBJECT) {
+					try {
+						entry = JSONMessage.parse(parser);
+					} catch (final JSONRPCException e) {
+						LOG.log(Level.FINE, "Invalid entry in batch", e);
+					}
+				} else {
+					parser.skipChildren();
+				}
+				result.add(entry);
+				token = parser.nextToken();
+			}
+			return result;
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Convert incoming message object to JSONBatch if possible. Returns null
+	 * if the message isn't a batch.
+	 *
+	 * @param msg
+	 *            the msg
+	 * @return the JSON batch
+	 */
+	public static JSONBatch jsonConvert(final Object msg) {
+		JSONBatch batch = null;
+		try {
+			if (msg instanceof JSONBatch) {
+				batch = (JSONBatch) msg;
+			} else if (msg instanceof String) {
+				final String message = (String) msg;
+				if (message.startsWith("[") || message.trim().startsWith("[")) {
+					batch = parse(message);
+				}
+			} else if (msg instanceof JsonNode && ((JsonNode) msg).isArray()) {
+				batch = new JSONBatch();
+				for (final JsonNode item : (JsonNode) msg) {
+					batch.add(item.isObject() ? JSONMessage.jsonConvert(item)
+							: null);
+				}
+			}
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING,
+					"Message triggered exception in trying to convert it to a JSONBatch.",
+					e);
+		}
+		return batch;
+	}
+
+	/**
+	 * Write this batch directly to the generator, invalid (null) entries are
+	 * left out.
+	 *
+	 * @param generator
+	 *            the generator
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void writeTo(final JsonGenerator generator) throws IOException {
+		generator.writeStartArray();
+		for (final JSONMessage message : messages) {
+			if (message != null) {
+				message.writeTo(generator);
+			}
+		}
+		generator.writeEndArray();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		try {
+			return JOM.writeToString(this);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+		return null;
+	}
+}
@@ -9,16 +9,23 @@ import java.io.Serializable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.almende.util.Copyable;
 import com.almende.util.jackson.JOM;
+import com.almende.util.jackson.JsonWritable;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * The Class JSONMessage.
  */
-public class JSONMessage implements Serializable {
+public class JSONMessage implements Serializable, JsonWritable,
+		Copyable<JSONMessage> {
 	private static final Logger		LOG					= Logger.getLogger(JSONMessage.class
 																.getName());
 	private static final long		serialVersionUID	= -3324436908445901707L;
@@ -190,6 +197,82 @@ public class JSONMessage implements Serializable {
 		return (json.has(RESULT) || json.has(ERROR));
 	}
 
+	/**
+	 * Parse a JSON-RPC message in a single streaming pass. The params of a
+	 * request are not converted to a tree, but kept as buffered tokens, which
+	 * are bound directly to the parameters of the called method.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the JSON message, or null if the message is not a JSON object
+	 * @throws IOException
+	 *             Signals that the message isn't valid JSON.
+	 * @throws JSONRPCException
+	 *             if the params of the message aren't an object.
+	 */
+	public static JSONMessage parse(final String message) throws IOException {
+		final JsonParser parser = JOM.getInstance().getFactory()
+				.createParser(message);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			return parse(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Parse a JSON-RPC message from the parser, which is positioned at the
+	 * start of the message object. After parsing, the parser is positioned at
+	 * the end of the message object.
+	 *
+	 * @param parser
+	 *            the parser
+	 * @return the JSON message
+	 * @throws IOException
+	 *             Signals that the message isn't valid JSON.
+	 * @throws JSONRPCException
+	 *             if the params of the message aren't an object.
+	 */
+	static JSONMessage parse(final JsonParser parser) throws IOException {
+		final ObjectMapper mapper = JOM.getInstance();
+		final ObjectNode fields = mapper.createObjectNode();
+		TokenBuffer params = null;
+		boolean invalidParams = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			if (PARAMS.equals(field) && token == JsonToken.START_OBJECT) {
+				params = new TokenBuffer(parser);
+				params.copyCurrentStructure(parser);
+			} else if (PARAMS.equals(field) && token != JsonToken.VALUE_NULL) {
+				// Skip the value, so the parser ends up behind the message:
+				parser.skipChildren();
+				invalidParams = true;
+			} else {
+				final JsonNode value = mapper.readTree(parser);
+				fields.set(field, value);
+			}
+		}
+		if (invalidParams) {
+			throw new JSONRPCException(JSONRPCException.CODE.INVALID_REQUEST,
+					"Member 'params' should be an object");
+		}
+		if (!isResponse(fields) && isRequest(fields)) {
+			return new JSONRequest(fields, params);
+		}
+		if (params != null) {
+			final JsonNode value = mapper.readTree(params.asParser());
+			fields.set(PARAMS, value);
+		}
+		if (isResponse(fields)) {
+			return new JSONResponse(fields);
+		}
+		return new JSONMessage(fields);
+	}
+
 	/**
 	 * Convert incoming message object to JSONMessage if possible. Returns null
 	 * if the message can't be interpreted as a JSONMessage.
@@ -213,8 +296,7 @@ public class JSONMessage implements Serializable {
 					final String message = (String) msg;
 					if (message.startsWith("{")
 							|| message.trim().startsWith("{")) {
-
-						json = (ObjectNode) JOM.getInstance().readTree(message);
+						jsonMsg = parse(message);
 					}
 				} else if (msg instanceof ObjectNode
 						|| (msg instanceof JsonNode && ((JsonNode) msg)
@@ -250,19 +332,71 @@ public class JSONMessage implements Serializable {
 	 */
 	@Override
 	public String toString() {
-		final ObjectMapper mapper = JOM.getInstance();
 		try {
-			ObjectNode tree = mapper.valueToTree(this);
-			if (tree.get(ID) == null || tree.get(ID).isNull()) {
-				tree.remove(ID);
-			}
-			if (tree.get(EXTRA) == null || tree.get(EXTRA).isNull()) {
-				tree.remove(EXTRA);
-			}
-			return tree.toString();
+			return JOM.writeToString(this);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
 		return null;
 	}
+
+	/**
+	 * Create a deep copy of this message, for handing it to a local receiver.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public JSONMessage deepCopy() {
+		final JSONMessage copy = new JSONMessage();
+		copyTo(copy);
+		return copy;
+	}
+
+	/**
+	 * Copy the id and the extra data of this message to the given copy.
+	 *
+	 * @param copy
+	 *            the copy
+	 */
+	protected void copyTo(final JSONMessage copy) {
+		copy.id = id != null ? id.deepCopy() : null;
+		copy.extra = extra != null ? extra.deepCopy() : null;
+	}
+
+	/**
+	 * Write this message directly to the generator, without building an
+	 * intermediate tree. Empty id and extra members are left out.
+	 *
+	 * @param generator
+	 *            the generator
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void writeTo(final JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField(JSONRPC, VERSION);
+		writeMembers(generator);
+		if (extra != null && !extra.isNull()) {
+			generator.writeFieldName(EXTRA);
+			generator.writeTree(extra);
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Write the id and the type specific members of this message.
+	 *
+	 * @param generator
+	 *            the generator
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void writeMembers(final JsonGenerator generator)
+			throws IOException {
+		if (id != null && !id.isNull()) {
+			generator.writeFieldName(ID);
+			generator.writeTree(id);
+		}
+	}
 }
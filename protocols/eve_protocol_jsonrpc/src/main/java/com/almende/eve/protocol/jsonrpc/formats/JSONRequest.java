@@ -20,10 +20,11 @@ import com.almende.util.callback.AsyncCallback;
 import com.almende.util.jackson.JOM;
 import com.almende.util.uuid.UUID;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * The Class JSONRequest.
@@ -39,7 +40,8 @@ public final class JSONRequest extends JSONMessage {
 	transient private AsyncCallback<?>	callback			= null;
 
 	private String						method				= null;
-	private ObjectNode					params				= null;
+	private volatile ObjectNode			params				= null;
+	transient private volatile TokenBuffer	paramsBuffer		= null;
 
 	/**
 	 * Instantiates a new jSON request.
@@ -70,6 +72,37 @@ public final class JSONRequest extends JSONMessage {
 		init(request);
 	}
 
+	/**
+	 * Instantiates a new JSON request from the result of the streaming parser,
+	 * see {@link JSONMessage#parse(String)}. The params are kept as buffered
+	 * tokens, until they are bound to the parameters of the called method or
+	 * requested through getParams().
+	 *
+	 * @param fields
+	 *            the other fields of the request
+	 * @param params
+	 *            the buffered params, may be null
+	 */
+	JSONRequest(final ObjectNode fields, final TokenBuffer params) {
+		super.init(fields);
+		final JsonNode method = fields.get(METHOD);
+		if (method == null || method.isNull()) {
+			throw new JSONRPCException(JSONRPCException.CODE.INVALID_REQUEST,
+					"Member 'method' missing in request");
+		}
+		if (!method.isValueNode()) {
+			throw new JSONRPCException(JSONRPCException.CODE.INVALID_REQUEST,
+					"Member 'method' should be a string");
+		}
+		setId(fields.get(ID));
+		setMethod(method.asText());
+		final JsonNode extra = fields.get(EXTRA);
+		if (extra != null && extra.isObject()) {
+			setExtra((ObjectNode) extra);
+		}
+		this.paramsBuffer = params;
+	}
+
 	/**
 	 * Instantiates a new JSON request.
 	 *
@@ -260,6 +293,7 @@ public final class JSONRequest extends JSONMessage {
 	 */
 	public void setParams(final ObjectNode params) {
 		this.params = params;
+		this.paramsBuffer = null;
 	}
 
 	/**
@@ -268,6 +302,7 @@ public final class JSONRequest extends JSONMessage {
 	 * @return the params
 	 */
 	public ObjectNode getParams() {
+		readParams();
 		if (this.params == null) {
 			return JOM.createObjectNode();
 		}
@@ -283,6 +318,7 @@ public final class JSONRequest extends JSONMessage {
 	 *            the value
 	 */
 	public void putParam(final String name, final Object value) {
+		readParams();
 		this.params.set(name, OBJECT.pojoNode(value));
 	}
 
@@ -294,6 +330,7 @@ public final class JSONRequest extends JSONMessage {
 	 * @return the param
 	 */
 	public Object getParam(final String name) {
+		readParams();
 		if (params.has(name)) {
 			return JOM.getInstance().convertValue(params.get(name),
 					Object.class);
@@ -309,9 +346,46 @@ public final class JSONRequest extends JSONMessage {
 	 * @return the object
 	 */
 	public Object hasParam(final String name) {
+		readParams();
 		return this.params.has(name);
 	}
 
+	/**
+	 * Gets the buffered params, if this request was created by the streaming
+	 * parser and its params haven't been read as ObjectNode yet.
+	 *
+	 * @return the params buffer, or null
+	 */
+	@JsonIgnore
+	public TokenBuffer getParamsBuffer() {
+		return paramsBuffer;
+	}
+
+	/**
+	 * Convert the buffered params, if any, to an ObjectNode. The request may
+	 * be handed to another thread, so the conversion is done only once, and
+	 * the params are set before the buffer is cleared.
+	 */
+	private void readParams() {
+		if (paramsBuffer == null) {
+			return;
+		}
+		synchronized (this) {
+			final TokenBuffer buffer = paramsBuffer;
+			if (buffer != null) {
+				try {
+					params = JOM.getInstance().readTree(buffer.asParser());
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Couldn't parse request params", e);
+					throw new JSONRPCException(
+							JSONRPCException.CODE.INVALID_REQUEST,
+							e.getLocalizedMessage(), e);
+				}
+				paramsBuffer = null;
+			}
+		}
+	}
+
 	/**
 	 * Gets the callback.
 	 *
@@ -333,6 +407,27 @@ public final class JSONRequest extends JSONMessage {
 		this.callback = callback;
 	}
 
+	/**
+	 * Create a deep copy of this request, for handing it to a local receiver.
+	 * Buffered params are only read, so the copy shares them. The callback
+	 * belongs to the sender, it isn't copied.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public JSONRequest deepCopy() {
+		final JSONRequest copy = new JSONRequest();
+		copyTo(copy);
+		copy.method = method;
+		final TokenBuffer buffer = paramsBuffer;
+		if (buffer != null) {
+			copy.paramsBuffer = buffer;
+		} else if (params != null) {
+			copy.params = params.deepCopy();
+		}
+		return copy;
+	}
+
 	@Override
 	@JsonIgnore
 	public boolean isRequest() {
@@ -345,19 +440,34 @@ public final class JSONRequest extends JSONMessage {
 	 */
 	@Override
 	public String toString() {
-		final ObjectMapper mapper = JOM.getInstance();
 		try {
-			ObjectNode tree = mapper.valueToTree(this);
-			if (tree.get(ID) == null || tree.get(ID).isNull()) {
-				tree.remove(ID);
-			}
-			if (tree.get(EXTRA) == null || tree.get(EXTRA).isNull()) {
-				tree.remove(EXTRA);
-			}
-			return tree.toString();
+			return JOM.writeToString(this);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
 		return null;
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.almende.eve.protocol.jsonrpc.formats.JSONMessage#writeMembers(com
+	 * .fasterxml.jackson.core.JsonGenerator)
+	 */
+	@Override
+	protected void writeMembers(final JsonGenerator generator)
+			throws IOException {
+		super.writeMembers(generator);
+		generator.writeStringField(METHOD, method);
+		generator.writeFieldName(PARAMS);
+		final TokenBuffer buffer = paramsBuffer;
+		if (buffer != null) {
+			buffer.serialize(generator);
+		} else if (params != null) {
+			generator.writeTree(params);
+		} else {
+			generator.writeStartObject();
+			generator.writeEndObject();
+		}
+	}
 }
\ No newline at end of file
@@ -10,9 +10,9 @@ import java.util.logging.Logger;
 
 import com.almende.util.jackson.JOM;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -188,6 +188,21 @@ public final class JSONResponse extends JSONMessage {
 		return error;
 	}
 
+	/**
+	 * Create a deep copy of this response, for handing it to a local
+	 * receiver. The error isn't changed after creation, the copy shares it.
+	 *
+	 * @return the copy
+	 */
+	@Override
+	public JSONResponse deepCopy() {
+		final JSONResponse copy = new JSONResponse();
+		copyTo(copy);
+		copy.result = result != null ? result.deepCopy() : null;
+		copy.error = error;
+		return copy;
+	}
+
 	@Override
 	@JsonIgnore
 	public boolean isResponse() {
@@ -200,21 +215,36 @@ public final class JSONResponse extends JSONMessage {
 	 */
 	@Override
 	public String toString() {
-		final ObjectMapper mapper = JOM.getInstance();
 		try {
-			final ObjectNode tree = mapper.valueToTree(this);
-			if (tree.get(ERROR) == null || tree.get(ERROR).isNull()) {
-				tree.remove(ERROR);
-			} else if (tree.get(RESULT) == null || tree.get(RESULT).isNull()) {
-				tree.remove(RESULT);
-			}
-			if (tree.get(EXTRA) == null || tree.get(EXTRA).isNull()) {
-				tree.remove(EXTRA);
-			}
-			return tree.toString();
+			return JOM.writeToString(this);
 		} catch (final Exception e) {
 			LOG.log(Level.SEVERE, "Failed to stringify response.", e);
 		}
 		return null;
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.almende.eve.protocol.jsonrpc.formats.JSONMessage#writeMembers(com
+	 * .fasterxml.jackson.core.JsonGenerator)
+	 */
+	@Override
+	protected void writeMembers(final JsonGenerator generator)
+			throws IOException {
+		// A response always carries its id, even if null.
+		generator.writeFieldName(ID);
+		generator.writeTree(getId());
+		if (error == null) {
+			generator.writeFieldName(RESULT);
+			generator.writeTree(result);
+		} else {
+			if (result != null && !result.isNull()) {
+				generator.writeFieldName(RESULT);
+				generator.writeTree(result);
+			}
+			generator.writeFieldName(ERROR);
+			generator.writeObject(error);
+		}
+	}
 }
\ No newline at end of file
@@ -145,6 +145,28 @@ public class ExampleAgent extends Agent implements ExampleAgentInterface {
 		super.call(url, method, params, callback);
 	}
 
+	/**
+	 * Public version of callBatched.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param url
+	 *            the url
+	 * @param method
+	 *            the method
+	 * @param params
+	 *            the params
+	 * @param callback
+	 *            the callback
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public <T> void pubSendBatched(final URI url, final String method,
+			final ObjectNode params, final AsyncCallback<T> callback)
+			throws IOException {
+		super.callBatched(url, method, params, callback);
+	}
+
 	/**
 	 * Public version of sendSync.
 	 *
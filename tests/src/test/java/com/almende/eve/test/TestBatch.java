@@ -0,0 +1,118 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.agent.AgentConfig;
+import com.almende.eve.agent.ExampleAgent;
+import com.almende.eve.protocol.auth.DefaultAuthorizor;
+import com.almende.eve.protocol.jsonrpc.JSONRpc;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.eve.protocol.jsonrpc.formats.Params;
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The Class TestBatch.
+ */
+public class TestBatch extends TestCase {
+	private static final Logger	LOG	= Logger.getLogger(TestBatch.class
+											.getName());
+
+	/**
+	 * Test parsing and invoking a JSON-RPC batch.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testInvoke() throws IOException {
+		final String request = "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"helloWorld\",\"params\":{\"message\":\"one\"}},"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"helloWorld\",\"params\":{\"message\":\"notification\"}},"
+				+ "1,"
+				+ "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"helloWorld\",\"params\":{\"message\":\"two\"}}]";
+		final JSONBatch batch = JSONBatch.parse(request);
+		assertEquals(4, batch.size());
+		assertTrue(batch.get(0) instanceof JSONRequest);
+		assertNull(batch.get(2));
+
+		final ExampleAgent agent = new ExampleAgent();
+		final JsonNode result = JOM.getInstance().readTree(
+				JSONRpc.invoke(agent, request, new DefaultAuthorizor()));
+		assertTrue(result.isArray());
+		assertEquals(3, result.size());
+		assertEquals("You said:one", result.get(0).get("result").asText());
+		assertEquals(-32600, result.get(1).get("error").get("code").asInt());
+		assertEquals("You said:two", result.get(2).get("result").asText());
+
+		final JsonNode empty = JOM.getInstance().readTree(
+				JSONRpc.invoke(agent, "[]", new DefaultAuthorizor()));
+		assertEquals(-32600, empty.get("error").get("code").asInt());
+	}
+
+	/**
+	 * Test batched calls between agents.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testBatchedCalls() throws Exception {
+		final AgentConfig config = AgentConfig.create("batchReceiver");
+		final ExampleAgent receiver = new ExampleAgent();
+		receiver.setConfig(config);
+
+		final AgentConfig senderConfig = AgentConfig.create("batchSender");
+		senderConfig.setBatchSize(5);
+		senderConfig.setBatchDelay(50);
+		final ExampleAgent sender = new ExampleAgent();
+		sender.setConfig(senderConfig);
+
+		final int nofCalls = 12;
+		final CountDownLatch latch = new CountDownLatch(nofCalls);
+		final AtomicInteger correct = new AtomicInteger(0);
+		for (int i = 0; i < nofCalls; i++) {
+			final String message = "Hello " + i;
+			final Params params = new Params();
+			params.add("message", message);
+			sender.pubSendBatched(URI.create("local:batchReceiver"),
+					"helloWorld", params, new AsyncCallback<String>() {
+
+						@Override
+						public void onSuccess(final String result) {
+							if (("You said:" + message).equals(result)) {
+								correct.incrementAndGet();
+							}
+							latch.countDown();
+						}
+
+						@Override
+						public void onFailure(final Exception exception) {
+							LOG.log(Level.WARNING, "Batched call failed",
+									exception);
+							latch.countDown();
+						}
+					});
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(nofCalls, correct.get());
+
+		sender.destroy(true);
+		receiver.destroy(true);
+	}
+}
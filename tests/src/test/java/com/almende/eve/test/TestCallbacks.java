@@ -0,0 +1,105 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.AsyncCallbackStore;
+import com.almende.util.callback.TimeoutService;
+
+/**
+ * The Class TestCallbacks.
+ */
+public class TestCallbacks extends TestCase {
+	private static final Logger	LOG	= Logger.getLogger(TestCallbacks.class
+											.getName());
+
+	/**
+	 * Test callback timeouts.
+	 */
+	@Test
+	public void testTimeouts() {
+		final int nofCallbacks = 20000;
+		final AtomicInteger timeouts = new AtomicInteger(0);
+		final AtomicInteger others = new AtomicInteger(0);
+		final AsyncCallbackStore<String> store = new AsyncCallbackStore<String>(
+				"testTimeouts");
+		store.setTimeout(1);
+
+		for (int i = 0; i < nofCallbacks; i++) {
+			store.put(i, "Test callback " + i, new AsyncCallback<String>() {
+				@Override
+				public void onSuccess(String result) {
+					others.incrementAndGet();
+				}
+
+				@Override
+				public void onFailure(Exception exception) {
+					if (exception instanceof TimeoutException) {
+						timeouts.incrementAndGet();
+					} else {
+						others.incrementAndGet();
+					}
+				}
+			});
+		}
+		try {
+			store.put(0, "Duplicate", null);
+			fail("Duplicate id should not be accepted");
+		} catch (IllegalStateException e) {}
+
+		for (int i = 0; i < nofCallbacks; i += 2) {
+			assertNotNull(store.get(i));
+		}
+		assertNull(store.get(0));
+		try {
+			Thread.sleep(2500);
+		} catch (InterruptedException e) {}
+
+		LOG.warning(timeouts.get() + " callbacks timed out.");
+		assertEquals(nofCallbacks / 2, timeouts.get());
+		assertEquals(0, others.get());
+		assertNull(store.get(1));
+	}
+
+	/**
+	 * Test the pending metric and closing a store.
+	 */
+	@Test
+	public void testClose() {
+		final AtomicInteger cancelled = new AtomicInteger(0);
+		final AsyncCallbackStore<String> store = new AsyncCallbackStore<String>(
+				"testClose");
+		for (int i = 0; i < 100; i++) {
+			store.put(i, "Test callback " + i, new AsyncCallback<String>() {
+				@Override
+				public void onSuccess(String result) {}
+
+				@Override
+				public void onFailure(Exception exception) {
+					if (exception instanceof CancellationException) {
+						cancelled.incrementAndGet();
+					}
+				}
+			});
+		}
+		assertEquals(100, store.getPendingCount());
+		assertEquals(Integer.valueOf(100), TimeoutService.getPendingCounts()
+				.get("testClose"));
+
+		store.close();
+		assertEquals(100, cancelled.get());
+		assertEquals(0, store.getPendingCount());
+		assertFalse(TimeoutService.getStores().contains(store));
+	}
+}
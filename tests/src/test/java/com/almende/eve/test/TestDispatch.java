@@ -0,0 +1,475 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.protocol.auth.Authorizor;
+import com.almende.eve.protocol.jsonrpc.JSONRpc;
+import com.almende.eve.protocol.jsonrpc.annotation.Access;
+import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
+import com.almende.eve.protocol.jsonrpc.annotation.Name;
+import com.almende.eve.protocol.jsonrpc.annotation.Namespace;
+import com.almende.eve.protocol.jsonrpc.annotation.Optional;
+import com.almende.eve.protocol.jsonrpc.annotation.RequestId;
+import com.almende.eve.protocol.jsonrpc.annotation.Sender;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class TestDispatch, tests the compiled JSON-RPC dispatch: access
+ * checks, namespaces and parameter binding.
+ */
+public class TestDispatch extends TestCase {
+	private static final URI	ADMIN		= URI.create("local:admin");
+	private static final URI	SELF		= URI.create("local:self");
+	private static final URI	OTHER		= URI.create("local:other");
+	private static final int	NOT_FOUND	= -32601;
+	private static final int	INTERNAL	= -32603;
+
+	/**
+	 * Test that the access decision of a cached method is still checked
+	 * against the sender of each request.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testAccess() throws Exception {
+		final Guarded destination = new Guarded();
+		final TagAuthorizor auth = new TagAuthorizor();
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals("open", invoke(destination, "open", OTHER, auth)
+					.get("result").asText());
+
+			assertEquals("secret", invoke(destination, "secret", ADMIN, auth)
+					.get("result").asText());
+			assertNotFound(invoke(destination, "secret", OTHER, auth));
+
+			assertEquals("self", invoke(destination, "self", SELF, auth)
+					.get("result").asText());
+			assertNotFound(invoke(destination, "self", OTHER, auth));
+
+			assertNotFound(invoke(destination, "plain", SELF, auth));
+			assertNotFound(invoke(destination, "unnamed", SELF, auth));
+			assertNotFound(invoke(destination, "unknown", SELF, auth));
+		}
+		// The tag is passed on each call of the private method.
+		assertEquals(4, auth.tags.size());
+		for (final String tag : auth.tags) {
+			assertEquals("admin", tag);
+		}
+
+		// Without authorizor, only public methods are available.
+		assertEquals("open", invoke(destination, "open", OTHER, null)
+				.get("result").asText());
+		assertNotFound(invoke(destination, "secret", ADMIN, null));
+		assertNotFound(invoke(destination, "self", SELF, null));
+	}
+
+	/**
+	 * Test calling into a namespace whose getter returns objects of different
+	 * classes over time.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testNamespaceTarget() throws Exception {
+		final Switching destination = new Switching();
+
+		destination.target = new First();
+		assertEquals("first", invoke(destination, "ns.hello", null, null)
+				.get("result").asText());
+
+		destination.target = new Second();
+		assertEquals("second", invoke(destination, "ns.hello", null, null)
+				.get("result").asText());
+		// Only available in the second class
+		assertEquals("extra", invoke(destination, "ns.extra", null, null)
+				.get("result").asText());
+
+		destination.target = new First();
+		assertEquals("first", invoke(destination, "ns.hello", null, null)
+				.get("result").asText());
+		assertNotFound(invoke(destination, "ns.extra", null, null));
+
+		destination.target = null;
+		assertNotFound(invoke(destination, "ns.hello", null, null));
+	}
+
+	/**
+	 * Test binding of the common parameter types.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testTypes() throws Exception {
+		final Params destination = new Params();
+
+		assertEquals("1,2,3.5,true,local:x,s", call(destination, "types",
+				"{\"i\":1,\"l\":2,\"d\":3.5,\"b\":true,\"u\":\"local:x\","
+						+ "\"s\":\"s\"}").get("result").asText());
+		// Values outside the fast paths are converted by Jackson
+		assertEquals("1,8589934592,3.0,false,local:x,s", call(destination,
+				"types", "{\"i\":\"1\",\"l\":8589934592,\"d\":3,"
+						+ "\"b\":\"false\",\"u\":\"local:x\",\"s\":\"s\","
+						+ "\"unknown\":[1,{\"a\":2}]}").get("result").asText());
+		// Order of the params doesn't matter
+		assertEquals("1,2,3.5,true,local:x,s", call(destination, "types",
+				"{\"s\":\"s\",\"u\":\"local:x\",\"b\":true,\"d\":3.5,"
+						+ "\"l\":2,\"i\":1}").get("result").asText());
+	}
+
+	/**
+	 * Test null and missing values of optional parameters.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testOptional() throws Exception {
+		final Params destination = new Params();
+
+		assertEquals("null,null,null,null,null",
+				call(destination, "optional", "{}").get("result").asText());
+		assertEquals("null,null,null,null,null", call(destination,
+				"optional", "{\"i\":null,\"l\":null,\"d\":null,"
+						+ "\"b\":null,\"u\":null}").get("result").asText());
+		assertEquals("1,null,2.0,null,local:x", call(destination,
+				"optional", "{\"i\":1,\"d\":2,\"u\":\"local:x\"}")
+				.get("result").asText());
+
+		// Optional primitives can't be bound when missing
+		assertError(call(destination, "optionalPrimitive", "{}"));
+		assertEquals(3, call(destination, "optionalPrimitive", "{\"i\":3}")
+				.get("result").asInt());
+	}
+
+	/**
+	 * Test injection of the sender and the request id.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSystemParams() throws Exception {
+		final Params destination = new Params();
+
+		final JsonNode result = call(destination, "system", "{\"n\":5}")
+				.get("result");
+		assertEquals(ADMIN.toString(), result.get("sender").asText());
+		assertEquals(ADMIN.toString(), result.get("senderStr").asText());
+		assertEquals(1, result.get("id").asInt());
+		assertEquals(5, result.get("n").asInt());
+	}
+
+	/**
+	 * Test values which don't match the parameter types.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testMismatch() throws Exception {
+		final Params destination = new Params();
+		final String valid = "\"l\":2,\"d\":3.5,\"b\":true,"
+				+ "\"u\":\"local:x\",\"s\":\"s\"";
+
+		assertError(call(destination, "types", "{\"i\":\"abc\"," + valid
+				+ "}"));
+		assertError(call(destination, "types", "{\"i\":{\"a\":1}," + valid
+				+ "}"));
+		assertError(call(destination, "types", "{\"i\":1," + valid
+				.replace("3.5", "\"x\"") + "}"));
+		assertError(call(destination, "types", "{\"i\":1," + valid
+				.replace("true", "[true]") + "}"));
+		assertError(call(destination, "types", "{\"i\":1," + valid
+				.replace("local:x", "not a uri") + "}"));
+		// Required parameter missing
+		assertError(call(destination, "types", "{" + valid + "}"));
+		// Required primitive null
+		assertError(call(destination, "types", "{\"i\":null," + valid + "}"));
+	}
+
+	/**
+	 * Invoke the method twice, once with buffered params from the streaming
+	 * parser and once with the params as tree, and check both give the same
+	 * response.
+	 */
+	private static JsonNode call(final Object destination,
+			final String method, final String params) throws Exception {
+		final String request = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\""
+				+ method + "\",\"params\":" + params + "}";
+		final TagAuthorizor auth = new TagAuthorizor();
+		final JsonNode buffered = JOM.getInstance().readTree(
+				JSONRpc.invoke(destination, request, ADMIN, auth));
+		final JsonNode tree = JOM.getInstance().readTree(
+				JSONRpc.invoke(destination,
+						new JSONRequest(JOM.getInstance().readTree(request)),
+						ADMIN, auth).toString());
+		assertEquals(buffered.get("result"), tree.get("result"));
+		assertEquals(buffered.has("error"), tree.has("error"));
+		return buffered;
+	}
+
+	private static void assertError(final JsonNode response) {
+		assertFalse(response.has("result"));
+		assertEquals(INTERNAL, response.get("error").get("code").asInt());
+	}
+
+	private static JsonNode invoke(final Object destination,
+			final String method, final URI sender, final Authorizor auth)
+			throws Exception {
+		return JOM.getInstance().readTree(
+				JSONRpc.invoke(destination, "{\"jsonrpc\":\"2.0\",\"id\":1,"
+						+ "\"method\":\"" + method + "\",\"params\":{}}",
+						sender, auth));
+	}
+
+	private static void assertNotFound(final JsonNode response) {
+		assertFalse(response.has("result"));
+		assertEquals(NOT_FOUND, response.get("error").get("code").asInt());
+	}
+
+	/**
+	 * Authorizor which only allows the admin to call private methods, and
+	 * remembers the tags it was asked for.
+	 */
+	public static class TagAuthorizor implements Authorizor {
+		private final List<String>	tags	= new ArrayList<String>();
+
+		@Override
+		public synchronized boolean onAccess(final URI senderUrl,
+				final String functionTag) {
+			tags.add(functionTag);
+			return ADMIN.equals(senderUrl);
+		}
+
+		@Override
+		public boolean onAccess(final URI senderUrl) {
+			return ADMIN.equals(senderUrl);
+		}
+
+		@Override
+		public boolean isSelf(final URI senderUrl) {
+			return SELF.equals(senderUrl);
+		}
+	}
+
+	/**
+	 * Destination with methods of each access type.
+	 */
+	public static class Guarded {
+
+		/**
+		 * Open.
+		 *
+		 * @return the string
+		 */
+		@Access(AccessType.PUBLIC)
+		public String open() {
+			return "open";
+		}
+
+		/**
+		 * Secret.
+		 *
+		 * @return the string
+		 */
+		@Access(value = AccessType.PRIVATE, tag = "admin")
+		public String secret() {
+			return "secret";
+		}
+
+		/**
+		 * Self.
+		 *
+		 * @return the string
+		 */
+		@Access(AccessType.SELF)
+		public String self() {
+			return "self";
+		}
+
+		/**
+		 * Plain, without access annotation.
+		 *
+		 * @return the string
+		 */
+		public String plain() {
+			return "plain";
+		}
+
+		/**
+		 * Unnamed, with a parameter without name.
+		 *
+		 * @param value
+		 *            the value
+		 * @return the string
+		 */
+		@Access(AccessType.PUBLIC)
+		public String unnamed(final String value) {
+			return value;
+		}
+	}
+
+	/**
+	 * Destination with methods for each kind of parameter.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class Params {
+
+		/**
+		 * Types.
+		 *
+		 * @param i
+		 *            the i
+		 * @param l
+		 *            the l
+		 * @param d
+		 *            the d
+		 * @param b
+		 *            the b
+		 * @param u
+		 *            the u
+		 * @param s
+		 *            the s
+		 * @return the string
+		 */
+		public String types(@Name("i") final int i, @Name("l") final long l,
+				@Name("d") final double d, @Name("b") final boolean b,
+				@Name("u") final URI u, @Name("s") final String s) {
+			return i + "," + l + "," + d + "," + b + "," + u + "," + s;
+		}
+
+		/**
+		 * Optional.
+		 *
+		 * @param i
+		 *            the i
+		 * @param l
+		 *            the l
+		 * @param d
+		 *            the d
+		 * @param b
+		 *            the b
+		 * @param u
+		 *            the u
+		 * @return the string
+		 */
+		public String optional(@Optional @Name("i") final Integer i,
+				@Optional @Name("l") final Long l,
+				@Optional @Name("d") final Double d,
+				@Optional @Name("b") final Boolean b,
+				@Optional @Name("u") final URI u) {
+			return i + "," + l + "," + d + "," + b + "," + u;
+		}
+
+		/**
+		 * Optional primitive.
+		 *
+		 * @param i
+		 *            the i
+		 * @return the int
+		 */
+		public int optionalPrimitive(@Optional @Name("i") final int i) {
+			return i;
+		}
+
+		/**
+		 * System.
+		 *
+		 * @param sender
+		 *            the sender
+		 * @param n
+		 *            the n
+		 * @param senderStr
+		 *            the sender str
+		 * @param id
+		 *            the id
+		 * @return the object node
+		 */
+		public ObjectNode system(@Sender final URI sender,
+				@Name("n") final int n, @Sender final String senderStr,
+				@RequestId final JsonNode id) {
+			final ObjectNode result = JOM.createObjectNode();
+			result.put("sender", sender.toString());
+			result.put("n", n);
+			result.put("senderStr", senderStr);
+			result.set("id", id);
+			return result;
+		}
+	}
+
+	/**
+	 * Destination with a namespace, whose class changes.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class Switching {
+		private Object	target	= null;
+
+		/**
+		 * Gets the target.
+		 *
+		 * @return the target
+		 */
+		@Namespace("ns")
+		public Object getTarget() {
+			return target;
+		}
+	}
+
+	/**
+	 * The first namespace class.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class First {
+
+		/**
+		 * Hello.
+		 *
+		 * @return the string
+		 */
+		public String hello() {
+			return "first";
+		}
+	}
+
+	/**
+	 * The second namespace class, unrelated to the first.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class Second {
+
+		/**
+		 * Hello.
+		 *
+		 * @return the string
+		 */
+		public String hello() {
+			return "second";
+		}
+
+		/**
+		 * Extra.
+		 *
+		 * @return the string
+		 */
+		public String extra() {
+			return "extra";
+		}
+	}
+}
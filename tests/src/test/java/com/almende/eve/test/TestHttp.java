@@ -6,22 +6,42 @@ package com.almende.eve.test;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import junit.framework.TestCase;
 
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.junit.Test;
 
 import com.almende.eve.agent.AgentBuilder;
 import com.almende.eve.agent.AgentConfig;
 import com.almende.eve.agent.ExampleAgent;
 import com.almende.eve.capabilities.handler.Handler;
+import com.almende.eve.protocol.jsonrpc.formats.Params;
 import com.almende.eve.transport.Receiver;
 import com.almende.eve.transport.Transport;
 import com.almende.eve.transport.TransportBuilder;
+import com.almende.eve.transport.envelop.JSONEnvelop;
+import com.almende.eve.transport.http.EveServlet;
+import com.almende.eve.transport.http.HandshakeCache;
 import com.almende.eve.transport.http.HttpTransportConfig;
+import com.almende.eve.transport.http.embed.JettyLauncher;
+import com.almende.util.TypeUtil;
 import com.almende.util.URIUtil;
+import com.almende.util.callback.AsyncCallback;
 import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
@@ -55,6 +75,254 @@ public class TestHttp extends TestCase {
 				"Hello World", null, null);
 	}
 
+	/**
+	 * Test the non-blocking http client: a call between two agents gets its
+	 * result, a call to an unknown agent comes back as failure through the
+	 * callback.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testAsyncHttp() throws Exception {
+		final HttpTransportConfig config = HttpTransportConfig.create();
+		config.setServletUrl(getServer() + "/asyncclient/");
+		config.setId("asyncAgent");
+		config.setAsync(true);
+		config.setIoThreads(1);
+
+		config.setServletLauncher("JettyLauncher");
+		final ObjectNode jettyParms = JOM.createObjectNode();
+		jettyParms.put("port", 8080);
+		config.set("jetty", jettyParms);
+
+		final Transport transport = new TransportBuilder().withConfig(config)
+				.withHandle(new myReceiver()).build();
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		transport.send(URIUtil.create(getServer() + "/asyncclient/unknown"),
+				"Hello World", null, new AsyncCallback<Void>() {
+
+					@Override
+					public void onSuccess(final Void result) {}
+
+					@Override
+					public void onFailure(final Exception exception) {
+						latch.countDown();
+					}
+				});
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+		final HttpTransportConfig transportConfig = createConfig(getServer()
+				+ "/asyncclient/");
+		transportConfig.setAsync(true);
+		transportConfig.setIoThreads(1);
+
+		final ExampleAgent receiver = createAgent("asyncClientReceiver",
+				transportConfig);
+		final ExampleAgent sender = createAgent("asyncClientSender",
+				transportConfig);
+
+		final Params params = new Params();
+		params.add("message", "async client");
+		final String result = sender.pubSendSync(
+				URIUtil.create(getServer() + "/asyncclient/asyncClientReceiver"),
+				"helloWorld", params, new TypeUtil<String>() {});
+		assertEquals("You said:async client", result);
+
+		sender.destroy(true);
+		receiver.destroy(true);
+	}
+
+	/**
+	 * Test inbound calls through the asynchronous servlet.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testAsyncServlet() throws Exception {
+		final HttpTransportConfig transportConfig = createConfig(getServer()
+				+ "/async/");
+		transportConfig.setAsyncServlet(true);
+
+		final ExampleAgent receiver = createAgent("asyncReceiver",
+				transportConfig);
+		final ExampleAgent sender = createAgent("asyncSender", transportConfig);
+
+		final Params params = new Params();
+		params.add("message", "async");
+		final String result = sender.pubSendSync(
+				URIUtil.create(getServer() + "/async/asyncReceiver"),
+				"helloWorld", params, new TypeUtil<String>() {});
+		assertEquals("You said:async", result);
+
+		sender.destroy(true);
+		receiver.destroy(true);
+	}
+
+	/**
+	 * Test coalescing of messages through the multiplexed endpoint.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testMultiplex() throws Exception {
+		final HttpTransportConfig transportConfig = createConfig(getServer()
+				+ "/multiplex/");
+		transportConfig.setMultiplex(true);
+		transportConfig.setMultiplexSize(5);
+		transportConfig.setMultiplexDelay(50);
+
+		final ExampleAgent receiver = createAgent("muxReceiver",
+				transportConfig);
+		final ExampleAgent sender = createAgent("muxSender", transportConfig);
+
+		final int nofCalls = 12;
+		final CountDownLatch latch = new CountDownLatch(nofCalls);
+		final AtomicInteger correct = new AtomicInteger(0);
+		for (int i = 0; i < nofCalls; i++) {
+			final String message = "Hello " + i;
+			final Params params = new Params();
+			params.add("message", message);
+			sender.pubSend(
+					URIUtil.create(getServer() + "/multiplex/muxReceiver"),
+					"helloWorld", params, new AsyncCallback<String>() {
+
+						@Override
+						public void onSuccess(final String result) {
+							if (("You said:" + message).equals(result)) {
+								correct.incrementAndGet();
+							}
+							latch.countDown();
+						}
+
+						@Override
+						public void onFailure(final Exception exception) {
+							latch.countDown();
+						}
+					});
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(nofCalls, correct.get());
+
+		sender.destroy(true);
+		receiver.destroy(true);
+	}
+
+	/**
+	 * Test that multiplexed envelops with another sender than the posting
+	 * transport are dropped.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testMultiplexForgedSender() throws Exception {
+		final HttpTransportConfig config = HttpTransportConfig.create();
+		config.setServletUrl(getServer() + "/forged/");
+		config.setId("forgeReceiver");
+		config.setServletLauncher("JettyLauncher");
+		final ObjectNode jettyParms = JOM.createObjectNode();
+		jettyParms.put("port", 8080);
+		config.set("jetty", jettyParms);
+
+		final List<String> senders = Collections
+				.synchronizedList(new ArrayList<String>());
+		new TransportBuilder().withConfig(config)
+				.withHandle(new myReceiver() {
+					@Override
+					public void receive(final Object msg, final URI senderUrl,
+							final String tag) {
+						senders.add(senderUrl.toASCIIString());
+					}
+				}).build();
+
+		final String to = getServer() + "/forged/forgeReceiver";
+		final String sender = getServer() + "/forged/honest";
+		final ArrayNode envelops = JOM.createArrayNode();
+		envelops.add(JSONEnvelop.wrapAsObjectNode(sender, to, "Hello"));
+		envelops.add(JSONEnvelop.wrapAsObjectNode(
+				"http://localhost:1/agents/victim", to, "Forged"));
+
+		final HttpPost post = new HttpPost(getServer() + "/forged/");
+		post.addHeader("X-Eve-SenderUrl", sender);
+		post.addHeader(EveServlet.MULTIPLEXED, "true");
+		post.setEntity(new StringEntity(envelops.toString(), "UTF-8"));
+		final CloseableHttpClient client = HttpClients.createDefault();
+		try {
+			final HttpResponse response = client.execute(post);
+			assertEquals(200, response.getStatusLine().getStatusCode());
+		} finally {
+			client.close();
+		}
+		assertEquals(Arrays.asList(sender), senders);
+	}
+
+	/**
+	 * Test calls with authentication, through the handshake. The concurrent
+	 * first calls share a single handshake, later calls use the verified
+	 * token.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testHandshake() throws Exception {
+		// Another host name than the other tests, so the session cookie of
+		// those tests isn't sent along, and the calls need a handshake:
+		final String server = getServer().replace("localhost", "127.0.0.1");
+		final HttpTransportConfig transportConfig = createConfig(server
+				+ "/auth/");
+		transportConfig.setDoAuthentication(true);
+
+		final ExampleAgent receiver = createAgent("authReceiver",
+				transportConfig);
+		final ExampleAgent sender = createAgent("authSender", transportConfig);
+		final long handshakes = HandshakeCache.getCheckCount();
+
+		final int nofCalls = 10;
+		final CountDownLatch latch = new CountDownLatch(nofCalls);
+		final AtomicInteger correct = new AtomicInteger(0);
+		for (int i = 0; i < nofCalls; i++) {
+			final String message = "concurrent" + i;
+			final Params params = new Params();
+			params.add("message", message);
+			sender.pubSend(URIUtil.create(server + "/auth/authReceiver"),
+					"helloWorld", params, new AsyncCallback<String>() {
+
+						@Override
+						public void onSuccess(final String result) {
+							if (("You said:" + message).equals(result)) {
+								correct.incrementAndGet();
+							}
+							latch.countDown();
+						}
+
+						@Override
+						public void onFailure(final Exception exception) {
+							latch.countDown();
+						}
+					});
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(nofCalls, correct.get());
+
+		for (int i = 0; i < 3; i++) {
+			final Params params = new Params();
+			params.add("message", "auth" + i);
+			final String result = sender.pubSendSync(
+					URIUtil.create(server + "/auth/authReceiver"),
+					"helloWorld", params, new TypeUtil<String>() {});
+			assertEquals("You said:auth" + i, result);
+		}
+		assertEquals(1, HandshakeCache.getCheckCount() - handshakes);
+
+		sender.destroy(true);
+		receiver.destroy(true);
+	}
+
 	/**
 	 * Test manual http.
 	 *
@@ -88,6 +356,56 @@ public class TestHttp extends TestCase {
 		}
 	}
 
+	/**
+	 * Creates the transport config of a servlet on the embedded Jetty server,
+	 * without the local shortcut, so calls between its agents go over HTTP.
+	 * 
+	 * @param servletUrl
+	 *            the servlet url
+	 * @return the http transport config
+	 */
+	private static HttpTransportConfig createConfig(final String servletUrl) {
+		final HttpTransportConfig transportConfig = HttpTransportConfig
+				.create();
+		transportConfig.setServletUrl(servletUrl);
+		transportConfig.setDoShortcut(false);
+		transportConfig.setServletLauncher("JettyLauncher");
+		final ObjectNode jettyParms = JOM.createObjectNode();
+		jettyParms.put("port", 8080);
+		transportConfig.set("jetty", jettyParms);
+		return transportConfig;
+	}
+
+	/**
+	 * Creates an example agent with the given transport config.
+	 * 
+	 * @param id
+	 *            the id
+	 * @param transportConfig
+	 *            the transport config
+	 * @return the example agent
+	 */
+	private static ExampleAgent createAgent(final String id,
+			final HttpTransportConfig transportConfig) {
+		final AgentConfig agentConf = AgentConfig.create(id);
+		agentConf.addTransport(transportConfig);
+		final ExampleAgent agent = new ExampleAgent();
+		agent.setConfig(agentConf);
+		return agent;
+	}
+
+	/**
+	 * Gets the url of the embedded Jetty server. The server is shared by all
+	 * tests in this JVM, it listens on the port of the first test that
+	 * started it; if it isn't running yet, the tests here start it on 8080.
+	 * 
+	 * @return the server url
+	 */
+	private static String getServer() {
+		final int port = JettyLauncher.getPort();
+		return "http://localhost:" + (port > 0 ? port : 8080);
+	}
+
 	/**
 	 * The Class myReceiver.
 	 */
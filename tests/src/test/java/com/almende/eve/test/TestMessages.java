@@ -0,0 +1,132 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRPCException;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.eve.protocol.jsonrpc.formats.JSONResponse;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class TestMessages.
+ */
+public class TestMessages extends TestCase {
+
+	/**
+	 * Test the direct serialization of requests and responses.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSerialization() throws Exception {
+		final ObjectNode params = JOM.createObjectNode();
+		params.put("message", "Hello éè world");
+		params.put("number", 42);
+
+		final JSONRequest notification = new JSONRequest("test", params);
+		JsonNode tree = JOM.getInstance().readTree(notification.toString());
+		assertEquals("2.0", tree.get("jsonrpc").asText());
+		assertEquals("test", tree.get("method").asText());
+		assertEquals(params, tree.get("params"));
+		assertFalse(tree.has("id"));
+		assertFalse(tree.has("extra"));
+
+		final JSONRequest request = new JSONRequest("test", null, null);
+		request.setId(JOM.getInstance().getNodeFactory().textNode("1"));
+		tree = JOM.getInstance().readTree(request.toString());
+		assertEquals("1", tree.get("id").asText());
+		assertEquals(JOM.createObjectNode(), tree.get("params"));
+
+		final JSONResponse response = new JSONResponse(request.getId(), null);
+		tree = JOM.getInstance().readTree(response.toString());
+		assertTrue(tree.has("result"));
+		assertTrue(tree.get("result").isNull());
+		assertFalse(tree.has("error"));
+
+		final JSONResponse error = new JSONResponse(new JSONRPCException(
+				JSONRPCException.CODE.METHOD_NOT_FOUND, "Not found"));
+		tree = JOM.getInstance().readTree(error.toString());
+		assertTrue(tree.has("id"));
+		assertFalse(tree.has("result"));
+		assertEquals(-32601, tree.get("error").get("code").asInt());
+
+		final ByteBuffer buffer = JOM.writeToBuffer(notification);
+		assertEquals(notification.toString(), Charset.forName("UTF-8")
+				.decode(buffer).toString());
+	}
+
+	/**
+	 * Test the streaming parser.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testParse() throws Exception {
+		final String text = "{\"id\":1,\"method\":\"test\",\"params\":{\"a\":[1,2],\"b\":null},\"jsonrpc\":\"2.0\"}";
+		final JSONMessage message = JSONMessage.parse(text);
+		assertTrue(message instanceof JSONRequest);
+		final JSONRequest request = (JSONRequest) message;
+		assertEquals("test", request.getMethod());
+		assertEquals(1, request.getId().asInt());
+		assertNotNull(request.getParamsBuffer());
+
+		// Buffered params are written as they are.
+		assertEquals(JOM.getInstance().readTree(text), JOM.getInstance()
+				.readTree(request.toString()));
+
+		// Reading the params converts the buffer.
+		assertEquals(2, request.getParams().get("a").size());
+		assertNull(request.getParamsBuffer());
+
+		final JSONMessage response = JSONMessage
+				.parse("{\"id\":1,\"result\":{\"a\":1},\"jsonrpc\":\"2.0\"}");
+		assertTrue(response instanceof JSONResponse);
+		assertEquals(1, ((JSONResponse) response).getResult().get("a")
+				.asInt());
+
+		assertNull(JSONMessage.parse("[1,2]"));
+	}
+
+	/**
+	 * Test that params, which aren't an object, are rejected.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testInvalidParams() throws Exception {
+		try {
+			JSONMessage
+					.parse("{\"id\":1,\"method\":\"test\",\"params\":[1,2],\"jsonrpc\":\"2.0\"}");
+			fail("Array params should be rejected");
+		} catch (final JSONRPCException e) {
+			assertEquals(-32600, e.getCode());
+		}
+
+		final JSONMessage message = JSONMessage
+				.parse("{\"id\":1,\"method\":\"test\",\"params\":null,\"jsonrpc\":\"2.0\"}");
+		assertEquals(0, ((JSONRequest) message).getParams().size());
+
+		// Only the invalid entry of a batch is rejected:
+		final JSONBatch batch = JSONBatch
+				.parse("[{\"id\":1,\"method\":\"test\",\"params\":[1,{\"a\":2}]},{\"id\":2,\"method\":\"test\",\"params\":{}}]");
+		assertEquals(2, batch.size());
+		assertNull(batch.get(0));
+		assertEquals(2, batch.get(1).getId().asInt());
+	}
+}
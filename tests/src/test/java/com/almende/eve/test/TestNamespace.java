@@ -0,0 +1,106 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.protocol.auth.DefaultAuthorizor;
+import com.almende.eve.protocol.jsonrpc.JSONRpc;
+import com.almende.eve.protocol.jsonrpc.annotation.Access;
+import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
+import com.almende.eve.protocol.jsonrpc.annotation.Namespace;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The Class TestNamespace.
+ */
+public class TestNamespace extends TestCase {
+
+	/**
+	 * Test calling into a namespace, whose getter returned null on first use.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testLazyNamespace() throws Exception {
+		final Lazy destination = new Lazy();
+		final DefaultAuthorizor auth = new DefaultAuthorizor();
+
+		JsonNode result = JOM.getInstance().readTree(
+				JSONRpc.invoke(destination, request("init"), auth));
+		assertFalse(result.has("error"));
+
+		result = JOM.getInstance().readTree(
+				JSONRpc.invoke(destination, request("lazy.inner.hello"), auth));
+		assertEquals("Hello", result.get("result").asText());
+	}
+
+	private static String request(final String method) {
+		return "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"" + method
+				+ "\",\"params\":{}}";
+	}
+
+	/**
+	 * Destination with a lazily initialized namespace.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class Lazy {
+		private Outer	outer	= null;
+
+		/**
+		 * Initialize the namespace.
+		 */
+		public void init() {
+			outer = new Outer();
+		}
+
+		/**
+		 * Gets the namespace, null before init.
+		 *
+		 * @return the outer
+		 */
+		@Namespace("lazy")
+		public Outer getOuter() {
+			return outer;
+		}
+	}
+
+	/**
+	 * The lazily initialized namespace, with a nested namespace.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class Outer {
+
+		/**
+		 * Gets the nested namespace.
+		 *
+		 * @return the inner
+		 */
+		@Namespace("inner")
+		public Inner getInner() {
+			return new Inner();
+		}
+	}
+
+	/**
+	 * The nested namespace.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class Inner {
+
+		/**
+		 * Hello.
+		 *
+		 * @return the string
+		 */
+		public String hello() {
+			return "Hello";
+		}
+	}
+}
@@ -4,6 +4,9 @@
  */
 package com.almende.eve.test;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import junit.framework.TestCase;
@@ -12,7 +15,10 @@ import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Test;
 
+import com.almende.util.callback.SyncCallback;
+import com.almende.util.threads.SerialExecutor;
 import com.almende.util.threads.ThreadPool;
+import com.almende.util.threads.TimingWheel;
 
 /**
  * The Class TestThreads.
@@ -71,6 +77,172 @@ public class TestThreads extends TestCase {
 		} catch (InterruptedException e) {}
 	}
 
+	/**
+	 * Test the work-stealing executor, with nested (local) submissions and
+	 * blocking tasks.
+	 */
+	@Test
+	public void testWorkStealing() {
+		ThreadPool.setWorkStealing(true);
+		try {
+			final int nofjobs = 2000;
+			final DateTime start = DateTime.now();
+			final AtomicInteger done = new AtomicInteger(0);
+
+			for (int i = 0; i < nofjobs; i++) {
+				ThreadPool.getPool().execute(new Runnable() {
+					@Override
+					public void run() {
+						if (Math.random() > 0.9) {
+							try {
+								Thread.sleep(100);
+							} catch (InterruptedException e) {}
+						}
+						ThreadPool.getPool().execute(new Runnable() {
+							@Override
+							public void run() {
+								done.incrementAndGet();
+							}
+						});
+					}
+				});
+			}
+			int count = 0;
+			while (done.get() < nofjobs && count++ < 100) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {}
+			}
+			LOG.warning(ThreadPool.getPool().toString());
+			LOG.warning(done.get() + " jobs took: "
+					+ (new Duration(start, DateTime.now()).getMillis())
+					+ " ms");
+			assertEquals(nofjobs, done.get());
+		} finally {
+			ThreadPool.setWorkStealing(false);
+		}
+	}
+
+	/**
+	 * Test chains of blocking SyncCallbacks, compensated through
+	 * managedBlock().
+	 */
+	@Test
+	public void testManagedBlock() {
+		final int nofjobs = 500;
+		final DateTime start = DateTime.now();
+		final AtomicInteger done = new AtomicInteger(0);
+
+		for (int i = 0; i < nofjobs; i++) {
+			ThreadPool.getPool().execute(new Runnable() {
+				@Override
+				public void run() {
+					final SyncCallback<Boolean> callback = new SyncCallback<Boolean>() {};
+					ThreadPool.getPool().execute(new Runnable() {
+						@Override
+						public void run() {
+							callback.onSuccess(true);
+						}
+					});
+					try {
+						if (callback.get()) {
+							done.incrementAndGet();
+						}
+					} catch (Exception e) {}
+				}
+			});
+		}
+		int count = 0;
+		while (done.get() < nofjobs && count++ < 100) {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {}
+		}
+		LOG.warning(ThreadPool.getPool().toString());
+		LOG.warning(done.get() + " jobs took: "
+				+ (new Duration(start, DateTime.now()).getMillis()) + " ms");
+		assertEquals(nofjobs, done.get());
+	}
+
+	/**
+	 * Test the SerialExecutor: items of each producer are processed in order,
+	 * by a single thread at a time.
+	 */
+	@Test
+	public void testSerialExecutor() {
+		final int nofproducers = 8;
+		final int nofitems = 10000;
+		final int[] last = new int[nofproducers];
+		final AtomicInteger active = new AtomicInteger(0);
+		final AtomicInteger errors = new AtomicInteger(0);
+		final AtomicInteger done = new AtomicInteger(0);
+		final SerialExecutor<int[]> executor = new SerialExecutor<int[]>() {
+			@Override
+			protected void process(final int[] item) {
+				if (active.incrementAndGet() != 1
+						|| last[item[0]] != item[1] - 1) {
+					errors.incrementAndGet();
+				}
+				last[item[0]] = item[1];
+				done.incrementAndGet();
+				active.decrementAndGet();
+			}
+		};
+		for (int i = 0; i < nofproducers; i++) {
+			final int producer = i;
+			last[producer] = -1;
+			ThreadPool.getPool().execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < nofitems; j++) {
+						executor.add(new int[] { producer, j });
+					}
+				}
+			});
+		}
+		int count = 0;
+		while (done.get() < nofproducers * nofitems && count++ < 100) {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {}
+		}
+		assertEquals(nofproducers * nofitems, done.get());
+		assertEquals(0, errors.get());
+	}
+
+	/**
+	 * Test scheduling on a shared TimingWheel, after it has been replaced by
+	 * setTickResolution() and its ticker has stopped.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testTimingWheelReplaced() throws Exception {
+		final TimingWheel old = TimingWheel.getShared();
+		final CountDownLatch first = new CountDownLatch(1);
+		old.schedule(new Runnable() {
+			@Override
+			public void run() {
+				first.countDown();
+			}
+		}, 10);
+		TimingWheel.setTickResolution(old.getTickDuration(), 512);
+		assertTrue(first.await(5, TimeUnit.SECONDS));
+		assertNotSame(old, TimingWheel.getShared());
+
+		// Give the old ticker time to stop.
+		Thread.sleep(3 * old.getTickDuration());
+		final CountDownLatch second = new CountDownLatch(1);
+		old.schedule(new Runnable() {
+			@Override
+			public void run() {
+				second.countDown();
+			}
+		}, 10);
+		assertTrue(second.await(5, TimeUnit.SECONDS));
+	}
+
 	/**
 	 * Test scheduling.
 	 */
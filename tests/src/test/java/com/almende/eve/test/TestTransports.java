@@ -6,6 +6,14 @@ package com.almende.eve.test;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +22,9 @@ import junit.framework.TestCase;
 import org.junit.Test;
 
 import com.almende.eve.capabilities.handler.Handler;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.eve.transport.AbstractTransport;
+import com.almende.eve.transport.ConnectionSupervisor;
 import com.almende.eve.transport.LocalTransportConfig;
 import com.almende.eve.transport.Receiver;
 import com.almende.eve.transport.Transport;
@@ -23,6 +34,7 @@ import com.almende.eve.transport.pubnub.PubNubTransportConfig;
 import com.almende.eve.transport.ws.WebsocketTransportConfig;
 import com.almende.eve.transport.ws.WsClientTransport;
 import com.almende.eve.transport.ws.WsClientTransportBuilder;
+import com.almende.eve.transport.ws.WsServerTransport;
 import com.almende.eve.transport.xmpp.XmppTransportBuilder;
 import com.almende.eve.transport.xmpp.XmppTransportConfig;
 import com.almende.eve.transport.zmq.ZmqTransportConfig;
@@ -98,6 +110,120 @@ public class TestTransports extends TestCase {
 		transport.send(URI.create("local:testMe"), "Hello World", null, null);
 	}
 
+	/**
+	 * Test inline delivery of message objects through the local transport.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testLocalInline() throws IOException {
+		final LocalTransportConfig config = LocalTransportConfig
+				.create("testInline");
+		config.setDoInline(true);
+
+		final Object[] received = new Object[2];
+		final Transport transport = new TransportBuilder().withConfig(config)
+				.withHandle(new MyReceiver() {
+					@Override
+					public void receive(final Object msg, final URI senderUrl,
+							final String tag) {
+						received[0] = msg;
+						received[1] = Thread.currentThread();
+					}
+				}).build();
+
+		final Object message = JOM.createObjectNode().put("hello", "world");
+		transport.send(URI.create("local:testInline"), message, null, null);
+		assertEquals(message, received[0]);
+		assertNotSame(message, received[0]);
+		assertSame(Thread.currentThread(), received[1]);
+		transport.delete();
+	}
+
+	/**
+	 * Test that a local receiver, changing an inbound message object, doesn't
+	 * change the object of the sender.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testLocalCopy() throws IOException {
+		final LocalTransportConfig config = LocalTransportConfig
+				.create("testCopy");
+		config.setDoInline(true);
+
+		final Transport transport = new TransportBuilder().withConfig(config)
+				.withHandle(new MyReceiver() {
+					@Override
+					public void receive(final Object msg, final URI senderUrl,
+							final String tag) {
+						final JSONRequest request = (JSONRequest) msg;
+						request.getParams().put("hello", "changed");
+						request.getExtra().remove("trace");
+					}
+				}).build();
+
+		final ObjectNode params = JOM.createObjectNode().put("hello", "world");
+		final JSONRequest message = new JSONRequest("test", params);
+		message.setExtra(JOM.createObjectNode().put("trace", true));
+		transport.send(URI.create("local:testCopy"), message, null, null);
+		assertEquals("world", message.getParams().get("hello").asText());
+		assertTrue(message.getExtra().has("trace"));
+		transport.delete();
+	}
+
+	/**
+	 * Test reconnecting through the connection supervisor, retrying after a
+	 * failed attempt.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReconnect() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger(0);
+		final Transport transport = new AbstractTransport(
+				URI.create("test:reconnect"), null, null, null) {
+			@Override
+			public <T> void send(final URI receiverUri, final String message,
+					final String tag, final AsyncCallback<T> callback)
+					throws IOException {}
+
+			@Override
+			public <T> void send(final URI receiverUri, final byte[] message,
+					final String tag, final AsyncCallback<T> callback)
+					throws IOException {}
+
+			@Override
+			public void connect() throws IOException {
+				if (attempts.incrementAndGet() < 2) {
+					throw new IOException("Server not up yet");
+				}
+			}
+
+			@Override
+			public void disconnect() {}
+
+			@Override
+			public List<String> getProtocols() {
+				return Arrays.asList("test");
+			}
+		};
+
+		ConnectionSupervisor.disconnected(transport, "test:server");
+		assertTrue(ConnectionSupervisor.isReconnecting(transport));
+
+		int count = 0;
+		while (ConnectionSupervisor.isReconnecting(transport) && count++ < 100) {
+			Thread.sleep(100);
+		}
+		assertEquals(2, attempts.get());
+		assertFalse(ConnectionSupervisor.isReconnecting(transport));
+		ConnectionSupervisor.forget(transport);
+	}
+
 	/**
 	 * Test pub nub.
 	 *
@@ -203,6 +329,154 @@ public class TestTransports extends TestCase {
 
 	}
 
+	/**
+	 * Test that many messages from the websocket server, sent at once, all
+	 * arrive. The endpoint dispatches each inbound message on its own thread,
+	 * so the order of arrival isn't checked.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testWsBurst() throws Exception {
+		final WebsocketTransportConfig serverConfig = WebsocketTransportConfig
+				.create();
+		serverConfig.setAddress("ws://localhost:8082/ws/testBurst");
+		serverConfig.setServer(true);
+		serverConfig.setServletLauncher("JettyLauncher");
+		final ObjectNode jettyParms = JOM.createObjectNode();
+		jettyParms.put("port", 8082);
+		serverConfig.set("jetty", jettyParms);
+
+		final WsServerTransport server = (WsServerTransport) new TransportBuilder()
+				.withConfig(serverConfig).withHandle(new MyReceiver()).build();
+
+		final int count = 200;
+		final Set<Object> received = Collections
+				.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+		final CountDownLatch done = new CountDownLatch(count);
+		final WebsocketTransportConfig clientConfig = WebsocketTransportConfig
+				.create();
+		clientConfig.setId("testBurstClient");
+		clientConfig.setServerUrl("ws://localhost:8082/ws/testBurst");
+
+		final WsClientTransport client = new WsClientTransportBuilder()
+				.withConfig(clientConfig).withHandle(new MyReceiver() {
+					@Override
+					public void receive(final Object msg, final URI senderUrl,
+							final String tag) {
+						received.add(msg);
+						done.countDown();
+					}
+				}).build();
+		client.connect();
+
+		final URI clientUrl = URIUtil.create("wsclient:testBurstClient");
+		for (int i = 0; i < 100 && !server.getRemotes().contains(clientUrl); i++) {
+			Thread.sleep(50);
+		}
+		for (int i = 0; i < count; i++) {
+			server.send(clientUrl, "Message " + i, null, null);
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < count; i++) {
+			assertTrue(received.contains("Message " + i));
+		}
+		client.disconnect();
+		server.delete();
+	}
+
+	/**
+	 * Test sending through a websocket client before it is connected, the
+	 * messages are buffered until the connection is open.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testWsBuffered() throws Exception {
+		final WebsocketTransportConfig serverConfig = WebsocketTransportConfig
+				.create();
+		serverConfig.setAddress("ws://localhost:8082/ws/testBuffer");
+		serverConfig.setServer(true);
+		serverConfig.setServletLauncher("JettyLauncher");
+		final ObjectNode jettyParms = JOM.createObjectNode();
+		jettyParms.put("port", 8082);
+		serverConfig.set("jetty", jettyParms);
+
+		final CountDownLatch received = new CountDownLatch(3);
+		final Transport server = new TransportBuilder()
+				.withConfig(serverConfig).withHandle(new MyReceiver() {
+					@Override
+					public void receive(final Object msg, final URI senderUrl,
+							final String tag) {
+						received.countDown();
+					}
+				}).build();
+
+		final WebsocketTransportConfig clientConfig = WebsocketTransportConfig
+				.create();
+		clientConfig.setId("testBufferClient");
+		clientConfig.setServerUrl("ws://localhost:8082/ws/testBuffer");
+
+		final WsClientTransport client = new WsClientTransportBuilder()
+				.withConfig(clientConfig).withHandle(new MyReceiver()).build();
+
+		final URI serverUrl = URIUtil
+				.create("ws://localhost:8082/ws/testBuffer");
+		for (int i = 0; i < 3; i++) {
+			client.send(serverUrl, "Buffered " + i, null, null);
+		}
+		assertTrue(received.await(10, TimeUnit.SECONDS));
+		client.disconnect();
+		server.delete();
+	}
+
+	/**
+	 * Test sending through a websocket client after it was disconnected, it
+	 * connects again and the message arrives.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testWsSendAfterDisconnect() throws Exception {
+		final WebsocketTransportConfig serverConfig = WebsocketTransportConfig
+				.create();
+		serverConfig.setAddress("ws://localhost:8082/ws/testDisconnect");
+		serverConfig.setServer(true);
+		serverConfig.setServletLauncher("JettyLauncher");
+		final ObjectNode jettyParms = JOM.createObjectNode();
+		jettyParms.put("port", 8082);
+		serverConfig.set("jetty", jettyParms);
+
+		final CountDownLatch received = new CountDownLatch(1);
+		final Transport server = new TransportBuilder()
+				.withConfig(serverConfig).withHandle(new MyReceiver() {
+					@Override
+					public void receive(final Object msg, final URI senderUrl,
+							final String tag) {
+						received.countDown();
+					}
+				}).build();
+
+		final WebsocketTransportConfig clientConfig = WebsocketTransportConfig
+				.create();
+		clientConfig.setId("testDisconnectClient");
+		clientConfig.setServerUrl("ws://localhost:8082/ws/testDisconnect");
+
+		final WsClientTransport client = new WsClientTransportBuilder()
+				.withConfig(clientConfig).withHandle(new MyReceiver()).build();
+		client.connect();
+		client.disconnect();
+
+		client.send(URIUtil.create("ws://localhost:8082/ws/testDisconnect"),
+				"After disconnect", null, null);
+		assertTrue(received.await(10, TimeUnit.SECONDS));
+		client.disconnect();
+		server.delete();
+	}
+
 	/**
 	 * The Class myReceiver.
 	 */
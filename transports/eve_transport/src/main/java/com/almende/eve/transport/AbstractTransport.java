@@ -6,20 +6,32 @@ package com.almende.eve.transport;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.almende.eve.capabilities.handler.Handler;
+import com.almende.util.Copyable;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.threads.ThreadPool;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * The Class AbstractTransport.
  */
 public abstract class AbstractTransport implements Transport {
-	private TransportService	service		= null;
-	private Handler<Receiver>	handle		= null;
-	private URI					address		= null;
-	private ObjectNode			myParams	= null;
+	private static final Logger					LOG			= Logger.getLogger(AbstractTransport.class
+																	.getName());
+	private static final Charset				UTF8		= Charset
+																	.forName("UTF-8");
+	private static final ThreadLocal<Boolean>	INLINE		= new ThreadLocal<Boolean>();
+	private TransportService					service		= null;
+	private Handler<Receiver>					handle		= null;
+	private URI									address		= null;
+	private ObjectNode							myParams	= null;
+	private boolean								doInline	= false;
 	
 	/**
 	 * Instantiates a new abstract transport.
@@ -40,6 +52,8 @@ public abstract class AbstractTransport implements Transport {
 		this.service = service;
 		this.handle = handle;
 		myParams = params;
+		doInline = params != null
+				&& TransportConfig.decorate(params).getDoInline();
 	}
 	
 	/*
@@ -58,6 +72,50 @@ public abstract class AbstractTransport implements Transport {
 		}
 	}
 	
+	/**
+	 * Default implementation, decodes the message and sends it as String.
+	 * Byte oriented transports should override this.
+	 * 
+	 * @see com.almende.eve.transport.Transport#send(java.net.URI,
+	 *      java.nio.ByteBuffer, java.lang.String,
+	 *      com.almende.util.callback.AsyncCallback)
+	 */
+	@Override
+	public <T> void send(final URI receiverUri, final ByteBuffer message,
+			final String tag, final AsyncCallback<T> callback) throws IOException {
+		send(receiverUri, decode(message), tag, callback);
+	}
+
+	/**
+	 * Decode an UTF-8 encoded message.
+	 * 
+	 * @param message
+	 *            the message
+	 * @return the string
+	 */
+	protected static String decode(final ByteBuffer message) {
+		return UTF8.decode(message.duplicate()).toString();
+	}
+
+	/**
+	 * Gets the remaining bytes of the message, without copying if the buffer
+	 * exactly wraps an array.
+	 * 
+	 * @param message
+	 *            the message
+	 * @return the bytes
+	 */
+	protected static byte[] toBytes(final ByteBuffer message) {
+		if (message.hasArray() && message.arrayOffset() == 0
+				&& message.position() == 0
+				&& message.remaining() == message.array().length) {
+			return message.array();
+		}
+		final byte[] result = new byte[message.remaining()];
+		message.duplicate().get(result);
+		return result;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -138,28 +196,55 @@ public abstract class AbstractTransport implements Transport {
 	 */
 	public void setParams(ObjectNode params) {
 		this.myParams = params;
+		this.doInline = params != null
+				&& TransportConfig.decorate(params).getDoInline();
 	}
 
 	/**
-	 * Send local.
+	 * Send local. The message object is handed to the receiver without
+	 * serialization; JSON trees and {@link Copyable} messages are deep copied
+	 * first, so neither side can change the object of the other. If
+	 * "doInline" is configured, the message is delivered on the current
+	 * thread, unless this thread is already delivering a local message; this
+	 * keeps call chains between local agents from growing the stack.
 	 * 
 	 * @param receiverUri
 	 *            the receiver uri
-	 * @param message
+	 * @param msg
 	 *            the message
 	 * @return true, if successful
 	 */
-	public boolean sendLocal(final URI receiverUri, final Object message) {
+	public boolean sendLocal(final URI receiverUri, final Object msg) {
 		final Transport local = getService().getLocal(receiverUri);
 		if (local != null) {
+			final Object message;
+			if (msg instanceof Copyable) {
+				message = ((Copyable<?>) msg).deepCopy();
+			} else if (msg instanceof JsonNode) {
+				message = ((JsonNode) msg).deepCopy();
+			} else {
+				message = msg;
+			}
 			// Do local shortcut.
-			ThreadPool.getPool().execute(new Runnable() {
-				@Override
-				public void run() {
+			if (doInline && INLINE.get() == null) {
+				INLINE.set(Boolean.TRUE);
+				try {
 					local.getHandle().get()
 							.receive(message, getAddress(), null);
+				} catch (final RuntimeException e) {
+					LOG.log(Level.WARNING, "Local delivery failed", e);
+				} finally {
+					INLINE.remove();
 				}
-			});
+			} else {
+				ThreadPool.getPool().execute(new Runnable() {
+					@Override
+					public void run() {
+						local.getHandle().get()
+								.receive(message, getAddress(), null);
+					}
+				});
+			}
 			return true;
 		}
 		return false;
@@ -0,0 +1,239 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.util.threads.ThreadPool;
+
+/**
+ * The Class ConnectionSupervisor, tracks the connection health of transports
+ * and (re)connects them in the background. Attempts are spread with
+ * decorrelated jitter backoff, and the number of concurrent attempts per
+ * remote endpoint is limited, so a restarting server isn't overrun by all its
+ * clients at once. Transports buffer their own messages while reconnecting.
+ */
+public final class ConnectionSupervisor {
+	private static final Logger									LOG				= Logger.getLogger(ConnectionSupervisor.class
+																								.getName());
+	private static final long									BASE_DELAY		= 1000;
+	private static final long									MAX_DELAY		= 80000;
+	private static final ConcurrentMap<Transport, Health>		HEALTH			= new ConcurrentHashMap<Transport, Health>();
+	private static final ConcurrentMap<String, AtomicInteger>	ATTEMPTS		= new ConcurrentHashMap<String, AtomicInteger>();
+	private static int											maxConcurrent	= 4;
+
+	private ConnectionSupervisor() {}
+
+	/**
+	 * Sets the max number of concurrent connection attempts per remote
+	 * endpoint. (Default is 4)
+	 *
+	 * @param maxConcurrent
+	 *            the new max concurrent attempts
+	 */
+	public static void setMaxConcurrent(final int maxConcurrent) {
+		ConnectionSupervisor.maxConcurrent = maxConcurrent;
+	}
+
+	/**
+	 * Connect the given transport in the background, retrying with backoff
+	 * until it succeeds.
+	 *
+	 * @param transport
+	 *            the transport
+	 * @param endpoint
+	 *            the remote endpoint, concurrent attempts to the same
+	 *            endpoint are limited; null for no limit
+	 */
+	public static void connect(final Transport transport, final String endpoint) {
+		getHealth(transport, endpoint).start();
+	}
+
+	/**
+	 * Report that the given transport lost its connection, it will be
+	 * reconnected in the background.
+	 *
+	 * @param transport
+	 *            the transport
+	 * @param endpoint
+	 *            the remote endpoint, concurrent attempts to the same
+	 *            endpoint are limited; null for no limit
+	 */
+	public static void disconnected(final Transport transport,
+			final String endpoint) {
+		final Health health = getHealth(transport, endpoint);
+		health.connected = false;
+		health.start();
+	}
+
+	/**
+	 * Report that the given transport is connected. Its backoff is reset.
+	 *
+	 * @param transport
+	 *            the transport
+	 */
+	public static void connected(final Transport transport) {
+		final Health health = HEALTH.get(transport);
+		if (health != null) {
+			health.succeeded();
+		}
+	}
+
+	/**
+	 * Checks if the given transport is being reconnected.
+	 *
+	 * @param transport
+	 *            the transport
+	 * @return true, if it is reconnecting
+	 */
+	public static boolean isReconnecting(final Transport transport) {
+		final Health health = HEALTH.get(transport);
+		return health != null && !health.connected;
+	}
+
+	/**
+	 * Stop supervising the given transport, e.g. after it is disconnected on
+	 * purpose.
+	 *
+	 * @param transport
+	 *            the transport
+	 */
+	public static void forget(final Transport transport) {
+		final Health health = HEALTH.remove(transport);
+		if (health != null) {
+			health.stopped = true;
+		}
+	}
+
+	private static Health getHealth(final Transport transport,
+			final String endpoint) {
+		Health health = HEALTH.get(transport);
+		if (health == null) {
+			health = new Health(transport);
+			final Health other = HEALTH.putIfAbsent(transport, health);
+			if (other != null) {
+				health = other;
+			}
+		}
+		if (endpoint != null) {
+			health.endpoint = endpoint;
+		}
+		return health;
+	}
+
+	private static AtomicInteger getAttempts(final String endpoint) {
+		AtomicInteger attempts = ATTEMPTS.get(endpoint);
+		if (attempts == null) {
+			attempts = new AtomicInteger(0);
+			final AtomicInteger other = ATTEMPTS.putIfAbsent(endpoint,
+					attempts);
+			if (other != null) {
+				attempts = other;
+			}
+		}
+		return attempts;
+	}
+
+	/**
+	 * The connection state of a single transport.
+	 */
+	private static class Health implements Runnable {
+		private final Transport		transport;
+		private volatile String		endpoint	= null;
+		private volatile boolean	connected	= true;
+		private volatile boolean	stopped		= false;
+		private boolean				connecting	= false;
+		private long				delay		= BASE_DELAY;
+
+		Health(final Transport transport) {
+			this.transport = transport;
+		}
+
+		/**
+		 * Start connecting, unless already busy. The first attempt is
+		 * delayed by a random part of the base delay.
+		 */
+		void start() {
+			synchronized (this) {
+				if (connecting) {
+					return;
+				}
+				connecting = true;
+				delay = BASE_DELAY;
+			}
+			stopped = false;
+			schedule(ThreadLocalRandom.current().nextLong(BASE_DELAY));
+		}
+
+		/**
+		 * Schedule the next attempt, with decorrelated jitter: a random delay
+		 * between the base delay and three times the previous delay, capped.
+		 */
+		void retry() {
+			final long next;
+			synchronized (this) {
+				delay = Math.min(MAX_DELAY, BASE_DELAY
+						+ ThreadLocalRandom.current().nextLong(
+								delay * 3 - BASE_DELAY + 1));
+				next = delay;
+			}
+			schedule(next);
+		}
+
+		private void schedule(final long wait) {
+			ThreadPool.getScheduledPool().schedule(new Runnable() {
+				@Override
+				public void run() {
+					// Connecting may block, keep it off the scheduler:
+					ThreadPool.getPool().execute(Health.this);
+				}
+			}, wait, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void run() {
+			if (stopped) {
+				synchronized (this) {
+					connecting = false;
+				}
+				return;
+			}
+			final String target = endpoint;
+			final AtomicInteger attempts = target != null ? getAttempts(target)
+					: null;
+			if (attempts != null && attempts.incrementAndGet() > maxConcurrent) {
+				attempts.decrementAndGet();
+				retry();
+				return;
+			}
+			try {
+				transport.connect();
+				succeeded();
+			} catch (final Exception e) {
+				LOG.log(Level.WARNING, "Failed to connect transport "
+						+ transport.getAddress() + ", retrying.", e);
+				retry();
+			} finally {
+				if (attempts != null) {
+					attempts.decrementAndGet();
+				}
+			}
+		}
+
+		void succeeded() {
+			synchronized (this) {
+				connecting = false;
+				delay = BASE_DELAY;
+			}
+			connected = true;
+		}
+	}
+}
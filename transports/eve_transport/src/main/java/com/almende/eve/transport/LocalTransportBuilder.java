@@ -7,9 +7,9 @@ package com.almende.eve.transport;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import com.almende.eve.capabilities.AbstractCapabilityBuilder;
@@ -22,10 +22,11 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  * The Class LocalTransportBuilder.
  */
 public class LocalTransportBuilder extends AbstractCapabilityBuilder<Transport> {
-	private static final Logger					LOG			= Logger.getLogger(LocalTransportBuilder.class
-																	.getName());
-	private static final Map<URI, LocalService>	INSTANCES	= new HashMap<URI, LocalService>(
-																	10);
+	private static final Logger									LOG			= Logger.getLogger(LocalTransportBuilder.class
+																				.getName());
+	private static final String									SCHEME		= "local";
+	// Keyed on agent id, lookups don't need to hash or compare URIs.
+	private static final ConcurrentMap<String, LocalService>	INSTANCES	= new ConcurrentHashMap<String, LocalService>();
 
 	@Override
 	public Transport build() {
@@ -38,18 +39,17 @@ public class LocalTransportBuilder extends AbstractCapabilityBuilder<Transport>
 			LOG.warning("Parameter 'id' is required!");
 			return null;
 		}
-		final String addr = "local:" + config.getId();
-		final URI address = URIUtil.create(addr);
-		LocalService result = null;
-		synchronized (INSTANCES) {
-			result = getLocal(address);
+		LocalService result = INSTANCES.get(id);
+		if (result == null) {
+			final URI address = URIUtil.create(SCHEME + ":" + id);
+			final LocalService created = new LocalService(address, newHandle,
+					getParams());
+			result = INSTANCES.putIfAbsent(id, created);
 			if (result == null) {
-				result = new LocalService(address, newHandle, getParams());
-				INSTANCES.put(address, result);
-			} else {
-				result.getHandle().update(newHandle);
+				return created;
 			}
 		}
+		result.getHandle().update(newHandle);
 		return result;
 	}
 
@@ -61,7 +61,14 @@ public class LocalTransportBuilder extends AbstractCapabilityBuilder<Transport>
 	 * @return the local
 	 */
 	public LocalService getLocal(final URI address) {
-		return INSTANCES.get(address);
+		return lookup(address);
+	}
+
+	private static LocalService lookup(final URI address) {
+		if (!SCHEME.equals(address.getScheme())) {
+			return null;
+		}
+		return INSTANCES.get(address.getSchemeSpecificPart());
 	}
 
 	/**
@@ -95,7 +102,7 @@ public class LocalTransportBuilder extends AbstractCapabilityBuilder<Transport>
 		 */
 		@Override
 		public LocalService getLocal(final URI address) {
-			return INSTANCES.get(address);
+			return lookup(address);
 		}
 
 		/*
@@ -186,9 +193,8 @@ public class LocalTransportBuilder extends AbstractCapabilityBuilder<Transport>
 		 */
 		@Override
 		public void delete(final Transport instance) {
-			synchronized (INSTANCES) {
-				INSTANCES.remove(instance.getAddress());
-			}
+			INSTANCES.remove(instance.getAddress().getSchemeSpecificPart(),
+					instance);
 		}
 
 	}
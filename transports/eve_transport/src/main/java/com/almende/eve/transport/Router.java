@@ -6,32 +6,36 @@ package com.almende.eve.transport;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import com.almende.eve.capabilities.handler.Handler;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.jackson.JOM;
-import com.almende.util.threads.ThreadPool;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * The Class Router, outbound transport selection based on protocol scheme.
+ * The routing table is an immutable snapshot, replaced as a whole when a
+ * transport is registered, so sending never needs to lock.
  */
 public class Router implements Transport {
-	private static final Logger				LOG			= Logger.getLogger(Router.class
-																.getName());
-	private final Map<String, Transport>	transports	= new HashMap<String, Transport>(2);
+	private static final Logger	LOG			= Logger.getLogger(Router.class
+													.getName());
+	private volatile Routes		routes		= new Routes(
+													new HashMap<String, Transport>(
+															0));
 
 	/**
 	 * Register new transport. If a given protocol is already known, this will
@@ -45,11 +49,36 @@ public class Router implements Transport {
 			LOG.warning("Not registering a null transport.");
 			return;
 		}
-		for (final String protocol : transport.getProtocols()) {
-			transports.put(protocol, transport);
+		synchronized (this) {
+			final Map<String, Transport> transports = new HashMap<String, Transport>(
+					routes.transports);
+			for (final String protocol : transport.getProtocols()) {
+				transports.put(protocol, transport);
+			}
+			routes = new Routes(transports);
 		}
 	}
 
+	/**
+	 * Gets the transport for the given scheme.
+	 *
+	 * @param scheme
+	 *            the scheme
+	 * @return the transport, or null if none is registered for the scheme
+	 */
+	private Transport resolve(final String scheme) {
+		final Routes current = routes;
+		Transport transport = current.resolved.get(scheme);
+		if (transport == null) {
+			transport = current.transports.get(scheme
+					.toLowerCase(Locale.ENGLISH));
+			if (transport != null) {
+				current.resolved.put(scheme, transport);
+			}
+		}
+		return transport;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.almende.eve.transport.Transport#send(java.net.URI, byte[],
@@ -58,8 +87,7 @@ public class Router implements Transport {
 	@Override
 	public <T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> callback) throws IOException {
-		final Transport transport = transports.get(receiverUri.getScheme()
-				.toLowerCase());
+		final Transport transport = resolve(receiverUri.getScheme());
 		if (transport != null) {
 			transport.send(receiverUri, message, tag, callback);
 		} else {
@@ -76,8 +104,24 @@ public class Router implements Transport {
 	@Override
 	public <T> void send(final URI receiverUri, final byte[] message,
 			final String tag, final AsyncCallback<T> callback) throws IOException {
-		final Transport transport = transports.get(receiverUri.getScheme()
-				.toLowerCase());
+		final Transport transport = resolve(receiverUri.getScheme());
+		if (transport != null) {
+			transport.send(receiverUri, message, tag, callback);
+		} else {
+			throw new IOException("No transport known for scheme:"
+					+ receiverUri.getScheme());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.transport.Transport#send(java.net.URI,
+	 * java.nio.ByteBuffer, java.lang.String)
+	 */
+	@Override
+	public <T> void send(final URI receiverUri, final ByteBuffer message,
+			final String tag, final AsyncCallback<T> callback) throws IOException {
+		final Transport transport = resolve(receiverUri.getScheme());
 		if (transport != null) {
 			transport.send(receiverUri, message, tag, callback);
 		} else {
@@ -94,14 +138,13 @@ public class Router implements Transport {
 	@Override
 	public <T> void send(final URI receiverUri, final Object message,
 			final String tag, final AsyncCallback<T> callback) throws IOException {
-	        final Transport transport = transports.get(receiverUri.getScheme()
-	                                                   .toLowerCase(Locale.ENGLISH));
-    		if (transport != null) {
-    			transport.send(receiverUri, message, tag, callback);
-    		} else {
-    			throw new IOException("No transport known for scheme:"
-    					+ receiverUri.getScheme());
-    		}
+		final Transport transport = resolve(receiverUri.getScheme());
+		if (transport != null) {
+			transport.send(receiverUri, message, tag, callback);
+		} else {
+			throw new IOException("No transport known for scheme:"
+					+ receiverUri.getScheme());
+		}
 	}
 
 	/*
@@ -110,34 +153,8 @@ public class Router implements Transport {
 	 */
 	@Override
 	public void connect() throws IOException {
-		final Set<Transport> result = new HashSet<Transport>(transports.size());
-		for (final Transport transport : transports.values()) {
-			result.add(transport);
-		}
-		for (final Transport transport : result) {
-			final long[] sleep = new long[1];
-			sleep[0] = 1000L;
-			final double rnd = Math.random();
-			final ScheduledThreadPoolExecutor STE = ThreadPool
-					.getScheduledPool();
-			STE.schedule(new Runnable() {
-				@Override
-				public void run() {
-					try {
-						transport.connect();
-					} catch (IOException e) {
-						LOG.log(Level.WARNING,
-								"Failed to reconnect agent on new transport.",
-								e);
-						if (sleep[0] <= 80000) {
-							sleep[0] *= 2;
-							STE.schedule(this, (long) (sleep[0] * rnd),
-									TimeUnit.MILLISECONDS);
-						}
-					}
-				}
-
-			}, (long) (sleep[0] * rnd), TimeUnit.MILLISECONDS);
+		for (final Transport transport : routes.unique) {
+			ConnectionSupervisor.connect(transport, null);
 		}
 	}
 
@@ -147,11 +164,8 @@ public class Router implements Transport {
 	 */
 	@Override
 	public void disconnect() {
-		final Set<Transport> result = new HashSet<Transport>(transports.size());
-		for (final Transport transport : transports.values()) {
-			result.add(transport);
-		}
-		for (final Transport transport : result) {
+		for (final Transport transport : routes.unique) {
+			ConnectionSupervisor.forget(transport);
 			transport.disconnect();
 		}
 	}
@@ -162,14 +176,13 @@ public class Router implements Transport {
 	 */
 	@Override
 	public void delete() {
-		final Set<Transport> result = new HashSet<Transport>(transports.size());
-		for (final Transport transport : transports.values()) {
-			result.add(transport);
-		}
-		for (final Transport transport : result) {
+		for (final Transport transport : routes.unique) {
+			ConnectionSupervisor.forget(transport);
 			transport.delete();
 		}
-		transports.clear();
+		synchronized (this) {
+			routes = new Routes(new HashMap<String, Transport>(0));
+		}
 	}
 
 	/*
@@ -196,11 +209,18 @@ public class Router implements Transport {
 	 * @return the addresses
 	 */
 	public List<URI> getAddresses() {
-		final Set<URI> result = new HashSet<URI>(transports.size());
-		for (final Transport transport : transports.values()) {
-			result.add(transport.getAddress());
-		}
-		return new ArrayList<URI>(result);
+		return routes.addresses;
+	}
+
+	/**
+	 * Checks if the given address is one of the addresses of this router.
+	 *
+	 * @param address
+	 *            the address
+	 * @return true, if it is an own address
+	 */
+	public boolean isOwnAddress(final URI address) {
+		return routes.ownAddresses.contains(address);
 	}
 
 	/**
@@ -211,7 +231,7 @@ public class Router implements Transport {
 	 * @return the addresses by scheme
 	 */
 	public URI getAddressByScheme(String scheme) {
-		return transports.get(scheme).getAddress();
+		return resolve(scheme).getAddress();
 	}
 	
 	/*
@@ -220,7 +240,7 @@ public class Router implements Transport {
 	 */
 	@Override
 	public List<String> getProtocols() {
-		return new ArrayList<String>(transports.keySet());
+		return routes.protocols;
 	}
 
 	/*
@@ -230,7 +250,7 @@ public class Router implements Transport {
 	@Override
 	public ObjectNode getParams() {
 		final ArrayNode transportConfs = JOM.createArrayNode();
-		for (final Transport transport : transports.values()) {
+		for (final Transport transport : routes.transports.values()) {
 			transportConfs.add(transport.getParams());
 		}
 		final ObjectNode result = JOM.createObjectNode();
@@ -238,4 +258,31 @@ public class Router implements Transport {
 		return result;
 	}
 
+	/**
+	 * The routing snapshot: the transports per protocol, with the derived
+	 * lists precomputed. Lookups by scheme, as given in the receiver uri, are
+	 * cached to skip lowercasing.
+	 */
+	private static class Routes {
+		private final Map<String, Transport>				transports;
+		private final ConcurrentMap<String, Transport>	resolved		= new ConcurrentHashMap<String, Transport>(
+																				4);
+		private final Set<Transport>						unique;
+		private final List<URI>								addresses;
+		private final Set<URI>								ownAddresses;
+		private final List<String>							protocols;
+
+		Routes(final Map<String, Transport> transports) {
+			this.transports = transports;
+			unique = new HashSet<Transport>(transports.values());
+			ownAddresses = new HashSet<URI>(transports.size());
+			for (final Transport transport : transports.values()) {
+				ownAddresses.add(transport.getAddress());
+			}
+			addresses = Collections.unmodifiableList(new ArrayList<URI>(
+					ownAddresses));
+			protocols = Collections.unmodifiableList(new ArrayList<String>(
+					transports.keySet()));
+		}
+	}
 }
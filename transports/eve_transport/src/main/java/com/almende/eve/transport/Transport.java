@@ -6,6 +6,7 @@ package com.almende.eve.transport;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import com.almende.eve.capabilities.Capability;
@@ -65,6 +66,29 @@ public interface Transport extends Capability {
 			final String tag, final AsyncCallback<T> callback)
 			throws IOException;
 
+	/**
+	 * Send an UTF-8 encoded message to an other agent, e.g. as written by
+	 * {@link com.almende.util.jackson.JOM#writeToBuffer}. Unlike the byte[]
+	 * variant, this is the text of the message itself, which byte oriented
+	 * transports can send without an intermediate String.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param receiverUri
+	 *            the receiver url
+	 * @param message
+	 *            the UTF-8 encoded message, from its position to its limit
+	 * @param tag
+	 *            the tag
+	 * @param callback
+	 *            the callback
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	<T> void send(final URI receiverUri, final ByteBuffer message,
+			final String tag, final AsyncCallback<T> callback)
+			throws IOException;
+
 	/**
 	 * Send bytes to an other agent. String based transports
 	 * may need to encode these bytes to base64. (e.g. through
@@ -75,4 +75,28 @@ public class TransportConfig extends Config {
 		}
 		return true;
 	}
+	
+	/**
+	 * Sets the do inline flag. If true, messages to local agents are
+	 * delivered on the thread of the sender, unless that thread is already
+	 * delivering a local message. (Optional, default is false)
+	 * 
+	 * @param doInline
+	 *            the new do inline
+	 */
+	public void setDoInline(final boolean doInline) {
+		this.put("doInline", doInline);
+	}
+	
+	/**
+	 * Gets the do inline flag.
+	 * 
+	 * @return the do inline
+	 */
+	public boolean getDoInline() {
+		if (this.has("doInline")) {
+			return this.get("doInline").asBoolean();
+		}
+		return false;
+	}
 }
@@ -12,18 +12,28 @@ import org.joda.time.DateTime;
 import com.almende.util.jackson.JOM;
 
 /**
- * The Class TokenRet.
+ * The Class TokenRet, an immutable token and its time. The current token of a
+ * TokenStore is shared by all its callers.
  */
-public class TokenRet {
+public final class TokenRet {
 	private static final Logger	LOG		= Logger.getLogger(TokenRet.class
 												.getCanonicalName());
-	private String				token	= null;
-	private String				time	= null;
+	private final String		token;
+	private final String		time;
+	// Computed on first use; racing threads compute the same value.
+	private String				json	= null;
 	
 	/**
 	 * Instantiates a new token ret.
+	 * 
+	 * @param token
+	 *            the token
+	 * @param time
+	 *            the time
 	 */
-	public TokenRet() {
+	public TokenRet(final String token, final String time) {
+		this.token = token;
+		this.time = time;
 	}
 	
 	/**
@@ -35,8 +45,7 @@ public class TokenRet {
 	 *            the time
 	 */
 	public TokenRet(final String token, final DateTime time) {
-		this.token = token;
-		this.time = time.toString();
+		this(token, time.toString());
 	}
 	
 	/*
@@ -46,12 +55,18 @@ public class TokenRet {
 	 */
 	@Override
 	public String toString() {
+		String result = json;
+		if (result != null) {
+			return result;
+		}
 		try {
-			return JOM.getInstance().writeValueAsString(this);
+			result = JOM.getInstance().writeValueAsString(this);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
-			return "{\"token\":\"" + token + "\",\"time\":\"" + time + "\"}";
+			result = "{\"token\":\"" + token + "\",\"time\":\"" + time + "\"}";
 		}
+		json = result;
+		return result;
 	}
 	
 	/**
@@ -63,16 +78,6 @@ public class TokenRet {
 		return token;
 	}
 	
-	/**
-	 * Sets the token.
-	 * 
-	 * @param token
-	 *            the new token
-	 */
-	public void setToken(final String token) {
-		this.token = token;
-	}
-	
 	/**
 	 * Gets the time.
 	 * 
@@ -81,14 +86,4 @@ public class TokenRet {
 	public String getTime() {
 		return time;
 	}
-	
-	/**
-	 * Sets the time.
-	 * 
-	 * @param time
-	 *            the new time
-	 */
-	public void setTime(final String time) {
-		this.time = time;
-	}
 }
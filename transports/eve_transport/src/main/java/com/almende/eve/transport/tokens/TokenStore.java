@@ -4,13 +4,18 @@
  */
 package com.almende.eve.transport.tokens;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
 
+import com.almende.util.threads.ThreadPool;
 import com.almende.util.uuid.UUID;
 
 /**
@@ -19,21 +24,66 @@ import com.almende.util.uuid.UUID;
  * kept in memory. If remote peer wants to check if this host has actually send
  * the call, it can request a resend of the
  * token at time X.
+ * The current token is replaced by a timer, handing it out is a volatile read.
  * 
  * @author ludo
  */
 public final class TokenStore {
-	private static final Logger	LOG		= Logger.getLogger(TokenStore.class
-												.getCanonicalName());
-	private static final int	SIZE	= 5;
-	private Map<String, String>	tokens	= new ConcurrentHashMap<String, String>(
-												5);
-	private DateTime			last	= DateTime.now();
+	private static final Logger			LOG			= Logger.getLogger(TokenStore.class
+															.getCanonicalName());
+	private static final int			SIZE		= 5;
+	private static final long			INTERVAL	= 3600000;
+	private final Map<String, String>	tokens		= new ConcurrentHashMap<String, String>(
+															SIZE + 1);
+	// Token times, oldest first; guarded by "this".
+	private final Deque<String>			times		= new ArrayDeque<String>(
+															SIZE + 1);
+	private volatile TokenRet			current		= null;
 
 	/**
 	 * Instantiates a new token store.
 	 */
-	public TokenStore() {}
+	public TokenStore() {
+		rotate();
+		schedule(new WeakReference<TokenStore>(this));
+	}
+
+	/**
+	 * Schedule the next rotation. The timer only holds a weak reference, so
+	 * it stops when the store is no longer used.
+	 * 
+	 * @param ref
+	 *            the reference to the store
+	 */
+	private static void schedule(final WeakReference<TokenStore> ref) {
+		ThreadPool.getScheduledPool().schedule(new Runnable() {
+			@Override
+			public void run() {
+				final TokenStore store = ref.get();
+				if (store != null) {
+					store.rotate();
+					schedule(ref);
+				}
+			}
+		}, INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Generate a new current token, evicting the oldest if more than SIZE
+	 * tokens are kept.
+	 */
+	private synchronized void rotate() {
+		final TokenRet token = new TokenRet(new UUID().toString(),
+				DateTime.now());
+		tokens.put(token.getTime(), token.getToken());
+		times.addLast(token.getTime());
+		while (times.size() > SIZE) {
+			tokens.remove(times.removeFirst());
+		}
+		// Serialize once, the header value is reused for each call.
+		token.toString();
+		current = token;
+	}
 
 	/**
 	 * Gets the.
@@ -52,37 +102,12 @@ public final class TokenStore {
 	}
 
 	/**
-	 * Creates the.
+	 * Gets the current token. The same, immutable, instance is returned to
+	 * all callers until the next rotation.
 	 * 
 	 * @return the token ret
 	 */
 	public TokenRet create() {
-		TokenRet result;
-		if (tokens.size() == 0 || tokens.get(last.toString()) == null
-				|| last.plus(3600000).isBeforeNow()) {
-			final DateTime now = DateTime.now();
-			final String token = new UUID().toString();
-			result = new TokenRet(token, now);
-			tokens.put(now.toString(), token);
-			last = now;
-
-			if (tokens.size() > SIZE + 2) {
-				DateTime oldest = last;
-				for (final String time : tokens.keySet()) {
-					try {
-						if (DateTime.parse(time).isBefore(oldest)) {
-							oldest = DateTime.parse(time);
-						}
-					} catch (final Exception e) {
-						LOG.log(Level.WARNING, "Failed in eviction of tokens:",
-								e);
-					}
-				}
-				tokens.remove(oldest.toString());
-			}
-		} else {
-			result = new TokenRet(tokens.get(last.toString()), last);
-		}
-		return result;
+		return current;
 	}
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.amqp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.util.callback.AsyncCallback;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+/**
+ * The Class AmqpPublisher, publishes the outbound messages of all transports
+ * of a broker, on its own connection and channel, from a single dedicated
+ * thread. Pending messages are published in batches, after each batch the
+ * thread waits for the publisher confirms of the broker. Messages of a batch
+ * that isn't confirmed are reported to their callbacks. The publisher is
+ * closed when its last transport releases it.
+ */
+final class AmqpPublisher implements Runnable {
+	private static final Logger						LOG				= Logger.getLogger(AmqpPublisher.class
+																			.getName());
+	private static final long						CONFIRM_TIMEOUT	= 10000;
+	private static final long						POLL_TIMEOUT	= 500;
+	private static final Map<String, AmqpPublisher>	PUBLISHERS		= new HashMap<String, AmqpPublisher>();
+	private final String							hostUri;
+	private final int								batchSize;
+	private final Connection						connection;
+	private final Channel							channel;
+	private final Thread							thread;
+	private final BlockingQueue<Task>				queue			= new LinkedBlockingQueue<Task>();
+	private volatile boolean						running			= true;
+	// Guarded by PUBLISHERS:
+	private int										users			= 0;
+
+	private AmqpPublisher(final String hostUri, final Connection connection,
+			final int batchSize) throws IOException {
+		this.hostUri = hostUri;
+		this.connection = connection;
+		this.batchSize = batchSize > 0 ? batchSize : 1;
+		channel = connection.createChannel();
+		channel.confirmSelect();
+		thread = new Thread(this, "AmqpPublisher-" + connection.getAddress());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Gets the publisher of the given broker, creating it if needed. Each
+	 * call should be matched by a call to {@link #release()}.
+	 *
+	 * @param hostUri
+	 *            the host uri of the broker
+	 * @param factory
+	 *            the connection factory, used if the publisher is created
+	 * @param batchSize
+	 *            the maximum number of messages per confirm batch, used if
+	 *            the publisher is created
+	 * @return the AMQP publisher
+	 * @throws IOException
+	 *             Signals that the connection couldn't be opened.
+	 */
+	static AmqpPublisher acquire(final String hostUri,
+			final ConnectionFactory factory, final int batchSize)
+			throws IOException {
+		synchronized (PUBLISHERS) {
+			AmqpPublisher publisher = PUBLISHERS.get(hostUri);
+			if (publisher == null) {
+				publisher = new AmqpPublisher(hostUri, factory.newConnection(),
+						batchSize);
+				PUBLISHERS.put(hostUri, publisher);
+			}
+			publisher.users++;
+			return publisher;
+		}
+	}
+
+	/**
+	 * Release the publisher, it is closed after its last transport released
+	 * it.
+	 */
+	void release() {
+		synchronized (PUBLISHERS) {
+			if (--users > 0) {
+				return;
+			}
+			PUBLISHERS.remove(hostUri);
+		}
+		close();
+	}
+
+	/**
+	 * Queue a message for publishing.
+	 *
+	 * @param from
+	 *            the id of the sending transport
+	 * @param to
+	 *            the id of the receiver, which is the routing key
+	 * @param body
+	 *            the message body
+	 * @param callback
+	 *            the callback, informed on failure, may be null
+	 * @throws IOException
+	 *             Signals that the publisher is closed.
+	 */
+	void send(final String from, final String to, final byte[] body,
+			final AsyncCallback<?> callback) throws IOException {
+		// Checked and added under the lock, so no message is added after the
+		// publisher thread drained the queue for the last time:
+		synchronized (queue) {
+			if (!running) {
+				throw new IOException("Amqp transport not connected!");
+			}
+			queue.add(new Task(from, to, body, callback));
+		}
+	}
+
+	/**
+	 * Stop the publisher, after publishing the current batch.
+	 */
+	private void close() {
+		synchronized (queue) {
+			running = false;
+		}
+		try {
+			thread.join(CONFIRM_TIMEOUT);
+		} catch (final InterruptedException e) {
+			// Nothing todo.
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		final List<Task> batch = new ArrayList<Task>(batchSize);
+		while (running) {
+			try {
+				final Task first = queue.poll(POLL_TIMEOUT,
+						TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+					publish(batch);
+				}
+			} catch (final InterruptedException e) {
+				// Nothing todo.
+			} finally {
+				batch.clear();
+			}
+		}
+		queue.drainTo(batch);
+		fail(batch, new IOException("Amqp transport disconnected!"));
+		try {
+			channel.close();
+			connection.close();
+		} catch (final Exception e) {
+			LOG.log(Level.FINE, "Failed to close AMQP connection", e);
+		}
+	}
+
+	private void publish(final List<Task> batch) {
+		try {
+			for (final Task task : batch) {
+				channel.basicPublish("", task.to, properties(task), task.body);
+			}
+			if (!channel.waitForConfirms(CONFIRM_TIMEOUT)) {
+				fail(batch, new IOException(
+						"AMQP broker rejected one or more messages"));
+			}
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Failed to publish AMQP messages", e);
+			fail(batch, new IOException("Failed to publish AMQP messages, e: "
+					+ e.getMessage()));
+		}
+	}
+
+	private AMQP.BasicProperties properties(final Task task) {
+		final Map<String, Object> headers = new HashMap<String, Object>(2);
+		headers.put(AmqpTransport.FROM, task.from);
+		headers.put(AmqpTransport.TO, task.to);
+		return new AMQP.BasicProperties.Builder().headers(headers).build();
+	}
+
+	private void fail(final List<Task> batch, final Exception e) {
+		for (final Task task : batch) {
+			if (task.callback != null) {
+				task.callback.onFailure(e);
+			}
+		}
+	}
+
+	/**
+	 * A message waiting to be published.
+	 */
+	private static class Task {
+		private final String			from;
+		private final String			to;
+		private final byte[]			body;
+		private final AsyncCallback<?>	callback;
+
+		Task(final String from, final String to, final byte[] body,
+				final AsyncCallback<?> callback) {
+			this.from = from;
+			this.to = to;
+			this.body = body;
+			this.callback = callback;
+		}
+	}
+}
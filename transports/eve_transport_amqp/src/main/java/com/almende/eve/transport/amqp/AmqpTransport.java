@@ -7,10 +7,12 @@ package com.almende.eve.transport.amqp;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,15 +35,29 @@ import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 
 /**
- * The Class AmqpTransport.
+ * The Class AmqpTransport. Messages are sent with the sender and receiver in
+ * the "from" and "to" headers, the body is the raw message. Outbound messages
+ * are published with publisher confirms, by the AmqpPublisher that all
+ * transports of the same broker share. Inbound messages
+ * are acknowledged after they have been handled, the number of unacknowledged
+ * messages is limited by the prefetch count.
  */
 public class AmqpTransport extends AbstractTransport {
-	private static final Logger	LOG			= Logger.getLogger(AmqpTransport.class
-													.getName());
-	private ConnectionFactory	factory		= null;
-	private Connection			connection	= null;
-	private Channel				channel		= null;
-	private String				myId		= "";
+	private static final Logger		LOG				= Logger.getLogger(AmqpTransport.class
+														.getName());
+	private static final Charset	UTF8			= Charset.forName("UTF-8");
+	/** The header containing the id of the sender. */
+	static final String				FROM			= "from";
+	/** The header containing the id of the receiver. */
+	static final String				TO				= "to";
+	private ConnectionFactory		factory			= null;
+	private Connection				connection		= null;
+	private Channel					channel			= null;
+	private volatile AmqpPublisher	publisher		= null;
+	private String					myId			= "";
+	private String					hostUri			= null;
+	private final int				prefetchCount;
+	private final int				publishBatchSize;
 
 	/**
 	 * Instantiates a new AMQP transport.
@@ -58,9 +74,12 @@ public class AmqpTransport extends AbstractTransport {
 		super(URIUtil.create("amqp:" + config.getId()), newHandle, amqpService,
 				config);
 		myId = config.getId();
+		prefetchCount = config.getPrefetchCount();
+		publishBatchSize = config.getPublishBatchSize();
+		hostUri = config.getHostUri();
 		factory = new ConnectionFactory();
 		try {
-			factory.setUri(config.getHostUri());
+			factory.setUri(hostUri);
 		} catch (KeyManagementException | NoSuchAlgorithmException
 				| URISyntaxException e) {
 			LOG.log(Level.WARNING, "AMQP initialisation problem", e);
@@ -77,11 +96,13 @@ public class AmqpTransport extends AbstractTransport {
 	public <T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> callback)
 			throws IOException {
-		if (channel != null && channel.isOpen()) {
+		final AmqpPublisher current = publisher;
+		if (current != null) {
 			final String to = receiverUri.getRawSchemeSpecificPart();
-			final String msg = JSONEnvelop.wrapAsString(myId, to, message);
-			LOG.warning("Sending '" + msg + "' to:" + to);
-			channel.basicPublish("", to, null, msg.getBytes());
+			if (LOG.isLoggable(Level.FINEST)) {
+				LOG.finest("Sending '" + message + "' to:" + to);
+			}
+			current.send(myId, to, message.getBytes(UTF8), callback);
 		} else {
 			throw new IOException("Amqp transport not connected!");
 		}
@@ -108,28 +129,60 @@ public class AmqpTransport extends AbstractTransport {
 		connection = factory.newConnection();
 		channel = connection.createChannel();
 		channel.queueDeclare(myId, true, true, true, null);
+		channel.basicQos(prefetchCount);
+		if (publisher == null) {
+			publisher = AmqpPublisher.acquire(hostUri, factory,
+					publishBatchSize);
+		}
 
-		Consumer consumer = new DefaultConsumer(channel) {
+		final Consumer consumer = new DefaultConsumer(channel) {
 			@Override
 			public void handleDelivery(final String consumerTag,
 					final Envelope envelope,
 					final AMQP.BasicProperties properties, final byte[] body)
 					throws IOException {
-				final String message = new String(body, "UTF-8");
-				final JSONEnvelop.Envelop res = JSONEnvelop.unwrap(message);
-				if (myId.equals(res.getTo())) {
-					ThreadPool.getPool().execute(new Runnable() {
-						@Override
-						public void run() {
-							getHandle().get().receive(res.getMessage(),
-									URIUtil.create("amqp:" + res.getFrom()),
-									null);
-						}
-					});
+				final Channel ackChannel = getChannel();
+				final long deliveryTag = envelope.getDeliveryTag();
+				final String from;
+				final String message;
+				final Map<String, Object> headers = properties.getHeaders();
+				if (headers != null && headers.containsKey(FROM)) {
+					if (!myId.equals(String.valueOf(headers.get(TO)))) {
+						ackChannel.basicAck(deliveryTag, false);
+						return;
+					}
+					from = String.valueOf(headers.get(FROM));
+					message = new String(body, UTF8);
+				} else {
+					// Message from an older transport, wrapped in an envelop:
+					final JSONEnvelop.Envelop res = JSONEnvelop
+							.unwrap(new String(body, UTF8));
+					if (!myId.equals(res.getTo())) {
+						ackChannel.basicAck(deliveryTag, false);
+						return;
+					}
+					from = res.getFrom();
+					message = res.getMessage();
 				}
+				ThreadPool.getPool().execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							getHandle().get().receive(message,
+									URIUtil.create("amqp:" + from), null);
+						} finally {
+							try {
+								ackChannel.basicAck(deliveryTag, false);
+							} catch (final Exception e) {
+								LOG.log(Level.FINE,
+										"Failed to acknowledge AMQP message", e);
+							}
+						}
+					}
+				});
 			}
 		};
-		channel.basicConsume(myId, true, consumer);
+		channel.basicConsume(myId, false, consumer);
 	}
 
 	/*
@@ -138,6 +191,10 @@ public class AmqpTransport extends AbstractTransport {
 	 */
 	@Override
 	public void disconnect() {
+		if (publisher != null) {
+			publisher.release();
+			publisher = null;
+		}
 		try {
 			channel.close();
 			channel = null;
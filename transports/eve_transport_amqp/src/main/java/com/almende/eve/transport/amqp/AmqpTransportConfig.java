@@ -108,4 +108,52 @@ public class AmqpTransportConfig extends TransportConfig {
 	public void setHostUri(final String uri) {
 		this.put("hostUri", uri);
 	}
+
+	/**
+	 * Sets the prefetch count, the maximum number of unacknowledged messages
+	 * the broker delivers to this transport. (Optional, default is 100)
+	 *
+	 * @param prefetchCount
+	 *            the new prefetch count
+	 */
+	public void setPrefetchCount(final int prefetchCount) {
+		this.put("prefetchCount", prefetchCount);
+	}
+
+	/**
+	 * Gets the prefetch count.
+	 *
+	 * @return the prefetch count
+	 */
+	public int getPrefetchCount() {
+		if (this.has("prefetchCount")) {
+			return this.get("prefetchCount").asInt();
+		}
+		return 100;
+	}
+
+	/**
+	 * Sets the publish batch size, the maximum number of messages published
+	 * before waiting for the publisher confirms of the broker. The transports
+	 * of a broker share one publisher, which uses the batch size of the first
+	 * transport. (Optional, default is 100)
+	 *
+	 * @param publishBatchSize
+	 *            the new publish batch size
+	 */
+	public void setPublishBatchSize(final int publishBatchSize) {
+		this.put("publishBatchSize", publishBatchSize);
+	}
+
+	/**
+	 * Gets the publish batch size.
+	 *
+	 * @return the publish batch size
+	 */
+	public int getPublishBatchSize() {
+		if (this.has("publishBatchSize")) {
+			return this.get("publishBatchSize").asInt();
+		}
+		return 100;
+	}
 }
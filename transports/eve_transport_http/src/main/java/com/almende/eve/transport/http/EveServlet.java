@@ -7,9 +7,11 @@ package com.almende.eve.transport.http;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -20,10 +22,14 @@ import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 
+import com.almende.eve.transport.envelop.JSONEnvelop;
+import com.almende.eve.transport.envelop.JSONEnvelop.Envelop;
 import com.almende.util.ApacheHttpClient;
 import com.almende.util.StringUtil;
 import com.almende.util.URIUtil;
+import com.almende.util.callback.AsyncCallback;
 import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
@@ -36,6 +42,9 @@ public class EveServlet extends HttpServlet {
 															.getSimpleName());
 	protected URI				myUrl				= null;
 
+	/** The header marking a POST of multiplexed envelops. */
+	public static final String	MULTIPLEXED			= "X-Eve-Multiplexed";
+
 	/**
 	 * Instantiates a new eve servlet.
 	 */
@@ -144,30 +153,15 @@ public class EveServlet extends HttpServlet {
 		try {
 			final String senderUrl = req.getHeader("X-Eve-SenderUrl");
 			if (senderUrl != null && !senderUrl.isEmpty()) {
-				final ObjectNode tokenObj = (ObjectNode) JOM.getInstance()
-						.readTree(tokenTupple);
-				final HttpGet httpGet = new HttpGet(senderUrl);
-				httpGet.setHeader("X-Eve-requestToken", tokenObj.get("time")
-						.textValue());
-				final HttpResponse response = ApacheHttpClient.get().execute(
-						httpGet);
-				if (response != null
-						&& response.getStatusLine().getStatusCode() == HttpServletResponse.SC_OK) {
-					Header replyToken = response
-							.getLastHeader("X-Eve-replyToken");
-					if (replyToken == null) {
-						LOG.log(Level.WARNING,
-								"Failed to receive valid handshake, replyToken missing!:"
-										+ response);
-						return Handshake.INVALID;
-					}
-					if (tokenObj.get("token").textValue()
-							.equals(replyToken.getValue())) {
-						return Handshake.OK;
-					}
-				} else {
-					LOG.log(Level.WARNING, "Failed to receive valid handshake:"
-							+ response);
+				final boolean valid = HandshakeCache.verify(senderUrl,
+						tokenTupple, new Callable<Boolean>() {
+							@Override
+							public Boolean call() throws Exception {
+								return checkToken(senderUrl, tokenTupple);
+							}
+						});
+				if (valid) {
+					return Handshake.OK;
 				}
 			}
 		} catch (final Exception e) {
@@ -177,6 +171,44 @@ public class EveServlet extends HttpServlet {
 		return Handshake.INVALID;
 	}
 
+	/**
+	 * Ask the sender for the token it used at the given time, and compare it
+	 * with the received token.
+	 * 
+	 * @param senderUrl
+	 *            the sender url
+	 * @param tokenTupple
+	 *            the received token
+	 * @return true, if the sender confirms the token
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private boolean checkToken(final String senderUrl, final String tokenTupple)
+			throws IOException {
+		final ObjectNode tokenObj = (ObjectNode) JOM.getInstance().readTree(
+				tokenTupple);
+		final HttpGet httpGet = new HttpGet(senderUrl);
+		httpGet.setHeader("X-Eve-requestToken", tokenObj.get("time")
+				.textValue());
+		final HttpResponse response = ApacheHttpClient.get().execute(httpGet);
+		if (response != null
+				&& response.getStatusLine().getStatusCode() == HttpServletResponse.SC_OK) {
+			Header replyToken = response.getLastHeader("X-Eve-replyToken");
+			if (replyToken == null) {
+				LOG.log(Level.WARNING,
+						"Failed to receive valid handshake, replyToken missing!:"
+								+ response);
+				return false;
+			}
+			return tokenObj.get("token").textValue()
+					.equals(replyToken.getValue());
+		} else {
+			LOG.log(Level.WARNING, "Failed to receive valid handshake:"
+					+ response);
+		}
+		return false;
+	}
+
 	/**
 	 * Handle session.
 	 * 
@@ -252,6 +284,10 @@ public class EveServlet extends HttpServlet {
 
 		// retrieve the url and the request body
 		final String body = StringUtil.streamToString(req.getInputStream());
+		if (req.getHeader(MULTIPLEXED) != null) {
+			handleMultiplexed(body, req.getHeader("X-Eve-SenderUrl"), resp);
+			return;
+		}
 		final String url = req.getRequestURI();
 		final String id = getId(url);
 		if (id == null || id.isEmpty() || id.equals(myUrl.toASCIIString())) {
@@ -272,6 +308,11 @@ public class EveServlet extends HttpServlet {
 			LOG.log(Level.WARNING, "Couldn't parse senderUrl:" + sender, e);
 		}
 		final HttpTransport transport = HttpService.get(myUrl, id);
+		if (transport != null && req.isAsyncSupported()
+				&& HttpService.isAsyncServlet(myUrl)) {
+			receiveAsync(req, transport, body, senderUrl);
+			return;
+		}
 		if (transport != null) {
 			try {
 				final String response = transport.receive(body, senderUrl);
@@ -291,6 +332,119 @@ public class EveServlet extends HttpServlet {
 		resp.flushBuffer();
 	}
 
+	/**
+	 * Handle a multiplexed POST: an array of {to, from, message} envelops,
+	 * each message is delivered to the transport of its receiver. The
+	 * messages are one-way, responses travel as separate messages. All
+	 * envelops of a POST come from the transport that posted them, envelops
+	 * with another sender than the (verified) X-Eve-SenderUrl are dropped.
+	 * 
+	 * @param body
+	 *            the body
+	 * @param senderUrl
+	 *            the sender url, from the X-Eve-SenderUrl header
+	 * @param resp
+	 *            the resp
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void handleMultiplexed(final String body,
+			final String senderUrl, final HttpServletResponse resp)
+			throws IOException {
+		JsonNode envelops = null;
+		try {
+			envelops = JOM.getInstance().readTree(body);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't parse multiplexed envelops", e);
+		}
+		if (envelops == null || !envelops.isArray()) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Expected an array of envelops");
+			resp.flushBuffer();
+			return;
+		}
+		for (final JsonNode item : envelops) {
+			try {
+				final Envelop envelop = JSONEnvelop.unwrap((ObjectNode) item);
+				if (senderUrl == null || !senderUrl.equals(envelop.getFrom())) {
+					LOG.warning("Dropping multiplexed message, sender "
+							+ envelop.getFrom() + " doesn't match "
+							+ senderUrl);
+					continue;
+				}
+				final String id = getId(URIUtil.parse(envelop.getTo())
+						.getRawPath());
+				final HttpTransport transport = HttpService.get(myUrl, id);
+				if (transport == null) {
+					LOG.warning("Dropping multiplexed message, unknown agent:"
+							+ envelop.getTo());
+					continue;
+				}
+				transport.getHandle().get().receive(envelop.getMessage(),
+						URIUtil.parse(envelop.getFrom()), null);
+			} catch (final Exception e) {
+				LOG.log(Level.WARNING, "Invalid multiplexed envelop:" + item,
+						e);
+			}
+		}
+		resp.setStatus(HttpServletResponse.SC_OK);
+		resp.flushBuffer();
+	}
+
+	/**
+	 * Hand the request to the transport and release the container thread, the
+	 * response is written when the agent answers. The timeout is left to the
+	 * callback store of the transport.
+	 * 
+	 * @param req
+	 *            the req
+	 * @param transport
+	 *            the transport
+	 * @param body
+	 *            the body
+	 * @param senderUrl
+	 *            the sender url
+	 */
+	protected void receiveAsync(final HttpServletRequest req,
+			final HttpTransport transport, final String body,
+			final URI senderUrl) {
+		final AsyncContext context = req.startAsync();
+		context.setTimeout(0);
+		transport.receive(body, senderUrl, new AsyncCallback<String>() {
+
+			@Override
+			public void onSuccess(final String response) {
+				final HttpServletResponse resp = (HttpServletResponse) context
+						.getResponse();
+				try {
+					resp.addHeader("Content-Type", "application/json");
+					resp.getWriter().println(response);
+					resp.getWriter().close();
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Couldn't write response", e);
+				} finally {
+					context.complete();
+				}
+			}
+
+			@Override
+			public void onFailure(final Exception exception) {
+				final HttpServletResponse resp = (HttpServletResponse) context
+						.getResponse();
+				try {
+					resp.sendError(
+							HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+							"Receiver raised exception:"
+									+ exception.getMessage());
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Couldn't write error response", e);
+				} finally {
+					context.complete();
+				}
+			}
+		});
+	}
+
 	@Override
 	protected void doGet(final HttpServletRequest req,
 			final HttpServletResponse resp) throws ServletException,
@@ -0,0 +1,107 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Class HandshakeCache, remembers the verified tokens of senders, shared
+ * by all servlets. Entries expire after an hour, the oldest entries are
+ * evicted when the cache is full. Concurrent verifications of the same token
+ * are coalesced into a single check.
+ */
+public final class HandshakeCache {
+	private static final int										MAX_SIZE	= 1000;
+	private static final long										TTL			= 3600000;
+	private static final Map<String, Long>							VERIFIED	= new BoundedMap();
+	private static final ConcurrentMap<String, FutureTask<Boolean>>	PENDING		= new ConcurrentHashMap<String, FutureTask<Boolean>>();
+	private static final AtomicLong									CHECKS		= new AtomicLong(0);
+
+	private HandshakeCache() {}
+
+	/**
+	 * Gets the number of handshakes actually run, since startup. Cached and
+	 * coalesced verifications aren't counted.
+	 *
+	 * @return the check count
+	 */
+	public static long getCheckCount() {
+		return CHECKS.get();
+	}
+
+	/**
+	 * Check if the token of the given sender is valid. A token verified
+	 * before is accepted from the cache, otherwise the check is run, or
+	 * awaited if another request is already checking the same token.
+	 *
+	 * @param senderUrl
+	 *            the sender url
+	 * @param token
+	 *            the token, as received in the X-Eve-Token header
+	 * @param check
+	 *            the check, doing the actual handshake
+	 * @return true, if the token is valid
+	 * @throws Exception
+	 *             the exception thrown by the check
+	 */
+	static boolean verify(final String senderUrl, final String token,
+			final Callable<Boolean> check) throws Exception {
+		final String key = senderUrl + " " + token;
+		synchronized (VERIFIED) {
+			final Long expires = VERIFIED.get(key);
+			if (expires != null) {
+				if (expires > System.currentTimeMillis()) {
+					return true;
+				}
+				VERIFIED.remove(key);
+			}
+		}
+		final FutureTask<Boolean> task = new FutureTask<Boolean>(check);
+		final FutureTask<Boolean> running = PENDING.putIfAbsent(key, task);
+		try {
+			if (running != null) {
+				return running.get();
+			}
+			try {
+				CHECKS.incrementAndGet();
+				task.run();
+				final boolean result = task.get();
+				if (result) {
+					synchronized (VERIFIED) {
+						VERIFIED.put(key, System.currentTimeMillis() + TTL);
+					}
+				}
+				return result;
+			} finally {
+				PENDING.remove(key, task);
+			}
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Insertion ordered map, evicting the oldest entry when full.
+	 */
+	private static class BoundedMap extends LinkedHashMap<String, Long> {
+		private static final long	serialVersionUID	= 3473616409323137524L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<String, Long> eldest) {
+			return size() > MAX_SIZE;
+		}
+	}
+}
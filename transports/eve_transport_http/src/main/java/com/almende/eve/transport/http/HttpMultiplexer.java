@@ -0,0 +1,189 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.jackson.JOM;
+import com.almende.util.jackson.JsonWritable;
+import com.almende.util.threads.DelayedBatcher;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * The Class HttpMultiplexer, coalesces the outbound messages of a transport
+ * per servlet url. The messages are posted as a single array of
+ * {to, from, message} envelops to the servlet url, when either the batch is
+ * full or the delay has passed since the first message of the batch. UTF-8
+ * encoded messages are kept as bytes, and escaped straight into the batch.
+ */
+class HttpMultiplexer extends
+		DelayedBatcher<URI, HttpMultiplexer.Envelop, HttpMultiplexer.Batch> {
+	private final HttpTransport	transport;
+
+	/**
+	 * Instantiates a new http multiplexer.
+	 *
+	 * @param transport
+	 *            the transport, used for posting the batches
+	 * @param maxSize
+	 *            the maximum number of messages per batch
+	 * @param maxDelay
+	 *            the maximum delay of a message, in milliseconds
+	 */
+	HttpMultiplexer(final HttpTransport transport, final int maxSize,
+			final long maxDelay) {
+		super(maxSize, maxDelay);
+		this.transport = transport;
+	}
+
+	/**
+	 * Gets the servlet url of the given agent url, which is the agent url
+	 * without the agent id.
+	 *
+	 * @param receiverUri
+	 *            the receiver uri
+	 * @return the servlet url
+	 */
+	static URI getServletUrl(final URI receiverUri) {
+		final String url = receiverUri.toASCIIString();
+		final int end = url.endsWith("/") ? url.length() - 1 : url.length();
+		return URI.create(url.substring(0, url.lastIndexOf('/', end - 1) + 1));
+	}
+
+	/**
+	 * Add a message to the batch of the servlet of the receiver.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param receiverUri
+	 *            the receiver uri
+	 * @param message
+	 *            the message
+	 * @param callback
+	 *            the callback, informed if the batch fails
+	 */
+	<T> void add(final URI receiverUri, final String message,
+			final AsyncCallback<T> callback) {
+		addEnvelop(receiverUri, message, callback);
+	}
+
+	/**
+	 * Add an UTF-8 encoded message to the batch of the servlet of the
+	 * receiver.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param receiverUri
+	 *            the receiver uri
+	 * @param message
+	 *            the message
+	 * @param callback
+	 *            the callback, informed if the batch fails
+	 */
+	<T> void add(final URI receiverUri, final byte[] message,
+			final AsyncCallback<T> callback) {
+		addEnvelop(receiverUri, message, callback);
+	}
+
+	private <T> void addEnvelop(final URI receiverUri, final Object message,
+			final AsyncCallback<T> callback) {
+		final URI servletUrl = getServletUrl(receiverUri);
+		final Batch full = enqueue(servletUrl,
+				new Envelop(receiverUri.toASCIIString(), message, callback));
+		if (full != null) {
+			send(servletUrl, full);
+		}
+	}
+
+	@Override
+	protected Batch createBatch(final URI servletUrl) {
+		return new Batch(transport.getAddress().toASCIIString());
+	}
+
+	@Override
+	protected int append(final Batch batch, final Envelop envelop) {
+		batch.envelops.add(envelop);
+		if (envelop.callback != null) {
+			batch.callbacks.add(envelop.callback);
+		}
+		return batch.envelops.size();
+	}
+
+	@Override
+	protected void send(final URI servletUrl, final Batch batch) {
+		final AsyncCallback<Void> callback = new AsyncCallback<Void>() {
+
+			@Override
+			public void onSuccess(final Void result) {}
+
+			@Override
+			public void onFailure(final Exception exception) {
+				for (final AsyncCallback<?> callback : batch.callbacks) {
+					callback.onFailure(exception);
+				}
+			}
+		};
+		try {
+			transport.postMultiplexed(servletUrl, JOM.writeToBuffer(batch),
+					callback);
+		} catch (final IOException e) {
+			callback.onFailure(e);
+		}
+	}
+
+	/**
+	 * A single message, with its receiver and callback.
+	 */
+	static class Envelop {
+		private final String			to;
+		private final Object			message;
+		private final AsyncCallback<?>	callback;
+
+		Envelop(final String to, final Object message,
+				final AsyncCallback<?> callback) {
+			this.to = to;
+			this.message = message;
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 * The pending messages for a single servlet, written as an array of
+	 * envelops.
+	 */
+	static class Batch implements JsonWritable {
+		private final String					from;
+		private final List<Envelop>				envelops	= new ArrayList<Envelop>();
+		private final List<AsyncCallback<?>>	callbacks	= new ArrayList<AsyncCallback<?>>(
+																	0);
+
+		Batch(final String from) {
+			this.from = from;
+		}
+
+		@Override
+		public void writeTo(final JsonGenerator generator) throws IOException {
+			generator.writeStartArray();
+			for (final Envelop envelop : envelops) {
+				generator.writeStartObject();
+				generator.writeStringField("to", envelop.to);
+				generator.writeStringField("from", from);
+				generator.writeFieldName("message");
+				if (envelop.message instanceof byte[]) {
+					final byte[] bytes = (byte[]) envelop.message;
+					generator.writeUTF8String(bytes, 0, bytes.length);
+				} else {
+					generator.writeString((String) envelop.message);
+				}
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+		}
+	}
+}
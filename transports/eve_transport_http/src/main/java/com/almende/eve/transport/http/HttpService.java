@@ -196,6 +196,22 @@ public class HttpService implements TransportService {
 		return myParams.getDoAuthentication();
 	}
 
+	/**
+	 * Should the Servlet handle inbound calls asynchronously?.
+	 * 
+	 * @param servletUrl
+	 *            the servlet url
+	 * @return true, if the servlet should use async processing.
+	 */
+	public static boolean isAsyncServlet(final URI servletUrl) {
+		final HttpService service = HttpTransportBuilder.getServices().get(
+				servletUrl);
+		if (service != null) {
+			return service.myParams.isAsyncServlet();
+		}
+		return false;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see
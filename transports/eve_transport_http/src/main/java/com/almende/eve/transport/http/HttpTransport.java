@@ -6,6 +6,7 @@ package com.almende.eve.transport.http;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -20,6 +21,9 @@ import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 
@@ -28,10 +32,13 @@ import com.almende.eve.transport.AbstractTransport;
 import com.almende.eve.transport.Receiver;
 import com.almende.eve.transport.TransportService;
 import com.almende.eve.transport.tokens.TokenStore;
+import com.almende.util.ApacheAsyncHttpClient;
 import com.almende.util.ApacheHttpClient;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.callback.AsyncCallbackStore;
 import com.almende.util.callback.SyncCallback;
+import com.almende.util.jackson.JOM;
+import com.almende.util.jackson.JsonWritable;
 import com.almende.util.threads.ThreadPool;
 import com.almende.util.uuid.UUID;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -45,7 +52,12 @@ public class HttpTransport extends AbstractTransport {
 	private static final Executor				RUNNER		= Executors
 																	.newCachedThreadPool(ThreadPool
 																			.getFactory());
+	private static final ContentType			TEXT_UTF8	= ContentType.create(
+																	"text/plain",
+																	"UTF-8");
 	private final AsyncCallbackStore<String>	callbacks;
+	private final HttpTransportConfig			config;
+	private final HttpMultiplexer				multiplexer;
 	private final TokenStore					tokenstore	= new TokenStore();
 	private final List<String>					protocols	= Arrays.asList(
 																	"http",
@@ -68,6 +80,10 @@ public class HttpTransport extends AbstractTransport {
 			final TransportService service, final ObjectNode params) {
 		super(address, handle, service, params);
 		callbacks = new AsyncCallbackStore<String>("HttpTags_" + address);
+		config = HttpTransportConfig.decorate(params != null ? params : JOM
+				.createObjectNode());
+		multiplexer = config.isMultiplex() ? new HttpMultiplexer(this,
+				config.getMultiplexSize(), config.getMultiplexDelay()) : null;
 	}
 
 	/*
@@ -98,7 +114,84 @@ public class HttpTransport extends AbstractTransport {
 		if (sendLocal(receiverUri, message)) {
 			return;
 		}
-		final String senderUrl = super.getAddress().toASCIIString();
+		if (multiplexer != null) {
+			multiplexer.add(receiverUri, message, exceptionCallback);
+			return;
+		}
+		post(receiverUri, new StringEntity(message, "UTF-8"), false,
+				exceptionCallback);
+	}
+
+	/**
+	 * Send an UTF-8 encoded message, the bytes are posted, or multiplexed, as
+	 * they are. Responses to inbound calls (tag set) and local receivers still get the
+	 * message as String.
+	 * 
+	 * @see com.almende.eve.transport.AbstractTransport#send(java.net.URI,
+	 *      java.nio.ByteBuffer, java.lang.String,
+	 *      com.almende.util.callback.AsyncCallback)
+	 */
+	@Override
+	public <T> void send(final URI receiverUri, final ByteBuffer message,
+			final String tag, final AsyncCallback<T> exceptionCallback)
+			throws IOException {
+		if (tag != null || getService().getLocal(receiverUri) != null) {
+			super.send(receiverUri, message, tag, exceptionCallback);
+			return;
+		}
+		if (multiplexer != null) {
+			multiplexer.add(receiverUri, toBytes(message), exceptionCallback);
+			return;
+		}
+		post(receiverUri, new ByteArrayEntity(toBytes(message), TEXT_UTF8),
+				false, exceptionCallback);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.transport.AbstractTransport#send(java.net.URI,
+	 * java.lang.Object, java.lang.String,
+	 * com.almende.util.callback.AsyncCallback)
+	 */
+	@Override
+	public <T> void send(final URI receiverUri, final Object message,
+			final String tag, final AsyncCallback<T> callback)
+			throws IOException {
+		if (tag == null && sendLocal(receiverUri, message)) {
+			// Local receiver gets the message object, without serialization.
+			return;
+		}
+		if (tag == null && message instanceof JsonWritable) {
+			send(receiverUri, JOM.writeToBuffer((JsonWritable) message), tag,
+					callback);
+		} else {
+			super.send(receiverUri, message, tag, callback);
+		}
+	}
+
+	/**
+	 * Post an array of envelops to the multiplexed endpoint of the given
+	 * servlet, see {@link EveServlet#handleMultiplexed}.
+	 *
+	 * @param servletUrl
+	 *            the servlet url
+	 * @param envelops
+	 *            the envelops, UTF-8 encoded JSON
+	 * @param exceptionCallback
+	 *            the exception callback
+	 */
+	void postMultiplexed(final URI servletUrl, final ByteBuffer envelops,
+			final AsyncCallback<Void> exceptionCallback) {
+		post(servletUrl, new ByteArrayEntity(toBytes(envelops), TEXT_UTF8),
+				true, exceptionCallback);
+	}
+
+	private <T> void post(final URI receiverUri, final HttpEntity body,
+			final boolean multiplexed, final AsyncCallback<T> exceptionCallback) {
+		if (config.isAsync()) {
+			postAsync(receiverUri, body, multiplexed, exceptionCallback);
+			return;
+		}
 		final Handler<Receiver> handle = super.getHandle();
 		// Use fresh Executor instead of the RunQueue, as this thread will sleep
 		// most of its run.
@@ -107,43 +200,11 @@ public class HttpTransport extends AbstractTransport {
 			public void run() {
 				HttpPost httpPost = null;
 				try {
-					httpPost = new HttpPost(receiverUri);
-					// invoke via Apache HttpClient request:
-					httpPost.setEntity(new StringEntity(message, "UTF-8"));
-					httpPost.setProtocolVersion(HttpVersion.HTTP_1_1);
-
-					// // Add token for HTTP handshake
-					httpPost.addHeader("X-Eve-Token", tokenstore.create()
-							.toString());
-					httpPost.addHeader("X-Eve-SenderUrl", senderUrl);
+					httpPost = createPost(receiverUri, body, multiplexed);
 					final HttpResponse webResp = ApacheHttpClient.get()
 							.execute(httpPost, HttpClientContext.create());
-					final HttpEntity entity = webResp.getEntity();
-					final String result = EntityUtils.toString(entity, "UTF-8");
-					EntityUtils.consumeQuietly(entity);
-					if (webResp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-						LOG.warning("Received HTTP Error Status:"
-								+ webResp.getStatusLine().getStatusCode() + ":"
-								+ webResp.getStatusLine().getReasonPhrase());
-						LOG.warning(result);
-						// TODO: should we send back a JSONRPCException? (Which
-						// is not a known type at this point!)
-						if (exceptionCallback != null) {
-							exceptionCallback.onFailure(new Exception(
-									"Received HTTP Error Status:"
-											+ webResp.getStatusLine()
-													.getStatusCode()
-											+ ":"
-											+ webResp.getStatusLine()
-													.getReasonPhrase()));
-						}
-					} else {
-						ThreadPool.getPool().execute(new Runnable() {
-							public void run() {
-								handle.get().receive(result, receiverUri, null);
-							}
-						});
-					}
+					handleResponse(receiverUri, webResp, handle,
+							multiplexed, exceptionCallback);
 				} catch (final Exception e) {
 					LOG.log(Level.WARNING,
 							"HTTP roundtrip resulted in exception!", e);
@@ -161,6 +222,101 @@ public class HttpTransport extends AbstractTransport {
 		});
 	}
 
+	/**
+	 * Post the message through the non-blocking HTTP client, no thread waits
+	 * for the response. The response is handled on the I/O thread and handed
+	 * to the receiver through the ThreadPool, so agent code can't stall the
+	 * I/O threads.
+	 */
+	private <T> void postAsync(final URI receiverUri, final HttpEntity body,
+			final boolean multiplexed, final AsyncCallback<T> exceptionCallback) {
+		final Handler<Receiver> handle = super.getHandle();
+		final HttpPost httpPost = createPost(receiverUri, body, multiplexed);
+		try {
+			ApacheAsyncHttpClient.get(config.getIoThreads(),
+					config.getMaxConnectionsPerRoute(),
+					config.getMaxConnections()).execute(httpPost,
+					new FutureCallback<HttpResponse>() {
+
+						@Override
+						public void completed(final HttpResponse webResp) {
+							try {
+								handleResponse(receiverUri, webResp, handle,
+										multiplexed, exceptionCallback);
+							} catch (final Exception e) {
+								failed(e);
+							}
+						}
+
+						@Override
+						public void failed(final Exception e) {
+							LOG.log(Level.WARNING,
+									"HTTP roundtrip resulted in exception!", e);
+							if (exceptionCallback != null) {
+								exceptionCallback.onFailure(new Exception(
+										"HTTP roundtrip resulted in exception!"));
+							}
+						}
+
+						@Override
+						public void cancelled() {
+							failed(new Exception("HTTP request cancelled"));
+						}
+					});
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't start async HTTP client!", e);
+			if (exceptionCallback != null) {
+				exceptionCallback.onFailure(e);
+			}
+		}
+	}
+
+	private HttpPost createPost(final URI receiverUri, final HttpEntity body,
+			final boolean multiplexed) {
+		final HttpPost httpPost = new HttpPost(receiverUri);
+		// invoke via Apache HttpClient request:
+		httpPost.setEntity(body);
+		httpPost.setProtocolVersion(HttpVersion.HTTP_1_1);
+
+		// // Add token for HTTP handshake
+		httpPost.addHeader("X-Eve-Token", tokenstore.create().toString());
+		httpPost.addHeader("X-Eve-SenderUrl", super.getAddress()
+				.toASCIIString());
+		if (multiplexed) {
+			httpPost.addHeader(EveServlet.MULTIPLEXED, "true");
+		}
+		return httpPost;
+	}
+
+	private <T> void handleResponse(final URI receiverUri,
+			final HttpResponse webResp, final Handler<Receiver> handle,
+			final boolean multiplexed, final AsyncCallback<T> exceptionCallback)
+			throws IOException {
+		final HttpEntity entity = webResp.getEntity();
+		final String result = EntityUtils.toString(entity, "UTF-8");
+		EntityUtils.consumeQuietly(entity);
+		if (webResp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+			LOG.warning("Received HTTP Error Status:"
+					+ webResp.getStatusLine().getStatusCode() + ":"
+					+ webResp.getStatusLine().getReasonPhrase());
+			LOG.warning(result);
+			// TODO: should we send back a JSONRPCException? (Which
+			// is not a known type at this point!)
+			if (exceptionCallback != null) {
+				exceptionCallback.onFailure(new Exception(
+						"Received HTTP Error Status:"
+								+ webResp.getStatusLine().getStatusCode() + ":"
+								+ webResp.getStatusLine().getReasonPhrase()));
+			}
+		} else if (!multiplexed) {
+			ThreadPool.getPool().execute(new Runnable() {
+				public void run() {
+					handle.get().receive(result, receiverUri, null);
+				}
+			});
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.almende.eve.transport.Transport#send(java.net.URI, byte[],
@@ -186,11 +342,8 @@ public class HttpTransport extends AbstractTransport {
 	 */
 	public String receive(final String body, final URI senderUrl)
 			throws IOException {
-		final String tag = new UUID().toString();
 		final SyncCallback<String> callback = new SyncCallback<String>() {};
-		callbacks.put(tag, "inbound http call", callback);
-
-		super.getHandle().get().receive(body, senderUrl, tag);
+		receive(body, senderUrl, callback);
 		try {
 			return callback.get();
 		} catch (final Exception e) {
@@ -199,6 +352,26 @@ public class HttpTransport extends AbstractTransport {
 		}
 	}
 
+	/**
+	 * Receive, without waiting for the response. The callback is called with
+	 * the response, or fails if the receiver doesn't answer within the
+	 * timeout of the callback store.
+	 * 
+	 * @param body
+	 *            the body
+	 * @param senderUrl
+	 *            the sender url
+	 * @param callback
+	 *            the callback
+	 */
+	public void receive(final String body, final URI senderUrl,
+			final AsyncCallback<String> callback) {
+		final String tag = new UUID().toString();
+		callbacks.put(tag, "inbound http call", callback);
+
+		super.getHandle().get().receive(body, senderUrl, tag);
+	}
+
 	/**
 	 * Gets the tokenstore of this transport
 	 * 
@@ -228,6 +401,19 @@ public class HttpTransport extends AbstractTransport {
 		// handler?
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.transport.AbstractTransport#delete()
+	 */
+	@Override
+	public void delete() {
+		if (multiplexer != null) {
+			multiplexer.flush();
+		}
+		callbacks.close();
+		super.delete();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.almende.eve.transport.Transport#getProtocols()
@@ -145,4 +145,190 @@ public class HttpTransportConfig extends TransportConfig {
 		LOG.warning("HTTP's authentication check is switched off per default");
 		return false;
 	}
+
+	/**
+	 * Sets the async flag, if true outbound calls use the non-blocking HTTP
+	 * client instead of a blocking thread per call.
+	 * 
+	 * @param async
+	 *            the new async flag
+	 */
+	public void setAsync(final boolean async) {
+		this.put("async", async);
+	}
+
+	/**
+	 * Checks if outbound calls use the non-blocking HTTP client.
+	 * 
+	 * @return true, if async
+	 */
+	public boolean isAsync() {
+		if (this.has("async")) {
+			return this.get("async").asBoolean();
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the number of I/O threads of the non-blocking HTTP client.
+	 * 
+	 * @param ioThreads
+	 *            the new number of I/O threads
+	 */
+	public void setIoThreads(final int ioThreads) {
+		this.put("ioThreads", ioThreads);
+	}
+
+	/**
+	 * Gets the number of I/O threads of the non-blocking HTTP client.
+	 * 
+	 * @return the number of I/O threads
+	 */
+	public int getIoThreads() {
+		if (this.has("ioThreads")) {
+			return this.get("ioThreads").asInt();
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets the maximum number of concurrent connections per route of the
+	 * non-blocking HTTP client.
+	 * 
+	 * @param maxConnectionsPerRoute
+	 *            the new maximum number of connections per route
+	 */
+	public void setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+		this.put("maxConnectionsPerRoute", maxConnectionsPerRoute);
+	}
+
+	/**
+	 * Gets the maximum number of concurrent connections per route of the
+	 * non-blocking HTTP client.
+	 * 
+	 * @return the maximum number of connections per route
+	 */
+	public int getMaxConnectionsPerRoute() {
+		if (this.has("maxConnectionsPerRoute")) {
+			return this.get("maxConnectionsPerRoute").asInt();
+		}
+		return 100;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent connections of the non-blocking
+	 * HTTP client.
+	 * 
+	 * @param maxConnections
+	 *            the new maximum number of connections
+	 */
+	public void setMaxConnections(final int maxConnections) {
+		this.put("maxConnections", maxConnections);
+	}
+
+	/**
+	 * Gets the maximum number of concurrent connections of the non-blocking
+	 * HTTP client.
+	 * 
+	 * @return the maximum number of connections
+	 */
+	public int getMaxConnections() {
+		if (this.has("maxConnections")) {
+			return this.get("maxConnections").asInt();
+		}
+		return 1000;
+	}
+
+	/**
+	 * Sets the async servlet flag, if true the servlet handles inbound calls
+	 * asynchronously (Servlet 3.0), no container thread waits for the
+	 * response of the agent.
+	 * 
+	 * @param asyncServlet
+	 *            the new async servlet flag
+	 */
+	public void setAsyncServlet(final boolean asyncServlet) {
+		this.put("asyncServlet", asyncServlet);
+	}
+
+	/**
+	 * Checks if the servlet handles inbound calls asynchronously.
+	 * 
+	 * @return true, if async servlet
+	 */
+	public boolean isAsyncServlet() {
+		if (this.has("asyncServlet")) {
+			return this.get("asyncServlet").asBoolean();
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the multiplex flag, if true outbound messages to agents behind the
+	 * same servlet url are coalesced into a single POST.
+	 * 
+	 * @param multiplex
+	 *            the new multiplex flag
+	 */
+	public void setMultiplex(final boolean multiplex) {
+		this.put("multiplex", multiplex);
+	}
+
+	/**
+	 * Checks if outbound messages are coalesced per servlet url.
+	 * 
+	 * @return true, if multiplex
+	 */
+	public boolean isMultiplex() {
+		if (this.has("multiplex")) {
+			return this.get("multiplex").asBoolean();
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the maximum number of messages per multiplexed POST.
+	 * 
+	 * @param multiplexSize
+	 *            the new multiplex size
+	 */
+	public void setMultiplexSize(final int multiplexSize) {
+		this.put("multiplexSize", multiplexSize);
+	}
+
+	/**
+	 * Gets the maximum number of messages per multiplexed POST.
+	 * 
+	 * @return the multiplex size
+	 */
+	public int getMultiplexSize() {
+		if (this.has("multiplexSize")) {
+			return this.get("multiplexSize").asInt();
+		}
+		return 50;
+	}
+
+	/**
+	 * Sets the maximum time a message waits for other messages to the same
+	 * servlet, in milliseconds.
+	 * 
+	 * @param multiplexDelay
+	 *            the new multiplex delay
+	 */
+	public void setMultiplexDelay(final long multiplexDelay) {
+		this.put("multiplexDelay", multiplexDelay);
+	}
+
+	/**
+	 * Gets the maximum time a message waits for other messages to the same
+	 * servlet, in milliseconds.
+	 * 
+	 * @return the multiplex delay
+	 */
+	public long getMultiplexDelay() {
+		if (this.has("multiplexDelay")) {
+			return this.get("multiplexDelay").asLong();
+		}
+		return 10;
+	}
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ssl.SSLContextBuilder;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+
+/**
+ * The Class ApacheAsyncHttpClient, non-blocking counterpart of
+ * ApacheHttpClient. All requests are handled by a fixed number of I/O reactor
+ * threads, the number of concurrent connections per route is limited by the
+ * connection pool, further requests wait in the pool. Clients are shared per
+ * configuration.
+ */
+public final class ApacheAsyncHttpClient {
+	private static final Logger											LOG		= Logger.getLogger(ApacheAsyncHttpClient.class
+																						.getCanonicalName());
+	private static final ConcurrentMap<String, CloseableHttpAsyncClient>	CLIENTS	= new ConcurrentHashMap<String, CloseableHttpAsyncClient>();
+
+	private ApacheAsyncHttpClient() {}
+
+	/**
+	 * Gets the started async client for the given settings.
+	 *
+	 * @param ioThreads
+	 *            the number of I/O reactor threads
+	 * @param maxPerRoute
+	 *            the maximum number of connections per route
+	 * @param maxTotal
+	 *            the maximum number of connections
+	 * @return the async http client
+	 * @throws IOReactorException
+	 *             the IO reactor exception
+	 */
+	public static CloseableHttpAsyncClient get(final int ioThreads,
+			final int maxPerRoute, final int maxTotal)
+			throws IOReactorException {
+		final String key = ioThreads + ":" + maxPerRoute + ":" + maxTotal;
+		CloseableHttpAsyncClient client = CLIENTS.get(key);
+		if (client == null) {
+			synchronized (CLIENTS) {
+				client = CLIENTS.get(key);
+				if (client == null) {
+					client = create(ioThreads, maxPerRoute, maxTotal);
+					client.start();
+					CLIENTS.put(key, client);
+				}
+			}
+		}
+		return client;
+	}
+
+	private static CloseableHttpAsyncClient create(final int ioThreads,
+			final int maxPerRoute, final int maxTotal)
+			throws IOReactorException {
+		final RegistryBuilder<SchemeIOSessionStrategy> registry = RegistryBuilder
+				.<SchemeIOSessionStrategy> create().register("http",
+						NoopIOSessionStrategy.INSTANCE);
+
+		// Allow self-signed SSL certificates:
+		try {
+			final SSLContext sslContext = new SSLContextBuilder()
+					.loadTrustMaterial(null, new TrustStrategy() {
+
+						@Override
+						public boolean isTrusted(
+								java.security.cert.X509Certificate[] arg0,
+								String arg1)
+								throws java.security.cert.CertificateException {
+							return true;
+						}
+					}).build();
+			registry.register("https", new SSLIOSessionStrategy(sslContext,
+					SSLIOSessionStrategy.ALLOW_ALL_HOSTNAME_VERIFIER));
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Couldn't init SSL strategy", e);
+		}
+
+		final IOReactorConfig ioConfig = IOReactorConfig.custom()
+				.setIoThreadCount(ioThreads).setConnectTimeout(20000)
+				.setSoTimeout(60000).setTcpNoDelay(true).build();
+		final PoolingNHttpClientConnectionManager connection = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(ioConfig), registry.build());
+		connection.setDefaultMaxPerRoute(maxPerRoute);
+		connection.setMaxTotal(maxTotal);
+
+		final RequestConfig globalConfig = RequestConfig.custom()
+				.setCookieSpec(CookieSpecs.BROWSER_COMPATIBILITY)
+				.setConnectTimeout(20000).build();
+
+		return HttpAsyncClients.custom().setConnectionManager(connection)
+				.setDefaultCookieStore(new BasicCookieStore())
+				.setDefaultRequestConfig(globalConfig).build();
+	}
+}
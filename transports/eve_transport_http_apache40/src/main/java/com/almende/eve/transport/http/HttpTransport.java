@@ -212,6 +212,17 @@ public class HttpTransport extends AbstractTransport {
 		// handler?
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.transport.AbstractTransport#delete()
+	 */
+	@Override
+	public void delete() {
+		callbacks.close();
+		super.delete();
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -5,9 +5,14 @@
 package com.almende.eve.transport.http.embed;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,10 +23,14 @@ import javax.websocket.DeploymentException;
 import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpointConfig;
 
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.servlet.ServletMapping;
 import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
 
 import com.almende.eve.transport.http.ServletLauncher;
@@ -96,6 +105,24 @@ public class JettyLauncher implements ServletLauncher {
 
 	}
 
+	/**
+	 * Gets the port the embedded server listens on. The server is shared by
+	 * all launchers in this JVM, and started on the port of the first config.
+	 *
+	 * @return the port, or -1 if the server isn't running
+	 */
+	public static int getPort() {
+		if (server == null) {
+			return -1;
+		}
+		final Connector[] connectors = server.getConnectors();
+		if (connectors.length == 0
+				|| !(connectors[0] instanceof ServerConnector)) {
+			return -1;
+		}
+		return ((ServerConnector) connectors[0]).getLocalPort();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see
@@ -115,6 +142,7 @@ public class JettyLauncher implements ServletLauncher {
 		}
 		LOG.info("Registering servlet:" + servletPath.getPath());
 		ServletHolder sh = new ServletHolder(servlet);
+		sh.setAsyncSupported(true);
 
 		if (config.has("initParams")) {
 			ArrayNode params = (ArrayNode) config.get("initParams");
@@ -126,7 +154,48 @@ public class JettyLauncher implements ServletLauncher {
 
 		}
 
-		context.addServlet(sh, servletPath.getPath() + "*");
+		final String pathSpec = servletPath.getPath() + "*";
+		removeServlet(pathSpec);
+		context.addServlet(sh, pathSpec);
+	}
+
+	/**
+	 * Remove the servlet mapped to the given path, if any, so a servlet
+	 * registered again on the same path replaces the old one. Jetty refuses
+	 * two servlets on one path, leaving its mappings unusable.
+	 *
+	 * @param pathSpec
+	 *            the path spec
+	 */
+	private void removeServlet(final String pathSpec) {
+		final ServletHandler handler = context.getServletHandler();
+		final ServletMapping[] mappings = handler.getServletMappings();
+		if (mappings == null) {
+			return;
+		}
+		final List<ServletMapping> kept = new ArrayList<ServletMapping>(
+				mappings.length);
+		final Set<String> removed = new HashSet<String>();
+		for (final ServletMapping mapping : mappings) {
+			if (Arrays.asList(mapping.getPathSpecs()).contains(pathSpec)) {
+				LOG.warning("Replacing servlet on path:" + pathSpec);
+				removed.add(mapping.getServletName());
+			} else {
+				kept.add(mapping);
+			}
+		}
+		if (removed.isEmpty()) {
+			return;
+		}
+		final List<ServletHolder> holders = new ArrayList<ServletHolder>();
+		for (final ServletHolder holder : handler.getServlets()) {
+			if (!removed.contains(holder.getName())) {
+				holders.add(holder);
+			}
+		}
+		handler.setServletMappings(kept.toArray(new ServletMapping[kept
+				.size()]));
+		handler.setServlets(holders.toArray(new ServletHolder[holders.size()]));
 	}
 
 	@Override
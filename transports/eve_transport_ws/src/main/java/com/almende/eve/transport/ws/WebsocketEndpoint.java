@@ -58,7 +58,7 @@ public class WebsocketEndpoint extends Endpoint {
 		}
 		
 		transport.registerRemote(remoteId, remote);
-		transport.setConnected(true);
+		transport.onOpen(session, config);
 		
 		final String id = remoteId;
 		session.addMessageHandler(new MessageHandler.Whole<String>() {
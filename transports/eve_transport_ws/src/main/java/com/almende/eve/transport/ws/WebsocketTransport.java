@@ -25,7 +25,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 public abstract class WebsocketTransport extends AbstractTransport {
 	private static final Logger	LOG			= Logger.getLogger(WebsocketTransport.class
 													.getName());
-	private boolean				connected	= false;
+	private volatile boolean	connected	= false;
 	
 	/**
 	 * Instantiates a new websocket transport.
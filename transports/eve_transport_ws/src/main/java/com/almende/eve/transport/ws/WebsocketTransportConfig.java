@@ -163,4 +163,28 @@ public class WebsocketTransportConfig extends TransportConfig {
 		}
 		return null;
 	}
+
+	/**
+	 * Sets the maximum number of outbound messages waiting per connection,
+	 * sending fails beyond this limit. On the client this also bounds the
+	 * messages kept while disconnected. (Optional, default is 1000)
+	 * 
+	 * @param maxQueueSize
+	 *            the new max queue size
+	 */
+	public void setMaxQueueSize(final int maxQueueSize) {
+		this.put("maxQueueSize", maxQueueSize);
+	}
+
+	/**
+	 * Gets the maximum number of outbound messages waiting per connection.
+	 * 
+	 * @return the max queue size
+	 */
+	public int getMaxQueueSize() {
+		if (this.has("maxQueueSize")) {
+			return this.get("maxQueueSize").asInt();
+		}
+		return 1000;
+	}
 }
@@ -8,38 +8,53 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.websocket.ClientEndpointConfig;
 import javax.websocket.CloseReason;
 import javax.websocket.DeploymentException;
+import javax.websocket.EndpointConfig;
 import javax.websocket.RemoteEndpoint.Async;
 import javax.websocket.Session;
 
 import org.glassfish.tyrus.client.ClientManager;
 
 import com.almende.eve.capabilities.handler.Handler;
+import com.almende.eve.transport.ConnectionSupervisor;
 import com.almende.eve.transport.Receiver;
 import com.almende.eve.transport.TransportService;
 import com.almende.util.URIUtil;
 import com.almende.util.callback.AsyncCallback;
+import com.almende.util.threads.ThreadPool;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * The Class WebsocketTransport.
  */
 public class WsClientTransport extends WebsocketTransport {
-	private static final Logger	LOG			= Logger.getLogger(WsClientTransport.class
-													.getName());
-	private Async				remote		= null;
-	private URI					serverUrl	= null;
-	private String				myId		= null;
-	private ClientManager		client		= null;
-	private Session				session		= null;
-	private Boolean				shouldClose	= false;
+	private static final Logger		LOG				= Logger.getLogger(WsClientTransport.class
+																		.getName());
+	private static final long		DRAIN_DELAY		= 100;
+	private volatile Async			remote			= null;
+	private URI						serverUrl		= null;
+	private String					myId			= null;
+	private ClientManager			client			= null;
+	private Session					session			= null;
+	private volatile boolean		shouldClose		= false;
+	private final Deque<Pending>	outbound		= new ArrayDeque<Pending>();
+	private int						maxQueueSize	= 1000;
+	private final Runnable			drainer			= new Runnable() {
+														@Override
+														public void run() {
+															drain();
+														}
+													};
 
 	/**
 	 * Instantiates a new websocket transport.
@@ -70,6 +85,7 @@ public class WsClientTransport extends WebsocketTransport {
 			LOG.warning("'serverUrl' parameter is required!");
 		}
 		myId = config.getId();
+		maxQueueSize = config.getMaxQueueSize();
 	}
 
 	/**
@@ -133,23 +149,7 @@ public class WsClientTransport extends WebsocketTransport {
 							+ " serverUrl:"
 							+ serverUrl.toASCIIString());
 		}
-		if (remote == null || !isConnected()) {
-			connect();
-		}
-		if (remote != null) {
-			try {
-				remote.sendText(message);
-				remote.flushBatch();
-			} catch (RuntimeException rte) {
-				if (rte.getMessage().equals("Socket is not connected.")) {
-					remote = null;
-					// retry!
-					send(receiverUri, message, tag, callback);
-				}
-			}
-		} else {
-			throw new IOException("Not connected?");
-		}
+		write(message, callback);
 	}
 
 	/*
@@ -165,36 +165,142 @@ public class WsClientTransport extends WebsocketTransport {
 					"Currently it's only possible to send to the server agent directly, not other agents:"
 							+ receiverUri.toASCIIString());
 		}
-		if (remote == null || !isConnected()) {
-			connect();
+		write(message, callback);
+	}
+
+	/**
+	 * Write the message, String or byte[], if connected. Otherwise the message
+	 * is kept in the outbound buffer, and the connection is (re)established in
+	 * the background, also after an intentional disconnect; the sending
+	 * thread never waits for the handshake.
+	 */
+	private void write(final Object message, final AsyncCallback<?> callback)
+			throws IOException {
+		boolean reconnect = false;
+		synchronized (outbound) {
+			final Async current = remote;
+			if (current == null || !isConnected() || !outbound.isEmpty()) {
+				if (outbound.size() >= maxQueueSize) {
+					throw new IOException("Outbound buffer full ("
+							+ maxQueueSize + " messages), not connected.");
+				}
+				outbound.add(new Pending(message, callback));
+				reconnect = (current == null || !isConnected())
+						&& !ConnectionSupervisor.isReconnecting(this);
+			} else {
+				try {
+					send(current, message);
+					current.flushBatch();
+				} catch (final RuntimeException rte) {
+					if (!"Socket is not connected.".equals(rte.getMessage())) {
+						throw new IOException(rte);
+					}
+					remote = null;
+					outbound.add(new Pending(message, callback));
+					reconnect = true;
+				}
+			}
+		}
+		if (reconnect) {
+			reconnect();
+		}
+	}
+
+	private void send(final Async current, final Object message)
+			throws IOException {
+		if (message instanceof byte[]) {
+			current.sendBinary(ByteBuffer.wrap((byte[]) message));
+		} else {
+			current.sendText((String) message);
 		}
-		if (remote != null) {
+	}
+
+	/**
+	 * Write all buffered messages, with a single flush. If the connection is
+	 * lost meanwhile, the remaining messages are kept for the next connection.
+	 * Otherwise the failed message is dropped, and the rest is drained again.
+	 */
+	private void drain() {
+		boolean reconnect = false;
+		boolean retry = false;
+		synchronized (outbound) {
+			final Async current = remote;
+			if (current == null || outbound.isEmpty()) {
+				return;
+			}
+			Pending pending = outbound.poll();
 			try {
-				remote.sendBinary(ByteBuffer.wrap(message));
-				remote.flushBatch();
-			} catch (RuntimeException rte) {
-				if (rte.getMessage().equals("Socket is not connected.")) {
+				while (pending != null) {
+					send(current, pending.message);
+					pending = outbound.poll();
+				}
+				current.flushBatch();
+			} catch (final Exception e) {
+				LOG.log(Level.WARNING, "Failed to write buffered messages", e);
+				if (!isConnected()) {
+					if (pending != null) {
+						// Keep it for the next connection:
+						outbound.addFirst(pending);
+					}
 					remote = null;
-					// retry!
-					send(receiverUri, message, tag, callback);
+					reconnect = true;
+				} else {
+					if (pending != null && pending.callback != null) {
+						pending.callback.onFailure(e);
+					}
+					retry = !outbound.isEmpty();
 				}
 			}
-		} else {
-			throw new IOException("Not connected?");
+		}
+		if (reconnect) {
+			reconnect();
+		} else if (retry) {
+			ThreadPool.getScheduledPool().schedule(drainer, DRAIN_DELAY,
+					TimeUnit.MILLISECONDS);
 		}
 	}
 
+	private void reconnect() {
+		synchronized (this) {
+			session = null;
+			remote = null;
+		}
+		ConnectionSupervisor.disconnected(this, serverUrl.toASCIIString());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.almende.eve.transport.ws.WebsocketTransport#onOpen(javax.websocket
+	 * .Session, javax.websocket.EndpointConfig)
+	 */
+	@Override
+	public void onOpen(final Session session, final EndpointConfig config) {
+		super.onOpen(session, config);
+		ConnectionSupervisor.connected(this);
+		drain();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.almende.eve.transport.ws.WebsocketTransport#onClose(javax.websocket
+	 * .Session, javax.websocket.CloseReason)
+	 */
 	@Override
 	public void onClose(final Session session, final CloseReason closeReason) {
-		if (!shouldClose) {
-			try {
-				connect();
-			} catch (IOException e) {
-				LOG.log(Level.WARNING, "Failed to reconnect", e);
-				super.onClose(session, closeReason);
+		synchronized (this) {
+			if (this.session != null && this.session != session) {
+				// An old session, closing after the next connect:
+				return;
 			}
-		} else {
-			super.onClose(session, closeReason);
+			this.session = null;
+			remote = null;
+		}
+		super.onClose(session, closeReason);
+		if (!shouldClose) {
+			// Reconnect in the background, instead of on the websocket thread:
+			ConnectionSupervisor.disconnected(this, serverUrl.toASCIIString());
 		}
 	}
 
@@ -203,10 +309,11 @@ public class WsClientTransport extends WebsocketTransport {
 	 * @see com.almende.eve.transport.ws.WebsocketTransport#connect()
 	 */
 	@Override
-	public void connect() throws IOException {
+	public synchronized void connect() throws IOException {
 		if (session != null) {
 			return;
 		}
+		shouldClose = false;
 		if (client == null) {
 			client = ClientManager.createClient();
 			client.setDefaultMaxSessionIdleTimeout(-1);
@@ -220,8 +327,10 @@ public class WsClientTransport extends WebsocketTransport {
 
 		} catch (final DeploymentException e) {
 			LOG.log(Level.WARNING, "Can't connect to server", e);
+			throw new IOException("Can't connect to server", e);
 		} catch (final URISyntaxException e) {
 			LOG.log(Level.WARNING, "Can't parse server address", e);
+			throw new IOException("Can't parse server address", e);
 		}
 
 	}
@@ -232,16 +341,33 @@ public class WsClientTransport extends WebsocketTransport {
 	 */
 	@Override
 	public void disconnect() {
-		try {
+		ConnectionSupervisor.forget(this);
+		synchronized (outbound) {
+			Pending pending = outbound.poll();
+			while (pending != null) {
+				if (pending.callback != null) {
+					pending.callback.onFailure(new IOException(
+							"Transport disconnected"));
+				}
+				pending = outbound.poll();
+			}
+		}
+		final Session current;
+		synchronized (this) {
+			// Stays set until the next connect, as onClose may come later:
 			shouldClose = true;
-
-			session.close();
-
-			shouldClose = false;
+			current = session;
+			session = null;
+			remote = null;
+			setConnected(false);
+		}
+		try {
+			if (current != null) {
+				current.close();
+			}
 		} catch (IOException e) {
 			LOG.log(Level.WARNING, "Failed to normally close session", e);
 		}
-		session = null;
 	}
 
 	/**
@@ -279,4 +405,16 @@ public class WsClientTransport extends WebsocketTransport {
 		return Arrays.asList("wss", "ws");
 	}
 
+	/**
+	 * A message waiting for the connection.
+	 */
+	private static class Pending {
+		private final Object			message;
+		private final AsyncCallback<?>	callback;
+
+		Pending(final Object message, final AsyncCallback<?> callback) {
+			this.message = message;
+			this.callback = callback;
+		}
+	}
 }
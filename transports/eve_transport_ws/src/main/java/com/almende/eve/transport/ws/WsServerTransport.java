@@ -8,10 +8,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.websocket.CloseReason;
 import javax.websocket.RemoteEndpoint.Async;
@@ -28,7 +28,8 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  * The Class WebsocketTransport.
  */
 public class WsServerTransport extends WebsocketTransport {
-	private final Map<URI, Async>	remotes	= new HashMap<URI, Async>();
+	private final ConcurrentMap<URI, WsWriter>	remotes	= new ConcurrentHashMap<URI, WsWriter>();
+	private final int							maxQueueSize;
 	
 	/**
 	 * Instantiates a new websocket transport.
@@ -45,6 +46,8 @@ public class WsServerTransport extends WebsocketTransport {
 	public WsServerTransport(final URI address, final Handler<Receiver> handle,
 			final TransportService service, final ObjectNode params) {
 		super(address, handle, service, params);
+		maxQueueSize = WebsocketTransportConfig.decorate(params)
+				.getMaxQueueSize();
 	}
 	
 	/*
@@ -61,7 +64,10 @@ public class WsServerTransport extends WebsocketTransport {
 			final String remoteId = (String) session.getUserProperties().get(
 					"remoteId");
 			final URI key = URIUtil.create("wsclient:" + remoteId);
-			remotes.remove(key);
+			final WsWriter writer = remotes.remove(key);
+			if (writer != null) {
+				writer.close();
+			}
 		}
 	}
 	
@@ -85,7 +91,18 @@ public class WsServerTransport extends WebsocketTransport {
 	@Override
 	protected void registerRemote(final String id, final Async remote) {
 		final URI key = URI.create("wsclient:" + id);
-		remotes.put(key, remote);
+		while (true) {
+			final WsWriter current = remotes.get(key);
+			if (current != null && current.getRemote() == remote) {
+				// Reopened on the same connection, keep its writer:
+				return;
+			}
+			final WsWriter writer = new WsWriter(remote, maxQueueSize);
+			if (current == null ? remotes.putIfAbsent(key, writer) == null
+					: remotes.replace(key, current, writer)) {
+				return;
+			}
+		}
 	}
 	
 	/*
@@ -110,10 +127,9 @@ public class WsServerTransport extends WebsocketTransport {
 	@Override
 	public <T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> calback) throws IOException {
-		if (remotes.containsKey(receiverUri)) {
-			final Async remote = remotes.get(receiverUri);
-			remote.sendText(message);
-			remote.flushBatch();
+		final WsWriter remote = remotes.get(receiverUri);
+		if (remote != null) {
+			remote.send(message, calback);
 		} else {
 			throw new IOException("Remote: " + receiverUri.toASCIIString()
 					+ " is currently not connected. (" + getAddress() + " / "
@@ -130,10 +146,9 @@ public class WsServerTransport extends WebsocketTransport {
 	@Override
 	public <T> void send(final URI receiverUri, final byte[] message,
 			final String tag, final AsyncCallback<T> calback) throws IOException {
-		if (remotes.containsKey(receiverUri)) {
-			final Async remote = remotes.get(receiverUri);
-			remote.sendBinary(ByteBuffer.wrap(message));
-			remote.flushBatch();
+		final WsWriter remote = remotes.get(receiverUri);
+		if (remote != null) {
+			remote.send(ByteBuffer.wrap(message), calback);
 		} else {
 			throw new IOException("Remote: " + receiverUri.toASCIIString()
 					+ " is currently not connected.");
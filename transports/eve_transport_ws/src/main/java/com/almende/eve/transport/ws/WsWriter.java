@@ -0,0 +1,200 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.ws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+
+import com.almende.util.callback.AsyncCallback;
+
+/**
+ * The Class WsWriter, the outbound queue of a single websocket connection.
+ * Messages are handed to the container one at a time: the next message is
+ * sent once the container reports the previous one written, as containers may
+ * refuse a send while another is in flight. In batching mode the container
+ * reports a message written once it is batched, and the batch is flushed when
+ * the queue is empty. Messages count against the queue limit until the
+ * container reports them written; if the limit is exceeded, sending fails, so
+ * the caller can back off.
+ */
+class WsWriter {
+	private static final Logger			LOG			= Logger.getLogger(WsWriter.class
+														.getName());
+	private final Async					remote;
+	private final int					maxQueueSize;
+	private final AtomicInteger			size		= new AtomicInteger(0);
+	private final Queue<Pending>		queue		= new ConcurrentLinkedQueue<Pending>();
+	private final AtomicBoolean			sending		= new AtomicBoolean(false);
+	// Set while this thread starts a send, the container may report the
+	// result before the send returns:
+	private final ThreadLocal<Boolean>	starting	= new ThreadLocal<Boolean>();
+	// Only used by the thread that holds the sending flag:
+	private boolean						unflushed	= false;
+
+	/**
+	 * Instantiates a new ws writer.
+	 *
+	 * @param remote
+	 *            the remote
+	 * @param maxQueueSize
+	 *            the maximum number of pending messages
+	 */
+	WsWriter(final Async remote, final int maxQueueSize) {
+		this.remote = remote;
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	/**
+	 * Gets the remote this writer sends to.
+	 *
+	 * @return the remote
+	 */
+	Async getRemote() {
+		return remote;
+	}
+
+	/**
+	 * Queue a message, String or ByteBuffer, for writing.
+	 *
+	 * @param message
+	 *            the message
+	 * @param callback
+	 *            the callback, informed if writing fails, may be null
+	 * @throws IOException
+	 *             Signals that the queue is full.
+	 */
+	void send(final Object message, final AsyncCallback<?> callback)
+			throws IOException {
+		if (size.incrementAndGet() > maxQueueSize) {
+			size.decrementAndGet();
+			throw new IOException("Outbound queue full (" + maxQueueSize
+					+ " messages), remote is too slow.");
+		}
+		queue.add(new Pending(message, callback));
+		next();
+	}
+
+	/**
+	 * Gets the number of pending messages.
+	 *
+	 * @return the queue size
+	 */
+	int getQueueSize() {
+		return size.get();
+	}
+
+	/**
+	 * Fail all pending messages, e.g. after the connection closed.
+	 */
+	void close() {
+		Pending pending = queue.poll();
+		while (pending != null) {
+			size.decrementAndGet();
+			pending.fail(new IOException("Connection closed"));
+			pending = queue.poll();
+		}
+	}
+
+	/**
+	 * Send the next message, unless a send is in flight. Results reported
+	 * while starting a send are picked up by this loop, instead of recursing.
+	 */
+	private void next() {
+		while (sending.compareAndSet(false, true)) {
+			final Pending pending = queue.poll();
+			if (pending == null) {
+				if (unflushed) {
+					unflushed = false;
+					flush();
+				}
+				sending.set(false);
+				// Messages added before the flag was released need a send:
+				if (queue.isEmpty()) {
+					return;
+				}
+				continue;
+			}
+			unflushed = true;
+			starting.set(Boolean.TRUE);
+			try {
+				write(pending);
+			} finally {
+				starting.remove();
+			}
+		}
+	}
+
+	private void write(final Pending pending) {
+		try {
+			if (pending.message instanceof ByteBuffer) {
+				remote.sendBinary((ByteBuffer) pending.message, pending);
+			} else {
+				remote.sendText(pending.message.toString(), pending);
+			}
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Failed to write message", e);
+			size.decrementAndGet();
+			pending.fail(e);
+			sending.set(false);
+		}
+	}
+
+	private void flush() {
+		try {
+			remote.flushBatch();
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Failed to flush messages", e);
+		}
+	}
+
+	/**
+	 * A message waiting to be written, informed by the container once it is.
+	 */
+	private class Pending implements SendHandler {
+		private final Object			message;
+		private final AsyncCallback<?>	callback;
+
+		Pending(final Object message, final AsyncCallback<?> callback) {
+			this.message = message;
+			this.callback = callback;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * javax.websocket.SendHandler#onResult(javax.websocket.SendResult)
+		 */
+		@Override
+		public void onResult(final SendResult result) {
+			size.decrementAndGet();
+			if (!result.isOK()) {
+				LOG.log(Level.WARNING, "Failed to write message",
+						result.getException());
+				fail(new IOException("Failed to write message",
+						result.getException()));
+			}
+			sending.set(false);
+			if (starting.get() == null) {
+				next();
+			}
+		}
+
+		void fail(final Exception e) {
+			if (callback != null) {
+				callback.onFailure(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.xmpp;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.Roster;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.Presence;
+
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.threads.SerialExecutor;
+
+/**
+ * The Class XmppConnection, a single connection of an XmppConnectionPool,
+ * logged in with its own resource. Outbound messages are queued and written by
+ * a single writer at a time, which connects if needed. If that fails, the rest
+ * of the queued messages fail as well, and the agents of the pool are handed
+ * to the ConnectionSupervisor for reconnecting. Inbound messages are
+ * dispatched to the agents of the pool.
+ */
+class XmppConnection implements PacketListener {
+	private static final Logger				LOG		= Logger.getLogger(XmppConnection.class
+															.getName());
+	private final XmppConnectionPool		pool;
+	private final String					resource;
+	private final int						priority;
+	private final SerialExecutor<Pending>	writer	= new SerialExecutor<Pending>() {
+														@Override
+														protected void process(
+																final Pending pending) {
+															write(pending);
+														}
+
+														@Override
+														protected void drained() {
+															failure = null;
+														}
+													};
+	private XMPPConnection					conn	= null;
+	// Only used by the writer:
+	private IOException						failure	= null;
+
+	/**
+	 * Instantiates a new xmpp connection.
+	 *
+	 * @param pool
+	 *            the pool
+	 * @param resource
+	 *            the resource of this connection
+	 * @param priority
+	 *            the presence priority
+	 */
+	XmppConnection(final XmppConnectionPool pool, final String resource,
+			final int priority) {
+		this.pool = pool;
+		this.resource = resource;
+		this.priority = priority;
+	}
+
+	/**
+	 * Checks if is connected.
+	 *
+	 * @return true, if is connected
+	 */
+	synchronized boolean isConnected() {
+		return conn != null && conn.isConnected();
+	}
+
+	/**
+	 * Gets the underlying XMPP connection.
+	 *
+	 * @return the XMPP connection, or null if not connected
+	 */
+	synchronized XMPPConnection getXmppConnection() {
+		return isConnected() ? conn : null;
+	}
+
+	/**
+	 * Connect and login, if not connected already.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	synchronized void connect() throws IOException {
+		if (isConnected()) {
+			return;
+		}
+		final ConnectionConfiguration connConfig = new ConnectionConfiguration(
+				pool.getHost(), pool.getPort(), pool.getServiceName());
+		connConfig.setSASLAuthenticationEnabled(true);
+		connConfig.setReconnectionAllowed(true);
+		connConfig.setCompressionEnabled(true);
+		connConfig.setRosterLoadedAtLogin(false);
+
+		conn = new XMPPConnection(connConfig);
+		try {
+			conn.connect();
+			conn.login(pool.getUsername(), pool.getPassword(), resource);
+			conn.addPacketListener(this, new PacketTypeFilter(Message.class));
+
+			// Only the first connection of the pool gets messages sent to
+			// the bare JID, or to resources that aren't bound:
+			conn.sendPacket(new Presence(Presence.Type.available, null,
+					priority, Presence.Mode.available));
+			conn.getRoster().setSubscriptionMode(
+					Roster.SubscriptionMode.accept_all);
+		} catch (final XMPPException e) {
+			LOG.log(Level.WARNING, "", e);
+			conn = null;
+			throw new IOException("Failed to connect to messenger", e);
+		}
+	}
+
+	/**
+	 * Disconnect, failing all queued messages.
+	 */
+	synchronized void disconnect() {
+		if (conn != null) {
+			conn.removePacketListener(this);
+			conn.disconnect();
+			conn = null;
+		}
+		Pending pending = writer.poll();
+		while (pending != null) {
+			pending.fail(new IOException("Connection closed"));
+			pending = writer.poll();
+		}
+	}
+
+	/**
+	 * Queue a message for sending.
+	 *
+	 * @param message
+	 *            the message
+	 * @param callback
+	 *            the callback, informed if sending fails, may be null
+	 */
+	void send(final Message message, final AsyncCallback<?> callback) {
+		writer.add(new Pending(message, callback));
+	}
+
+	private void write(final Pending pending) {
+		if (failure != null) {
+			pending.fail(failure);
+			return;
+		}
+		try {
+			connect();
+		} catch (final IOException e) {
+			// Fail the rest of this drain, the agents are reconnected by the
+			// ConnectionSupervisor:
+			failure = e;
+			pending.fail(e);
+			pool.connectionLost();
+			return;
+		}
+		try {
+			final XMPPConnection current;
+			synchronized (this) {
+				current = conn;
+			}
+			current.sendPacket(pending.message);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Failed to send XMPP message", e);
+			pending.fail(e instanceof IOException ? e : new IOException(e));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * org.jivesoftware.smack.PacketListener#processPacket(org.jivesoftware.
+	 * smack.packet.Packet)
+	 */
+	@Override
+	public void processPacket(final Packet packet) {
+		pool.dispatch((Message) packet);
+	}
+
+	/**
+	 * A message waiting to be sent.
+	 */
+	private static class Pending {
+		private final Message			message;
+		private final AsyncCallback<?>	callback;
+
+		Pending(final Message message, final AsyncCallback<?> callback) {
+			this.message = message;
+			this.callback = callback;
+		}
+
+		void fail(final Exception e) {
+			if (callback != null) {
+				callback.onFailure(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.xmpp;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.StringUtils;
+
+import com.almende.eve.transport.ConnectionSupervisor;
+import com.almende.util.callback.AsyncCallback;
+
+/**
+ * The Class XmppConnectionPool, a small set of connections to a single XMPP
+ * account, shared by all multiplexed agents of that account. Agents are
+ * addressed by resource: xmpp:user@host/agentId. The pool connections are
+ * logged in with their own resources, the first one with the highest
+ * priority; the server delivers messages for the agent resources, which
+ * aren't bound, to that connection. The other connections announce a
+ * negative priority, so the server doesn't deliver such messages to them as
+ * well. The agent resources of sender and receiver are also carried as
+ * message properties. Outbound messages of an agent always use the same
+ * connection, which keeps them in order.
+ */
+final class XmppConnectionPool {
+	private static final Logger										LOG				= Logger.getLogger(XmppConnectionPool.class
+																							.getName());
+	/** The message property containing the resource of the sending agent. */
+	static final String												FROM_RESOURCE	= "eve-from";
+	/** The message property containing the resource of the receiving agent. */
+	static final String												TO_RESOURCE		= "eve-to";
+	private static final ConcurrentMap<String, XmppConnectionPool>	POOLS			= new ConcurrentHashMap<String, XmppConnectionPool>();
+	private final String											key;
+	private final String											host;
+	private final int												port;
+	private final String											serviceName;
+	private final String											username;
+	private final String											password;
+	private final XmppConnection[]									connections;
+	private final ConcurrentMap<String, XmppTransport>				agents			= new ConcurrentHashMap<String, XmppTransport>();
+	private boolean													closed			= false;
+
+	private XmppConnectionPool(final String key, final String host,
+			final int port, final String serviceName, final String username,
+			final String password, final int size) {
+		this.key = key;
+		this.host = host;
+		this.port = port;
+		this.serviceName = serviceName;
+		this.username = username;
+		this.password = password;
+		connections = new XmppConnection[size > 0 ? size : 1];
+		for (int i = 0; i < connections.length; i++) {
+			connections[i] = new XmppConnection(this, "eve-pool-" + i,
+					i == 0 ? 1 : -1);
+		}
+	}
+
+	/**
+	 * Gets the pool of the given account, creating it if needed.
+	 *
+	 * @param host
+	 *            the host
+	 * @param port
+	 *            the port
+	 * @param serviceName
+	 *            the service name
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 * @param size
+	 *            the number of connections, if the pool is created
+	 * @return the xmpp connection pool
+	 */
+	static XmppConnectionPool get(final String host, final int port,
+			final String serviceName, final String username,
+			final String password, final int size) {
+		final String key = username + "@" + host + ":" + port;
+		XmppConnectionPool pool = POOLS.get(key);
+		if (pool == null) {
+			pool = new XmppConnectionPool(key, host, port, serviceName,
+					username, password, size);
+			final XmppConnectionPool other = POOLS.putIfAbsent(key, pool);
+			if (other != null) {
+				pool = other;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Register an agent transport and connect the pool. A pool that has been
+	 * closed, after its last agent was unregistered, can't be used anymore;
+	 * the transport should get a new pool. If the agent is unregistered while
+	 * connecting, the connections of the closed pool are disconnected again.
+	 *
+	 * @param transport
+	 *            the transport
+	 * @return true, if registered; false if the pool is closed
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	boolean register(final XmppTransport transport) throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return false;
+			}
+			agents.put(transport.getResource(), transport);
+		}
+		for (final XmppConnection connection : connections) {
+			connection.connect();
+		}
+		synchronized (this) {
+			if (!closed) {
+				return true;
+			}
+		}
+		for (final XmppConnection connection : connections) {
+			connection.disconnect();
+		}
+		return true;
+	}
+
+	/**
+	 * Unregister an agent transport, the pool is closed and removed after its
+	 * last agent is gone.
+	 *
+	 * @param transport
+	 *            the transport
+	 */
+	void unregister(final XmppTransport transport) {
+		synchronized (this) {
+			agents.remove(transport.getResource(), transport);
+			if (!agents.isEmpty()) {
+				return;
+			}
+			closed = true;
+			POOLS.remove(key, this);
+		}
+		for (final XmppConnection connection : connections) {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Report that a connection of the pool failed to connect, the agents are
+	 * reconnected in the background.
+	 */
+	void connectionLost() {
+		for (final XmppTransport transport : agents.values()) {
+			ConnectionSupervisor.disconnected(transport, key);
+		}
+	}
+
+	/**
+	 * Checks if the connection of the given agent is connected.
+	 *
+	 * @param resource
+	 *            the resource of the agent
+	 * @return true, if is connected
+	 */
+	boolean isConnected(final String resource) {
+		return getConnection(resource).isConnected();
+	}
+
+	/**
+	 * Gets the XMPP connection of the given agent.
+	 *
+	 * @param resource
+	 *            the resource of the agent
+	 * @return the XMPP connection, or null if not connected
+	 */
+	XMPPConnection getXmppConnection(final String resource) {
+		return getConnection(resource).getXmppConnection();
+	}
+
+	/**
+	 * Send a message on behalf of the given agent.
+	 *
+	 * @param resource
+	 *            the resource of the sending agent
+	 * @param message
+	 *            the message
+	 * @param callback
+	 *            the callback, informed if sending fails, may be null
+	 */
+	void send(final String resource, final Message message,
+			final AsyncCallback<?> callback) {
+		message.setProperty(FROM_RESOURCE, resource);
+		final String to = StringUtils.parseResource(message.getTo());
+		if (to != null && !to.isEmpty()) {
+			message.setProperty(TO_RESOURCE, to);
+		}
+		getConnection(resource).send(message, callback);
+	}
+
+	/**
+	 * Dispatch an inbound message to the agent it is addressed to.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	void dispatch(final Message message) {
+		Object resource = message.getProperty(TO_RESOURCE);
+		if (resource == null) {
+			resource = StringUtils.parseResource(message.getTo());
+		}
+		final XmppTransport transport = resource != null ? agents
+				.get(resource.toString()) : null;
+		if (transport == null) {
+			LOG.warning("Received stanza for unknown agent, disregarding. "
+					+ resource);
+			return;
+		}
+		transport.deliver(message);
+	}
+
+	private XmppConnection getConnection(final String resource) {
+		return connections[(resource.hashCode() & Integer.MAX_VALUE)
+				% connections.length];
+	}
+
+	/**
+	 * Gets the host.
+	 *
+	 * @return the host
+	 */
+	String getHost() {
+		return host;
+	}
+
+	/**
+	 * Gets the port.
+	 *
+	 * @return the port
+	 */
+	int getPort() {
+		return port;
+	}
+
+	/**
+	 * Gets the service name.
+	 *
+	 * @return the service name
+	 */
+	String getServiceName() {
+		return serviceName;
+	}
+
+	/**
+	 * Gets the username.
+	 *
+	 * @return the username
+	 */
+	String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Gets the password.
+	 *
+	 * @return the password
+	 */
+	String getPassword() {
+		return password;
+	}
+}
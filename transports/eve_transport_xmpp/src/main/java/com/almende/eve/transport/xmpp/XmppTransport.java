@@ -20,6 +20,7 @@ import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.StringUtils;
 
 import com.almende.eve.capabilities.handler.Handler;
 import com.almende.eve.transport.AbstractTransport;
@@ -27,22 +28,35 @@ import com.almende.eve.transport.Receiver;
 import com.almende.eve.transport.TransportService;
 import com.almende.util.URIUtil;
 import com.almende.util.callback.AsyncCallback;
+import com.almende.util.threads.SerialExecutor;
 
 /**
- * The Class XmppTransport.
+ * The Class XmppTransport. Inbound messages are handed to the agent through
+ * the thread pool, one at a time and in arrival order, so a slow agent
+ * doesn't stall the connection. In multiplexed mode the agent doesn't open
+ * its own connection, but shares the XmppConnectionPool of its account.
  */
 public class XmppTransport extends AbstractTransport implements PacketListener {
-	private static final Logger	LOG			= Logger.getLogger(XmppTransport.class
-													.getSimpleName());
-	private final List<String>	protocols	= Arrays.asList("xmpp");
+	private static final Logger				LOG			= Logger.getLogger(XmppTransport.class
+																.getSimpleName());
+	private final List<String>				protocols	= Arrays.asList("xmpp");
 	
-	private XMPPConnection		conn		= null;
-	private String				serviceName	= null;
-	private String				host		= null;
-	private String				username	= null;
-	private int					port		= 0;
-	private String				resource	= null;
-	private String				password	= null;
+	private XMPPConnection					conn		= null;
+	private String							serviceName	= null;
+	private String							host		= null;
+	private String							username	= null;
+	private int								port		= 0;
+	private String							resource	= null;
+	private String							password	= null;
+	private int								poolSize	= 0;
+	private volatile XmppConnectionPool		pool		= null;
+	private final SerialExecutor<Inbound>	inbound		= new SerialExecutor<Inbound>() {
+															@Override
+															protected void process(
+																	final Inbound next) {
+																receive(next);
+															}
+														};
 	
 	/**
 	 * Instantiates a new xmpp transport.
@@ -71,6 +85,11 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 			serviceName = host;
 		}
 		password = config.getPassword();
+		if (config.getMultiplexed()) {
+			poolSize = config.getPoolSize();
+			pool = XmppConnectionPool.get(host, port, serviceName, username,
+					password, poolSize);
+		}
 	}
 	
 	/*
@@ -82,6 +101,14 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 	@Override
 	public<T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> callback) throws IOException {
+		if (pool != null) {
+			final Message msg = new Message();
+			msg.setTo(receiverUri.toASCIIString().replace("xmpp:", ""));
+			msg.setType(Message.Type.chat);
+			msg.setBody(message);
+			pool.send(resource, msg, callback);
+			return;
+		}
 		if (!isConnected()) {
 			connect();
 		}
@@ -111,8 +138,20 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 	}
 	
 	private boolean isConnected() {
+		if (pool != null) {
+			return pool.isConnected(resource);
+		}
 		return (conn != null) ? conn.isConnected() : false;
 	}
+
+	/**
+	 * Gets the resource, identifying the agent in multiplexed mode.
+	 *
+	 * @return the resource
+	 */
+	String getResource() {
+		return resource;
+	}
 	
 	/*
 	 * (non-Javadoc)
@@ -121,6 +160,17 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 	 */
 	@Override
 	public void connect() throws IOException {
+		if (pool != null) {
+			// The pool is closed after its last agent disconnected, reconnect
+			// through the current pool of the account:
+			XmppConnectionPool current = pool;
+			while (!current.register(this)) {
+				current = XmppConnectionPool.get(host, port, serviceName,
+						username, password, poolSize);
+			}
+			pool = current;
+			return;
+		}
 		if (isConnected()) {
 			return;
 		}
@@ -172,6 +222,10 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 	 */
 	@Override
 	public void disconnect() {
+		if (pool != null) {
+			pool.unregister(this);
+			return;
+		}
 		if (isConnected()) {
 			conn.disconnect();
 			conn = null;
@@ -203,10 +257,35 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 				}
 			}
 		}
+		deliver(message);
+	}
+
+	/**
+	 * Hand an inbound message to the agent, through the thread pool.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	void deliver(final Message message) {
 		final String body = message.getBody();
-		final URI senderUrl = URIUtil.create("xmpp:" + message.getFrom());
-		if (body != null) {
-			super.getHandle().get().receive(body, senderUrl, null);
+		if (body == null) {
+			return;
+		}
+		String from = message.getFrom();
+		final Object fromResource = message
+				.getProperty(XmppConnectionPool.FROM_RESOURCE);
+		if (fromResource != null) {
+			// Sent by a multiplexed agent, reply to the agent's resource:
+			from = StringUtils.parseBareAddress(from) + "/" + fromResource;
+		}
+		inbound.add(new Inbound(body, URIUtil.create("xmpp:" + from)));
+	}
+
+	private void receive(final Inbound next) {
+		try {
+			getHandle().get().receive(next.body, next.senderUrl, null);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Failed to receive XMPP message", e);
 		}
 	}
 	
@@ -229,6 +308,13 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 		final String res = receiver.substring(slash + 1, receiver.length());
 		final String user = receiver.substring(0, slash);
 		
+		// In multiplexed mode, use the connection of this agent in the pool:
+		final XMPPConnection conn = pool != null ? pool
+				.getXmppConnection(resource) : this.conn;
+		if (conn == null) {
+			LOG.warning("Not connected, can't check presence of " + receiver);
+			return false;
+		}
 		final Roster roster = conn.getRoster();
 		
 		final org.jivesoftware.smack.RosterEntry re = roster.getEntry(user);
@@ -267,4 +353,17 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 		return "XmppTransport:" + super.getAddress().toASCIIString() + " ("
 				+ username + "@" + host + ":" + port + "/" + resource + ")";
 	}
+
+	/**
+	 * An inbound message, waiting for the agent.
+	 */
+	private static class Inbound {
+		private final String	body;
+		private final URI		senderUrl;
+
+		Inbound(final String body, final URI senderUrl) {
+			this.body = body;
+			this.senderUrl = senderUrl;
+		}
+	}
 }
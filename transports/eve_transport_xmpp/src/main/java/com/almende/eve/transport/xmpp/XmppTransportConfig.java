@@ -99,4 +99,51 @@ public class XmppTransportConfig extends TransportConfig {
 	public void setPassword(final String password) {
 		this.put("password", password);
 	}
+
+	/**
+	 * Sets multiplexed mode: agents of the same account share a small pool of
+	 * connections, instead of opening a connection each. (Optional, default
+	 * is false)
+	 *
+	 * @param multiplexed
+	 *            the new multiplexed
+	 */
+	public void setMultiplexed(final boolean multiplexed) {
+		this.put("multiplexed", multiplexed);
+	}
+
+	/**
+	 * Gets the multiplexed.
+	 *
+	 * @return the multiplexed
+	 */
+	public boolean getMultiplexed() {
+		if (this.has("multiplexed")) {
+			return this.get("multiplexed").asBoolean();
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the number of connections per account, in multiplexed mode.
+	 * (Optional, default is 2)
+	 *
+	 * @param poolSize
+	 *            the new pool size
+	 */
+	public void setPoolSize(final int poolSize) {
+		this.put("poolSize", poolSize);
+	}
+
+	/**
+	 * Gets the pool size.
+	 *
+	 * @return the pool size
+	 */
+	public int getPoolSize() {
+		if (this.has("poolSize")) {
+			return this.get("poolSize").asInt();
+		}
+		return 2;
+	}
 }
@@ -4,6 +4,10 @@
  */
 package com.almende.eve.transport.zmq;
 
+import java.nio.charset.Charset;
+
+import com.almende.eve.transport.tokens.TokenRet;
+
 /**
  * The Class ZMQ.
  */
@@ -25,6 +29,57 @@ public class ZMQ extends org.zeromq.ZMQ {
 															.valueOf(2)
 															.byteValue() };
 	
+	/** The charset of all text frames. */
+	public static final Charset	UTF8				= Charset.forName("UTF-8");
+	
+	/**
+	 * Encode a token frame: the length of the time (one byte), the time and
+	 * the token, both UTF-8.
+	 * 
+	 * @param token
+	 *            the token
+	 * @return the frame
+	 */
+	public static byte[] encodeToken(final TokenRet token) {
+		return encodeToken(token.getTime(), token.getToken());
+	}
+	
+	/**
+	 * Encode a token frame.
+	 * 
+	 * @param time
+	 *            the time, may be null
+	 * @param token
+	 *            the token, may be null
+	 * @return the frame
+	 */
+	public static byte[] encodeToken(final String time, final String token) {
+		final byte[] timeBytes = time == null ? new byte[0] : time
+				.getBytes(UTF8);
+		final byte[] tokenBytes = token == null ? new byte[0] : token
+				.getBytes(UTF8);
+		final byte[] result = new byte[1 + timeBytes.length
+				+ tokenBytes.length];
+		result[0] = (byte) timeBytes.length;
+		System.arraycopy(timeBytes, 0, result, 1, timeBytes.length);
+		System.arraycopy(tokenBytes, 0, result, 1 + timeBytes.length,
+				tokenBytes.length);
+		return result;
+	}
+	
+	/**
+	 * Decode a token frame.
+	 * 
+	 * @param frame
+	 *            the frame
+	 * @return the token
+	 */
+	public static TokenRet decodeToken(final byte[] frame) {
+		final int timeLength = frame[0] & 0xFF;
+		return new TokenRet(new String(frame, 1 + timeLength, frame.length - 1
+				- timeLength, UTF8), new String(frame, 1, timeLength, UTF8));
+	}
+	
 	/**
 	 * Gets the single instance of ZMQ.
 	 * 
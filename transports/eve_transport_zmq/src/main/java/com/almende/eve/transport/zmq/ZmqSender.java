@@ -0,0 +1,171 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.zmq;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.ZMQ.Socket;
+
+import com.almende.util.callback.AsyncCallback;
+
+/**
+ * The Class ZmqSender, keeps connected PUSH sockets per destination. ZMQ
+ * sockets are not thread-safe, therefore each destination is owned by one of
+ * a few dedicated sender threads; sending a message is an enqueue onto that
+ * thread. This also keeps the messages to a destination in order. Sockets
+ * that haven't been used for a minute are closed.
+ */
+final class ZmqSender {
+	private static final Logger		LOG				= Logger.getLogger(ZmqSender.class
+															.getName());
+	private static final int		NOF_THREADS		= 2;
+	private static final long		IDLE_TIMEOUT	= 60000;
+	private static final Worker[]	WORKERS			= new Worker[NOF_THREADS];
+	static {
+		for (int i = 0; i < NOF_THREADS; i++) {
+			WORKERS[i] = new Worker();
+			final Thread thread = new Thread(WORKERS[i], "ZmqSender-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private ZmqSender() {}
+
+	/**
+	 * Send a multipart message to the given address.
+	 *
+	 * @param addr
+	 *            the zmq address
+	 * @param frames
+	 *            the frames
+	 * @param callback
+	 *            the callback, informed on failure, may be null
+	 */
+	static void send(final String addr, final byte[][] frames,
+			final AsyncCallback<?> callback) {
+		WORKERS[(addr.hashCode() & Integer.MAX_VALUE) % NOF_THREADS].queue
+				.add(new Task(addr, frames, callback));
+	}
+
+	/**
+	 * A message waiting to be sent.
+	 */
+	private static class Task {
+		private final String			addr;
+		private final byte[][]			frames;
+		private final AsyncCallback<?>	callback;
+
+		Task(final String addr, final byte[][] frames,
+				final AsyncCallback<?> callback) {
+			this.addr = addr;
+			this.frames = frames;
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 * A connected socket, with its last use.
+	 */
+	private static class Connection {
+		private final Socket	socket;
+		private long			lastUsed;
+
+		Connection(final Socket socket) {
+			this.socket = socket;
+		}
+	}
+
+	/**
+	 * The sender thread, owning the sockets of its destinations.
+	 */
+	private static class Worker implements Runnable {
+		private final BlockingQueue<Task>		queue		= new LinkedBlockingQueue<Task>();
+		// Only accessed by the worker thread.
+		private final Map<String, Connection>	sockets		= new HashMap<String, Connection>();
+		private long							lastEviction	= System.currentTimeMillis();
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					final Task task = queue.poll(IDLE_TIMEOUT / 2,
+							TimeUnit.MILLISECONDS);
+					if (task != null) {
+						send(task);
+					}
+					evict();
+				} catch (final InterruptedException e) {
+					// Nothing todo.
+				} catch (final Exception e) {
+					LOG.log(Level.WARNING, "ZMQ sender failure", e);
+				}
+			}
+		}
+
+		private void send(final Task task) {
+			Connection connection = sockets.get(task.addr);
+			try {
+				if (connection == null) {
+					final Socket socket = ZMQ.getSocket(org.zeromq.ZMQ.PUSH);
+					connection = new Connection(socket);
+					sockets.put(task.addr, connection);
+					socket.connect(task.addr);
+				}
+				connection.lastUsed = System.currentTimeMillis();
+				final int last = task.frames.length - 1;
+				for (int i = 0; i < last; i++) {
+					connection.socket.send(task.frames[i],
+							org.zeromq.ZMQ.SNDMORE);
+				}
+				connection.socket.send(task.frames[last], 0);
+			} catch (final Exception e) {
+				LOG.log(Level.WARNING, "Failed to send JSON through ZMQ", e);
+				if (connection != null) {
+					sockets.remove(task.addr);
+					close(connection);
+				}
+				if (task.callback != null) {
+					task.callback.onFailure(new IOException(
+							"Failed to send JSON through ZMQ, e: "
+									+ e.getMessage()));
+				}
+			}
+		}
+
+		private void evict() {
+			final long now = System.currentTimeMillis();
+			if (now - lastEviction < IDLE_TIMEOUT / 2) {
+				return;
+			}
+			lastEviction = now;
+			final Iterator<Connection> iter = sockets.values().iterator();
+			while (iter.hasNext()) {
+				final Connection connection = iter.next();
+				if (now - connection.lastUsed > IDLE_TIMEOUT) {
+					iter.remove();
+					close(connection);
+				}
+			}
+		}
+
+		private void close(final Connection connection) {
+			try {
+				connection.socket.setLinger(-1);
+				connection.socket.close();
+			} catch (final Exception e) {
+				LOG.log(Level.FINE, "Failed to close ZMQ socket", e);
+			}
+		}
+	}
+}
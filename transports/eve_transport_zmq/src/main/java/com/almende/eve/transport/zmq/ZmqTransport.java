@@ -9,8 +9,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,9 +30,9 @@ import com.almende.util.ObjectCache;
 import com.almende.util.URIUtil;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.callback.AsyncCallbackStore;
-import com.almende.util.callback.SyncCallback;
 import com.almende.util.jackson.JOM;
-import com.almende.util.threads.ThreadPool;
+import com.almende.util.jackson.JsonWritable;
+import com.almende.util.threads.SerialExecutor;
 
 /**
  * The Class ZmqTransport.
@@ -43,6 +47,12 @@ public class ZmqTransport extends AbstractTransport {
 	private static final AsyncCallbackStore<String>	CALLBACKS			= new AsyncCallbackStore<String>(
 																				"ZMQ");
 	private final TokenStore						tokenstore			= new TokenStore();
+	private volatile EncodedToken					encodedToken		= null;
+	// Messages of senders with a running handshake, per session key.
+	private final Map<String, List<String>>			pending				= new HashMap<String, List<String>>();
+	// Verified senders whose parked messages are still being delivered,
+	// changed while holding the "pending" lock.
+	private final Map<String, Delivery>				flushing			= new ConcurrentHashMap<String, Delivery>();
 	private final List<String>						protocols			= Arrays.asList("zmq");
 
 	/**
@@ -63,14 +73,14 @@ public class ZmqTransport extends AbstractTransport {
 	}
 
 	/**
-	 * Send async.
+	 * Send async, through the pooled socket of the receiver.
 	 *
 	 * @param <T>
 	 *            the generic type
 	 * @param zmqType
 	 *            the zmq type
 	 * @param token
-	 *            the token
+	 *            the token, see {@link ZMQ#encodeToken}
 	 * @param receiverUrl
 	 *            the receiver url
 	 * @param message
@@ -80,39 +90,30 @@ public class ZmqTransport extends AbstractTransport {
 	 * @param callback
 	 *            the callback
 	 */
-	public <T> void sendAsync(final byte[] zmqType, final String token,
+	public <T> void sendAsync(final byte[] zmqType, final byte[] token,
 			final URI receiverUrl, final byte[] message, final String tag,
 			final AsyncCallback<T> callback) {
-		final String senderUrl = super.getAddress().toString();
-		ThreadPool.getPool().execute(new Runnable() {
+		final String addr = receiverUrl.toString().replaceFirst("zmq:/?/?",
+				"");
+		ZmqSender.send(addr, new byte[][] { zmqType,
+				super.getAddress().toString().getBytes(ZMQ.UTF8), token,
+				message }, callback);
+	}
 
-			/*
-			 * (non-Javadoc)
-			 * @see java.lang.Runnable#run()
-			 */
-			@Override
-			public void run() {
-				final String addr = receiverUrl.toString().replaceFirst(
-						"zmq:/?/?", "");
-				final Socket socket = ZMQ.getSocket(org.zeromq.ZMQ.PUSH);
-				try {
-					socket.connect(addr);
-					socket.send(zmqType, org.zeromq.ZMQ.SNDMORE);
-					socket.send(senderUrl, org.zeromq.ZMQ.SNDMORE);
-					socket.send(token, org.zeromq.ZMQ.SNDMORE);
-					socket.send(message, 0);
-
-				} catch (final Exception e) {
-					LOG.log(Level.WARNING, "Failed to send JSON through ZMQ", e);
-					callback.onFailure(new IOException(
-							"Failed to send JSON through ZMQ, e: "
-									+ e.getMessage()));
-				}
-				socket.setTCPKeepAlive(-1);
-				socket.setLinger(-1);
-				socket.close();
-			}
-		});
+	/**
+	 * Gets the token frame of the current token. The frame is encoded once
+	 * per token rotation, and shared by all outbound messages.
+	 *
+	 * @return the token frame
+	 */
+	private byte[] getTokenFrame() {
+		final TokenRet token = tokenstore.create();
+		EncodedToken encoded = encodedToken;
+		if (encoded == null || encoded.token != token) {
+			encoded = new EncodedToken(token);
+			encodedToken = encoded;
+		}
+		return encoded.frame;
 	}
 
 	/*
@@ -124,10 +125,42 @@ public class ZmqTransport extends AbstractTransport {
 	public <T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> callback)
 			throws IOException {
-		sendAsync(ZMQ.NORMAL, tokenstore.create().toString(), receiverUri,
+		sendAsync(ZMQ.NORMAL, getTokenFrame(), receiverUri,
 				message.getBytes(), tag, callback);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.transport.AbstractTransport#send(java.net.URI,
+	 * java.nio.ByteBuffer, java.lang.String,
+	 * com.almende.util.callback.AsyncCallback)
+	 */
+	@Override
+	public <T> void send(final URI receiverUri, final ByteBuffer message,
+			final String tag, final AsyncCallback<T> callback)
+			throws IOException {
+		sendAsync(ZMQ.NORMAL, getTokenFrame(), receiverUri,
+				toBytes(message), tag, callback);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.transport.AbstractTransport#send(java.net.URI,
+	 * java.lang.Object, java.lang.String,
+	 * com.almende.util.callback.AsyncCallback)
+	 */
+	@Override
+	public <T> void send(final URI receiverUri, final Object message,
+			final String tag, final AsyncCallback<T> callback)
+			throws IOException {
+		if (message instanceof JsonWritable) {
+			send(receiverUri, JOM.writeToBuffer((JsonWritable) message), tag,
+					callback);
+		} else {
+			super.send(receiverUri, message, tag, callback);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.almende.eve.transport.Transport#send(java.net.URI, byte[],
@@ -137,7 +170,7 @@ public class ZmqTransport extends AbstractTransport {
 	public <T> void send(final URI receiverUri, final byte[] message,
 			final String tag, final AsyncCallback<T> callback)
 			throws IOException {
-		sendAsync(ZMQ.NORMAL, tokenstore.create().toString(), receiverUri,
+		sendAsync(ZMQ.NORMAL, getTokenFrame(), receiverUri,
 				message, tag, callback);
 	}
 
@@ -250,21 +283,21 @@ public class ZmqTransport extends AbstractTransport {
 			NoSuchMethodException, IOException, URISyntaxException {
 
 		// Receive
-		// ZMQ.NORMAL|senderUrl|tokenJson|body
-		// ZMQ.HANDSHAKE|senderUrl|tokenJson|timestamp
-		// ZMQ.HANDSHAKE_RESPONSE|senderUrl|tokenJson|null
+		// ZMQ.NORMAL|senderUrl|token|body
+		// ZMQ.HANDSHAKE|senderUrl|token|timestamp
+		// ZMQ.HANDSHAKE_RESPONSE|senderUrl|token|token
 
 		final URI senderUrl = URIUtil.parse(new String(msg[1].array()));
-		final TokenRet token = JOM.getInstance().readValue(msg[2].array(),
-				TokenRet.class);
+		final TokenRet token = ZMQ.decodeToken(msg[2].array());
 		final String body = new String(msg[3].array());
 		final String key = senderUrl + ":" + token.getToken();
 
 		if (Arrays.equals(msg[0].array(), ZMQ.HANDSHAKE)) {
 			// Reply token corresponding to timestamp.
 			final String res = tokenstore.get(body);
-			sendAsync(ZMQ.HANDSHAKE_RESPONSE, res, senderUrl, res.getBytes(),
-					null, null);
+			sendAsync(ZMQ.HANDSHAKE_RESPONSE,
+					ZMQ.encodeToken(null, res), senderUrl,
+					res.getBytes(), null, null);
 			return;
 		} else if (Arrays.equals(msg[0].array(), ZMQ.HANDSHAKE_RESPONSE)) {
 			// post response to callback for handling by other thread
@@ -276,30 +309,142 @@ public class ZmqTransport extends AbstractTransport {
 						+ senderUrl + " : " + token);
 			}
 			return;
-		} else {
-			final ObjectCache sessionCache = ObjectCache.get("ZMQSessions");
-			if (!sessionCache.containsKey(key) && doesAuthentication) {
-				final SyncCallback<String> callback = new SyncCallback<String>() {};
-				CALLBACKS.put(key, "", callback);
-				sendAsync(ZMQ.HANDSHAKE, token.toString(), senderUrl, token
-						.getTime().getBytes(), null, null);
-
-				String retToken = null;
-				try {
-					retToken = callback.get();
-				} catch (final Exception e) {}
-				if (token.getToken().equals(retToken)) {
-					sessionCache.put(key, true);
-				} else {
+		} else if (doesAuthentication
+				&& (!flushing.isEmpty() || !ObjectCache.get("ZMQSessions")
+						.containsKey(key))) {
+			if (park(key, senderUrl, token, msg[2].array(), body)) {
+				return;
+			}
+		}
+
+		if (body != null) {
+			super.getHandle().get().receive(body, senderUrl, null);
+		}
+	}
+
+	/**
+	 * Park a message of an unverified sender, until the handshake completes.
+	 * Only the first message of a sender starts a handshake, the listening
+	 * thread never waits for it. Messages of a verified sender, whose parked
+	 * messages are still being delivered, are queued behind them.
+	 * 
+	 * @param key
+	 *            the session key
+	 * @param senderUrl
+	 *            the sender url
+	 * @param token
+	 *            the token
+	 * @param tokenFrame
+	 *            the token frame, as received
+	 * @param body
+	 *            the body
+	 * @return true, if parked; false if the sender is verified, and the
+	 *         message can be delivered directly
+	 */
+	private boolean park(final String key, final URI senderUrl,
+			final TokenRet token, final byte[] tokenFrame, final String body) {
+		synchronized (pending) {
+			final Delivery delivery = flushing.get(key);
+			if (delivery != null) {
+				delivery.add(body);
+				return true;
+			}
+			List<String> queue = pending.get(key);
+			if (queue != null) {
+				// Handshake already running
+				queue.add(body);
+				return true;
+			}
+			if (ObjectCache.get("ZMQSessions").containsKey(key)) {
+				return false;
+			}
+			queue = new ArrayList<String>();
+			queue.add(body);
+			pending.put(key, queue);
+		}
+		CALLBACKS.put(key, "ZMQ handshake", new AsyncCallback<String>() {
+
+			@Override
+			public void onSuccess(final String retToken) {
+				if (!token.getToken().equals(retToken)) {
+					synchronized (pending) {
+						pending.remove(key);
+					}
 					LOG.warning("Failed to complete handshake!");
 					return;
 				}
+				synchronized (pending) {
+					// The key leaves "pending" only when the session exists,
+					// and its messages are delivered in order by one task:
+					final List<String> queue = pending.remove(key);
+					ObjectCache.get("ZMQSessions").put(key, true);
+					if (queue != null) {
+						final Delivery delivery = new Delivery(key, senderUrl);
+						flushing.put(key, delivery);
+						for (final String body : queue) {
+							delivery.add(body);
+						}
+					}
+				}
+			}
+
+			@Override
+			public void onFailure(final Exception exception) {
+				final List<String> queue;
+				synchronized (pending) {
+					queue = pending.remove(key);
+				}
+				LOG.log(Level.WARNING, "Failed to complete handshake, dropping "
+						+ (queue == null ? 0 : queue.size()) + " messages!",
+						exception);
 			}
+		});
+		sendAsync(ZMQ.HANDSHAKE, tokenFrame, senderUrl, token.getTime()
+				.getBytes(), null, null);
+		return true;
+	}
+
+	/**
+	 * The delivery of the messages of a sender, verified by a handshake,
+	 * outside the listening thread. Once all are delivered, new messages of
+	 * the sender are delivered directly again.
+	 */
+	private class Delivery extends SerialExecutor<String> {
+		private final String	key;
+		private final URI		senderUrl;
+
+		Delivery(final String key, final URI senderUrl) {
+			this.key = key;
+			this.senderUrl = senderUrl;
 		}
 
-		if (body != null) {
-			super.getHandle().get().receive(body, senderUrl, null);
+		@Override
+		protected void process(final String body) {
+			if (body != null) {
+				getHandle().get().receive(body, senderUrl, null);
+			}
+		}
+
+		@Override
+		protected void drained() {
+			synchronized (pending) {
+				if (isEmpty()) {
+					flushing.remove(key);
+				}
+			}
 		}
 	}
 
+	/**
+	 * A token, with its encoded frame.
+	 */
+	private static class EncodedToken {
+		private final TokenRet	token;
+		private final byte[]	frame;
+
+		EncodedToken(final TokenRet token) {
+			this.token = token;
+			this.frame = ZMQ.encodeToken(token);
+		}
+	}
 }